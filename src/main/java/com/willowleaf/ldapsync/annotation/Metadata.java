@@ -0,0 +1,14 @@
+package com.willowleaf.ldapsync.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 字段是同步过程中生成的元数据，需要保存但不属于LDAP中的内容，不参与内容哈希的计算。
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Metadata {
+}
@@ -0,0 +1,73 @@
+package com.willowleaf.ldapsync.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 同时写入数据库和Elasticsearch的配置，每个存储单独配置写入队列和重试策略。
+ */
+@Data
+@ConfigurationProperties(prefix = "storage.composite")
+public class CompositeStorageProperties {
+
+    /**
+     * 数据库（JPA或JDBC）。
+     */
+    private Sink database = new Sink();
+
+    /**
+     * Elasticsearch。
+     */
+    private Sink elasticsearch = new Sink();
+
+    /**
+     * 全量同步时是否跳过内容哈希没有变化的部门和员工。
+     */
+    private boolean skipUnchanged = true;
+
+    /**
+     * 跳过没有变化的数据时，是否只更新有变化的数据中发生变化的字段（数据库的列和Elasticsearch文档的字段）。
+     */
+    private boolean partialUpdates = true;
+
+    /**
+     * 同步成功后是否根据部门的嵌套集合重新生成部门闭包表（department_closure）。
+     */
+    private boolean closureTable = false;
+
+    @Data
+    public static class Sink {
+
+        /**
+         * 并发写入数。
+         */
+        private int concurrency = 8;
+
+        /**
+         * 等待队列的容量，队列已满时写入的线程等待。
+         */
+        private int queueCapacity = 1000;
+
+        /**
+         * 写入失败后的最大重试次数。
+         */
+        private int retries = 3;
+
+        /**
+         * 第一次重试前的等待时间，之后每次重试加倍。
+         */
+        private Duration backoffDelay = Duration.ofMillis(200);
+
+        /**
+         * 重试前的最长等待时间。
+         */
+        private Duration maxBackoffDelay = Duration.ofSeconds(5);
+
+        /**
+         * 一次同步中保留的失败数据的最大条数，超出部分只计数。
+         */
+        private int maxDeadLetters = 1000;
+    }
+}
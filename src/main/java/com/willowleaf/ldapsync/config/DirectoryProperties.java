@@ -0,0 +1,60 @@
+package com.willowleaf.ldapsync.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 内存中组织架构目录的配置。
+ */
+@Data
+@ConfigurationProperties(prefix = "directory")
+public class DirectoryProperties {
+
+    /**
+     * <pre>
+     * 是否在同步成功后将组织架构保存在内存中，供目录查询接口使用。
+     * 开启后同步过程中会在内存中保留所有部门和员工的JSON文档，流式同步（STREAMING）不再只占用有限的内存。
+     * </pre>
+     */
+    private boolean enabled = false;
+
+    /**
+     * 内存中没有数据源的目录时（例如进程重启后），是否从最新的快照加载。
+     */
+    private boolean loadSnapshot = true;
+
+    /**
+     * 共享到Redis的配置。
+     */
+    private Redis redis = new Redis();
+
+    @Data
+    public static class Redis {
+
+        /**
+         * <pre>
+         * 是否在同步成功后将目录写入Redis，供其它节点和外部系统读取。
+         * 开启后即使没有开启内存中的目录，同步过程中也会收集目录。
+         * 增量同步之后的目录在内存中的目录的基础上构建，没有开启内存中的目录时只在全量同步之后写入。
+         * </pre>
+         */
+        private boolean enabled = false;
+
+        /**
+         * 所有键的前缀。
+         */
+        private String keyPrefix = "ldap-sync";
+
+        /**
+         * 每条HMSET和SADD命令最多包含的字段（成员）数。
+         */
+        private int batchSize = 1000;
+
+        /**
+         * 切换到新的目录后旧目录的键的过期时间，正在读取旧目录的请求在这段时间内仍然可以读到完整的数据。
+         */
+        private Duration expiration = Duration.ofMinutes(5);
+    }
+}
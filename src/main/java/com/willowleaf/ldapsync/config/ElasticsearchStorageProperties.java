@@ -0,0 +1,130 @@
+package com.willowleaf.ldapsync.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 持久化数据到Elasticsearch的配置。
+ */
+@Data
+@ConfigurationProperties(prefix = "storage.elasticsearch")
+public class ElasticsearchStorageProperties {
+
+    /**
+     * 批量写入的配置。
+     */
+    private Bulk bulk = new Bulk();
+
+    /**
+     * 全量重建索引的配置。
+     */
+    private Rebuild rebuild = new Rebuild();
+
+    /**
+     * 本地预写日志的配置。
+     */
+    private Journal journal = new Journal();
+
+    @Data
+    public static class Bulk {
+
+        /**
+         * 达到该文档数时发送批量请求。
+         */
+        private int actions = 1000;
+
+        /**
+         * 达到该请求大小时发送批量请求。
+         */
+        private DataSize size = DataSize.ofMegabytes(5);
+
+        /**
+         * 距离上次发送超过该时间时发送批量请求。
+         */
+        private Duration flushInterval = Duration.ofSeconds(5);
+
+        /**
+         * 同时进行的批量请求数，为0时同步发送。
+         */
+        private int concurrentRequests = 2;
+
+        /**
+         * 批量请求被拒绝（429）时第一次重试的等待时间，之后指数增长。
+         */
+        private Duration backoffDelay = Duration.ofMillis(100);
+
+        /**
+         * 批量请求被拒绝（429）时的最大重试次数。
+         */
+        private int backoffRetries = 5;
+
+        /**
+         * 是否使用gzip压缩请求。
+         */
+        private boolean compression = true;
+
+        /**
+         * 同步结束时等待所有批量请求完成的最长时间。
+         */
+        private Duration closeTimeout = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Rebuild {
+
+        /**
+         * 写入完成后强制合并的最大段数。
+         */
+        private int maxNumSegments = 1;
+
+        /**
+         * 等待强制合并完成的最长时间。
+         */
+        private Duration forceMergeTimeout = Duration.ofMinutes(30);
+    }
+
+    @Data
+    public static class Journal {
+
+        /**
+         * <pre>
+         * 是否先将写入Elasticsearch的数据追加到本地日志，再由后台线程批量发送到Elasticsearch。
+         * 开启后同步只等待数据写入本地磁盘，不受Elasticsearch可用性的影响。
+         * </pre>
+         */
+        private boolean enabled = false;
+
+        /**
+         * 日志目录。
+         */
+        private String directory = "journal";
+
+        /**
+         * 单个日志段文件的大小，超过时创建新的段文件。
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * 后台线程每个批量请求的最大大小。
+         */
+        private DataSize bulkSize = DataSize.ofMegabytes(8);
+
+        /**
+         * 日志中没有新数据时后台线程的等待时间。
+         */
+        private Duration replayInterval = Duration.ofSeconds(1);
+
+        /**
+         * 批量请求失败时重试前的等待时间。
+         */
+        private Duration retryDelay = Duration.ofSeconds(5);
+
+        /**
+         * 全量重建前等待日志发送完毕的最长时间。
+         */
+        private Duration drainTimeout = Duration.ofMinutes(10);
+    }
+}
@@ -0,0 +1,46 @@
+package com.willowleaf.ldapsync.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 使用JDBC批量写入部门和员工数据的配置。
+ */
+@Data
+@ConfigurationProperties(prefix = "storage.jdbc")
+public class JdbcStorageProperties {
+
+    /**
+     * 是否使用JDBC代替JPA持久化部门和员工数据。
+     */
+    private boolean enabled = false;
+
+    /**
+     * 每条INSERT/MERGE语句写入的行数。
+     */
+    private int batchSize = 500;
+
+    /**
+     * 并行写入的分区数，同一行数据总是在同一个分区中写入。
+     */
+    private int partitions = 4;
+
+    /**
+     * <pre>
+     * 全量重建时是否使用LOAD DATA LOCAL INFILE导入影子表，只支持MySQL，默认关闭，使用多行INSERT写入影子表。
+     * LOAD DATA LOCAL允许服务器读取客户端的本地文件，MySQL 8默认关闭服务器的local_infile，
+     * 开启时需要同时在JDBC URL中添加allowLoadLocalInfile=true，并在MySQL服务器上设置local_infile=ON。
+     * </pre>
+     */
+    private boolean loadDataLocalInfile = false;
+
+    /**
+     * <pre>
+     * 是否只有本节点写入部门表和员工表，关闭时拒绝全量重建（{@link com.willowleaf.ldapsync.domain.LdapPorter.Mode#REBUILD}）。
+     * 全量重建替换正式表前复制其它数据源的数据，复制和替换期间只能阻塞本节点的写入，
+     * 其它节点在此期间的同步、变更监听和REST接口写入会随旧表一起删除。
+     * 只有部署单个节点，或者重建期间其它节点不会写入这两张表时才能开启。
+     * </pre>
+     */
+    private boolean singleWriter = false;
+}
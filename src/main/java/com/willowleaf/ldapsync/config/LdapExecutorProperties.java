@@ -0,0 +1,36 @@
+package com.willowleaf.ldapsync.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 每个数据源的I/O线程池配置，并发数与CPU核数无关。
+ */
+@Data
+@ConfigurationProperties(prefix = "ldap.executor")
+public class LdapExecutorProperties {
+
+    /**
+     * 拉取LDAP数据的线程池。
+     */
+    private Pool fetch = new Pool();
+
+    /**
+     * 持久化数据的线程池。
+     */
+    private Pool storage = new Pool();
+
+    @Data
+    public static class Pool {
+
+        /**
+         * 并发数。
+         */
+        private int concurrency = 8;
+
+        /**
+         * 等待队列的容量，队列已满时提交任务的线程等待。
+         */
+        private int queueCapacity = 1000;
+    }
+}
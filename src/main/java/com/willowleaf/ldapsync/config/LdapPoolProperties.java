@@ -0,0 +1,49 @@
+package com.willowleaf.ldapsync.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 每个数据源的LDAP连接池配置。
+ */
+@Data
+@ConfigurationProperties(prefix = "ldap.pool")
+public class LdapPoolProperties {
+
+    /**
+     * 最小空闲连接数。
+     */
+    private int minIdle = 1;
+
+    /**
+     * 最大连接数。
+     */
+    private int maxTotal = 16;
+
+    /**
+     * 连接池耗尽时获取连接的最长等待时间。
+     */
+    private Duration maxWait = Duration.ofSeconds(30);
+
+    /**
+     * 空闲连接检测的间隔时间。
+     */
+    private Duration validationInterval = Duration.ofMinutes(1);
+
+    /**
+     * 空闲连接被回收前的最短空闲时间。
+     */
+    private Duration minEvictableIdleTime = Duration.ofMinutes(10);
+
+    /**
+     * 连接的最长存活时间，超过此时间的连接在检测时被关闭。
+     */
+    private Duration maxAge = Duration.ofMinutes(30);
+
+    /**
+     * 启动时是否为所有数据源预先建立连接。
+     */
+    private boolean prewarm = true;
+}
@@ -0,0 +1,36 @@
+package com.willowleaf.ldapsync.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 同步结束时写入本地组织架构快照的配置。
+ */
+@Data
+@ConfigurationProperties(prefix = "storage.snapshot")
+public class SnapshotProperties {
+
+    /**
+     * <pre>
+     * 是否在全量同步（包括全量重建）成功后写入快照。
+     * 开启后同步过程中会在内存中保留所有部门和员工编码后的记录，写入时按唯一标识排序，
+     * 流式同步（STREAMING）不再只占用有限的内存。
+     * </pre>
+     */
+    private boolean enabled = false;
+
+    /**
+     * 快照文件的目录，每个数据源一个子目录。
+     */
+    private String directory = "snapshot";
+
+    /**
+     * 每个数据源保留的快照个数。
+     */
+    private int generations = 3;
+
+    /**
+     * 是否使用deflate压缩快照内容。
+     */
+    private boolean compression = true;
+}
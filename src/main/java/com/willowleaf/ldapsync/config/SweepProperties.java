@@ -0,0 +1,42 @@
+package com.willowleaf.ldapsync.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 全量同步之后删除已经从LDAP中消失的部门和员工的配置。
+ */
+@Data
+@ConfigurationProperties(prefix = "storage.sweep")
+public class SweepProperties {
+
+    /**
+     * <pre>
+     * 是否在全量同步成功后删除代数小于本次同步的数据。
+     * 删除依赖拉取结果的完整性，默认关闭，确认LDAP服务端的查询限制不会截断结果后再开启。
+     * </pre>
+     */
+    private boolean enabled = false;
+
+    /**
+     * 每条DELETE语句（或Elasticsearch每次滚动查询）删除的最大行数。
+     */
+    private int chunkSize = 1000;
+
+    /**
+     * 两条DELETE语句之间的等待时间。
+     */
+    private Duration chunkDelay = Duration.ofMillis(100);
+
+    /**
+     * Elasticsearch delete-by-query每秒删除的文档数，小于等于0时不限制。
+     */
+    private float requestsPerSecond = 1000;
+
+    /**
+     * 等待Elasticsearch delete-by-query完成的最长时间。
+     */
+    private Duration timeout = Duration.ofMinutes(30);
+}
@@ -3,5 +3,15 @@ package com.willowleaf.ldapsync.data;
 import com.willowleaf.ldapsync.domain.Department;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.List;
+import java.util.Optional;
+
 public interface DepartmentRepository extends JpaRepository<Department, Integer> {
+
+    Optional<Department> findFirstByDataSourceIdAndNumber(Integer dataSourceId, String number);
+
+    /**
+     * 按先序查询部门及其所有下级部门（左值在lft和rgt之间的部门）。
+     */
+    List<Department> findAllByDataSourceIdAndLftBetweenOrderByLft(Integer dataSourceId, Integer lft, Integer rgt);
 }
@@ -2,6 +2,25 @@ package com.willowleaf.ldapsync.data;
 
 import com.willowleaf.ldapsync.domain.Employee;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
+import java.util.Optional;
 
 public interface EmployeeRepository extends JpaRepository<Employee, Integer> {
+
+    Optional<Employee> findFirstByDataSourceIdAndUid(Integer dataSourceId, String uid);
+
+    /**
+     * 查询部门及其所有下级部门的员工，下级部门的左值在部门的左值和右值之间。
+     */
+    @Query("select e from Employee e join e.department d where d.dataSource.id = ?1 and d.lft between ?2 and ?3")
+    List<Employee> findAllInSubtree(Integer dataSourceId, Integer lft, Integer rgt);
+
+    /**
+     * 统计部门及其所有下级部门的员工数。
+     */
+    @Query("select count(e) from Employee e join e.department d "
+            + "where d.dataSource.id = ?1 and d.lft between ?2 and ?3")
+    long countInSubtree(Integer dataSourceId, Integer lft, Integer rgt);
 }
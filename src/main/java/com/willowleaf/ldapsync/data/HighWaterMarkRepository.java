@@ -0,0 +1,11 @@
+package com.willowleaf.ldapsync.data;
+
+import com.willowleaf.ldapsync.domain.HighWaterMark;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface HighWaterMarkRepository extends JpaRepository<HighWaterMark, Integer> {
+
+    List<HighWaterMark> findByDataSourceId(Integer dataSourceId);
+}
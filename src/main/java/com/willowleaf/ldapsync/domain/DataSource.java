@@ -2,28 +2,35 @@ package com.willowleaf.ldapsync.domain;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.willowleaf.ldapsync.domain.factory.LdapPorterFactory;
+import com.willowleaf.ldapsync.domain.mapping.CompiledAttributesMapper;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.SneakyThrows;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.BeanWrapper;
-import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.ldap.core.AttributesMapper;
 import org.springframework.ldap.core.AuthenticationSource;
+import org.springframework.ldap.core.ContextSource;
 import org.springframework.ldap.core.LdapOperations;
 import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
 import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.ldap.core.support.SingleContextSource;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SynchronousSink;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
 import javax.persistence.*;
-import java.lang.reflect.InvocationTargetException;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static javax.naming.directory.SearchControls.SUBTREE_SCOPE;
 
@@ -36,7 +43,6 @@ import static javax.naming.directory.SearchControls.SUBTREE_SCOPE;
  * @see LdapPorterFactory
  */
 @Data
-@Slf4j
 @NoArgsConstructor
 @Entity
 public class DataSource {
@@ -53,12 +59,29 @@ public class DataSource {
 
     private String password;
 
+    /**
+     * 数据源的LDAP连接池。
+     *
+     * @see com.willowleaf.ldapsync.domain.factory.LdapConnectionPoolRegistry
+     */
+    @JsonIgnore
+    @Transient
+    private ContextSource contextSource;
+
     @Transient
     private LdapOperations ldapOperations;
 
     @Enumerated
     private PullStrategy pullStrategy;
 
+    @Enumerated
+    private DirectoryType directoryType;
+
+    /**
+     * LDAP服务器允许的filter最大长度（字符数）。
+     */
+    private Integer maxFilterLength;
+
     @OneToMany(mappedBy = "dataSource")
     private List<Dictionary> dictionaries;
 
@@ -81,6 +104,82 @@ public class DataSource {
          * 循环拉取数据。
          */
         CYCLE,
+        /**
+         * 分页拉取数据（RFC 2696 Simple Paged Results），避免超过LDAP服务器的单次查询限制。
+         * 所有数据仍然在内存中组装后再持久化，需要限制内存时使用{@link #STREAMING}。
+         */
+        PAGED,
+        /**
+         * 批量循环拉取数据，每次查询使用 | 连接多个部门的员工查询条件。
+         */
+        BATCH_CYCLE,
+        /**
+         * 响应式拉取数据，LDAP分页数据边拉取边持久化，持久化缓慢时暂停拉取。
+         */
+        REACTIVE,
+        /**
+         * 流式同步数据，只在内存中保留部门树、岗位和当前页的员工数据。
+         */
+        STREAMING,
+    }
+
+    /**
+     * 默认的filter最大长度。
+     */
+    public static final int DEFAULT_MAX_FILTER_LENGTH = 8 * 1024;
+
+    /**
+     * LDAP服务器类型。
+     * 确定增量同步使用的高水位标记属性。
+     *
+     * @see HighWaterMark
+     */
+    public enum DirectoryType {
+        /**
+         * OpenLDAP，使用modifyTimestamp（GeneralizedTime）作为标记。
+         */
+        OPEN_LDAP("modifyTimestamp") {
+            @Override
+            String getFilter(String mark) {
+                return "(" + getAttributeName() + ">=" + mark + ")";
+            }
+
+            @Override
+            int compare(String mark1, String mark2) {
+                return mark1.compareTo(mark2);
+            }
+        },
+        /**
+         * Active Directory，使用uSNChanged作为标记。
+         */
+        ACTIVE_DIRECTORY("uSNChanged") {
+            @Override
+            String getFilter(String mark) {
+                return "(" + getAttributeName() + ">=" + (Long.parseLong(mark) + 1) + ")";
+            }
+
+            @Override
+            int compare(String mark1, String mark2) {
+                return Long.compare(Long.parseLong(mark1), Long.parseLong(mark2));
+            }
+        };
+
+        @Getter
+        private final String attributeName;
+
+        DirectoryType(String attributeName) {
+            this.attributeName = attributeName;
+        }
+
+        /**
+         * 返回查询标记之后发生变化的条目的filter。
+         */
+        abstract String getFilter(String mark);
+
+        /**
+         * 比较两个标记值的先后。
+         */
+        abstract int compare(String mark1, String mark2);
     }
 
     /**
@@ -99,6 +198,13 @@ public class DataSource {
     @Transient
     private Map<String, DateTimeFormatter[]> dateTimeFormatters;
 
+    /**
+     * 预编译的属性映射器，key - 字典的属性映射列表（按引用比较）。
+     */
+    @JsonIgnore
+    @Transient
+    private final Map<List<AttributeMap>, CompiledAttributesMapper<?>> attributesMappers = new IdentityHashMap<>();
+
     /**
      * 返回数据列表。
      *
@@ -112,54 +218,225 @@ public class DataSource {
     public <T> List<T> search(@Nonnull String base, @Nonnull String filter,
                               @Nonnull List<AttributeMap> attributeMaps,
                               @Nonnull Class<T> clazz) {
+        return search(base, filter, attributeMaps, clazz, null);
+    }
+
+    /**
+     * 返回数据列表，并记录所有条目的高水位标记。
+     *
+     * @param base          LDAP base
+     * @param filter        LDAP filter
+     * @param attributeMaps 属性映射
+     * @param clazz         结果数据类型的Class对象
+     * @param highWaterMark 高水位标记，为null时不记录
+     * @param <T>           结果数据类型
+     * @return 数据列表
+     */
+    public <T> List<T> search(@Nonnull String base, @Nonnull String filter,
+                              @Nonnull List<AttributeMap> attributeMaps,
+                              @Nonnull Class<T> clazz, @Nullable HighWaterMark highWaterMark) {
         return getLdapOperations().search(base, filter, SUBTREE_SCOPE,
-                attributeMaps.stream().map(AttributeMap::getSourceName).toArray(String[]::new),
-                (AttributesMapper<T>) attributes -> {
-                    T model;
-                    try {
-                        model = clazz.getDeclaredConstructor().newInstance();
-                    } catch (InstantiationException | IllegalAccessException
-                             | NoSuchMethodException | InvocationTargetException e) {
-                        throw new RuntimeException(e);  // It won't happen.
-                    }
-                    BeanWrapper beanWrapper = new BeanWrapperImpl(model);
-                    for (AttributeMap attributeMap : attributeMaps) {
-                        beanWrapper.setPropertyValue(
-                                attributeMap.getTargetName(),
-                                getValue(attributes, attributeMap.getSourceName())
-                        );
+                getAttributeNames(attributeMaps, highWaterMark),
+                getAttributesMapper(attributeMaps, clazz, highWaterMark));
+    }
+
+    /**
+     * <pre>
+     * 分页拉取数据（RFC 2696 Simple Paged Results）。
+     * 所有分页请求都使用同一个LDAP连接，每页数据转换完成后立即交给{@code pageConsumer}处理，
+     * 内存占用只与每页的数据量有关。
+     * </pre>
+     *
+     * @param base          LDAP base
+     * @param filter        LDAP filter
+     * @param attributeMaps 属性映射
+     * @param clazz         结果数据类型的Class对象
+     * @param highWaterMark 高水位标记，为null时不记录
+     * @param pageSize      每页的数据量
+     * @param pageConsumer  每页数据的处理者
+     * @param <T>           结果数据类型
+     */
+    public <T> void search(@Nonnull String base, @Nonnull String filter,
+                           @Nonnull List<AttributeMap> attributeMaps,
+                           @Nonnull Class<T> clazz, @Nullable HighWaterMark highWaterMark,
+                           int pageSize, @Nonnull Consumer<List<T>> pageConsumer) {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SUBTREE_SCOPE);
+        controls.setReturningAttributes(getAttributeNames(attributeMaps, highWaterMark));
+        AttributesMapper<T> mapper = getAttributesMapper(attributeMaps, clazz, highWaterMark);
+        PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor(pageSize);
+
+        SingleContextSource.doWithSingleContext(getContextSource(), operations -> {
+            do {
+                pageConsumer.accept(operations.search(base, filter, controls, mapper, processor));
+            } while (processor.hasMore());
+            return null;
+        });
+    }
+
+    /**
+     * <pre>
+     * 分页拉取LDAP条目的原始属性（RFC 2696 Simple Paged Results）。
+     * 每页数据只在下游请求时才向LDAP服务器查询，下游处理缓慢时将停止查询，所有分页请求都使用同一个LDAP连接。
+     * 属性转换由调用者完成，以便在其它线程上并行转换。
+     * </pre>
+     *
+     * @param base          LDAP base
+     * @param filter        LDAP filter
+     * @param attributeMaps 属性映射
+     * @param highWaterMark 高水位标记，为null时不记录
+     * @param pageSize      每页的数据量
+     * @return 每页LDAP条目的属性
+     * @see #getAttributesMapper(List, Class)
+     */
+    @Nonnull
+    public Flux<List<Attributes>> searchPages(@Nonnull String base, @Nonnull String filter,
+                                              @Nonnull List<AttributeMap> attributeMaps,
+                                              @Nullable HighWaterMark highWaterMark, int pageSize) {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SUBTREE_SCOPE);
+        controls.setReturningAttributes(getAttributeNames(attributeMaps, highWaterMark));
+        AttributesMapper<Attributes> mapper = attributes -> {
+            if (highWaterMark != null) {
+                highWaterMark.observe(attributes);
+            }
+            return attributes;
+        };
+
+        return Flux.generate(
+                () -> new PageCursor(getContextSource(), pageSize),
+                (PageCursor cursor, SynchronousSink<List<Attributes>> sink) -> {
+                    sink.next(cursor.template.search(base, filter, controls, mapper, cursor.processor));
+                    if (!cursor.processor.hasMore()) {
+                        sink.complete();
                     }
-                    return model;   // Never be null.
-                });
+                    return cursor;
+                },
+                cursor -> cursor.contextSource.destroy());
     }
 
+    /**
+     * 分页查询的游标，持有分页查询使用的LDAP连接和分页cookie。
+     */
+    private static class PageCursor {
+        private final SingleContextSource contextSource;
+        private final LdapTemplate template;
+        private final PagedResultsDirContextProcessor processor;
+
+        private PageCursor(ContextSource contextSource, int pageSize) {
+            this.contextSource = new SingleContextSource(contextSource.getReadOnlyContext());
+            this.template = createLdapTemplate(this.contextSource);
+            this.processor = new PagedResultsDirContextProcessor(pageSize);
+        }
+    }
+
+    /**
+     * 将单个LDAP条目的属性转换为数据对象，用于处理LDAP的变更通知。
+     *
+     * @param attributes    LDAP条目的属性
+     * @param attributeMaps 属性映射
+     * @param clazz         结果数据类型的Class对象
+     * @param <T>           结果数据类型
+     * @return 数据对象
+     */
     @SneakyThrows
-    private Object getValue(Attributes attributes, String sourceName) {
-        if (attributes.get(sourceName) == null
-                || attributes.get(sourceName).get() == null) {
-            return null;
+    public <T> T map(@Nonnull Attributes attributes, @Nonnull List<AttributeMap> attributeMaps,
+                     @Nonnull Class<T> clazz) {
+        return getAttributesMapper(attributeMaps, clazz, null).mapFromAttributes(attributes);
+    }
+
+    @Nonnull
+    private String[] getAttributeNames(@Nonnull List<AttributeMap> attributeMaps,
+                                       @Nullable HighWaterMark highWaterMark) {
+        Stream<String> names = attributeMaps.stream().map(AttributeMap::getSourceName);
+        if (highWaterMark != null) {
+            names = Stream.concat(names, Stream.of(highWaterMark.getAttributeName()));
         }
+        return names.distinct().toArray(String[]::new);
+    }
 
-        Object value = attributes.get(sourceName).get();
-        if (dateTimeFormatters.containsKey(sourceName)) {   // 需要处理日期格式的字段
-            DateTimeFormatter[] formatters = dateTimeFormatters.get(sourceName);
-            for (int i = 0; i < formatters.length; i++) {
-                try {
-                    value = LocalDateTime.parse(value.toString(), formatters[i]);
-                    break;
-                } catch (DateTimeParseException e) {
-                    if (i == formatters.length - 1) {   // 未找到合适的日期格式
-                        log.error("日期格式不合法[{}]，请添加合适的日期格式配置。", value);
-                        throw e;
-                    }
-                }
+    /**
+     * 返回属性映射器，用于转换{@link #searchPages}返回的LDAP条目属性。
+     *
+     * @param attributeMaps 属性映射
+     * @param clazz         结果数据类型的Class对象
+     * @param <T>           结果数据类型
+     * @return 属性映射器
+     */
+    @Nonnull
+    public <T> AttributesMapper<T> getAttributesMapper(@Nonnull List<AttributeMap> attributeMaps,
+                                                       @Nonnull Class<T> clazz) {
+        return getCompiledAttributesMapper(attributeMaps, clazz);
+    }
+
+    @Nonnull
+    private <T> AttributesMapper<T> getAttributesMapper(@Nonnull List<AttributeMap> attributeMaps,
+                                                        @Nonnull Class<T> clazz,
+                                                        @Nullable HighWaterMark highWaterMark) {
+        AttributesMapper<T> mapper = getCompiledAttributesMapper(attributeMaps, clazz);
+        if (highWaterMark == null) {
+            return mapper;
+        }
+        return attributes -> {
+            highWaterMark.observe(attributes);
+            return mapper.mapFromAttributes(attributes);
+        };
+    }
+
+    /**
+     * 返回预编译的属性映射器，每个属性映射在一次同步中只编译一次。
+     */
+    @SuppressWarnings("unchecked")
+    @Nonnull
+    private <T> CompiledAttributesMapper<T> getCompiledAttributesMapper(@Nonnull List<AttributeMap> attributeMaps,
+                                                                        @Nonnull Class<T> clazz) {
+        synchronized (attributesMappers) {
+            CompiledAttributesMapper<?> mapper = attributesMappers.get(attributeMaps);
+            if (mapper == null || mapper.getType() != clazz) {
+                mapper = CompiledAttributesMapper.compile(clazz, attributeMaps, this,
+                        dateTimeFormatters == null ? Collections.emptyMap() : dateTimeFormatters);
+                attributesMappers.put(attributeMaps, mapper);
             }
+            return (CompiledAttributesMapper<T>) mapper;
         }
-        return value;
     }
 
     @JsonIgnore
     private LdapOperations getLdapOperations() {
+        if (ldapOperations == null) {
+            this.ldapOperations = createLdapTemplate(getContextSource());
+        }
+        return ldapOperations;
+    }
+
+    /**
+     * <pre>
+     * 创建LdapTemplate。LdapTemplate默认忽略SizeLimitExceededException，查询结果被服务端截断时正常返回，
+     * 同步会被当作成功并删除没有拉取到的数据，因此查询结果不完整时必须抛出异常，使同步失败。
+     * </pre>
+     */
+    @Nonnull
+    private static LdapTemplate createLdapTemplate(@Nonnull ContextSource contextSource) {
+        LdapTemplate template = new LdapTemplate(contextSource);
+        template.setIgnoreSizeLimitExceededException(false);
+        return template;
+    }
+
+    @JsonIgnore
+    private ContextSource getContextSource() {
+        if (contextSource == null) {
+            contextSource = createContextSource();
+        }
+        return contextSource;
+    }
+
+    /**
+     * 创建不带连接池的LDAP连接工厂，连接池由{@code LdapConnectionPoolRegistry}统一管理。
+     *
+     * @return LDAP连接工厂
+     */
+    @Nonnull
+    public LdapContextSource createContextSource() {
         LdapContextSource contextSource = new LdapContextSource();
         contextSource.setUrl(url);
         contextSource.setUserDn(username);
@@ -168,7 +445,7 @@ public class DataSource {
         Map<String, Object> config = new HashMap<>();
         config.put("java.naming.ldap.attributes.binary", "objectGUID");
         contextSource.setBaseEnvironmentProperties(config);
-        contextSource.setPooled(true);
+        contextSource.setPooled(false);
         contextSource.setAuthenticationSource(new AuthenticationSource() {
             @Override
             public String getPrincipal() {
@@ -180,10 +457,26 @@ public class DataSource {
                 return password;
             }
         });
-        if (ldapOperations == null) {
-            this.ldapOperations = new LdapTemplate(contextSource);
-        }
-        return ldapOperations;
+        contextSource.afterPropertiesSet();
+        return contextSource;
+    }
+
+    /**
+     * 返回LDAP服务器类型，未配置时默认为OpenLDAP。
+     *
+     * @return LDAP服务器类型
+     */
+    public DirectoryType getDirectoryType() {
+        return directoryType == null ? DirectoryType.OPEN_LDAP : directoryType;
+    }
+
+    /**
+     * 返回LDAP服务器允许的filter最大长度，未配置时使用{@link #DEFAULT_MAX_FILTER_LENGTH}。
+     *
+     * @return filter最大长度
+     */
+    public Integer getMaxFilterLength() {
+        return maxFilterLength == null || maxFilterLength <= 0 ? DEFAULT_MAX_FILTER_LENGTH : maxFilterLength;
     }
 
     @JsonIgnore
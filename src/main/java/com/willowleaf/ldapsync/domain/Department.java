@@ -2,13 +2,16 @@ package com.willowleaf.ldapsync.domain;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.willowleaf.ldapsync.annotation.Ignore;
+import com.willowleaf.ldapsync.annotation.Metadata;
 import lombok.Data;
+import org.hibernate.annotations.DynamicUpdate;
 
+import javax.annotation.Nullable;
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
 
 import static java.util.Collections.reverse;
 import static java.util.stream.Collectors.joining;
@@ -21,6 +24,7 @@ import static org.springframework.util.ObjectUtils.isEmpty;
  */
 @Data
 @Entity
+@DynamicUpdate
 public class Department {
 
     /**
@@ -32,6 +36,7 @@ public class Department {
     /**
      * 部门ID路径。
      */
+    @Column(length = 2000)
     private String idPath;
     /**
      * 父部门。
@@ -46,7 +51,7 @@ public class Department {
     @JsonIgnore
     @Transient
     @Ignore
-    private List<Department> children = new CopyOnWriteArrayList<>();
+    private List<Department> children = new ArrayList<>();
     /**
      * 部门路径（包含当前部门）。
      */
@@ -61,6 +66,7 @@ public class Department {
     /**
      * 部门编号全路径，例如：00017661_100000_1038501017_30003397。
      */
+    @Column(length = 2000)
     private String numberPath;
     /**
      * 中文名称（必须），例如：顺德工厂。
@@ -104,12 +110,41 @@ public class Department {
      * 显示顺序，例如：1。
      */
     private Integer sequence;
+    /**
+     * 嵌套集合的左值，下级部门（包括间接下级部门）的左值在当前部门的左值和右值之间。
+     */
+    private Integer lft;
+    /**
+     * 嵌套集合的右值，下级部门数为(rgt - lft - 1) / 2。
+     */
+    private Integer rgt;
+    /**
+     * 部门在部门树中的深度，根部门为0。
+     */
+    private Integer depth;
+    /**
+     * 写入时的同步代数（毫秒时间戳），全量同步之后删除代数小于本次同步的数据。
+     */
+    @Metadata
+    private Long generation;
+    /**
+     * 持久化字段的内容哈希，全量同步时跳过内容没有变化的数据。
+     */
+    @Metadata
+    private Long contentHash;
+    /**
+     * 与数据库中已有数据相比发生变化的字段，为null时写入所有字段。
+     */
+    @JsonIgnore
+    @Transient
+    @Ignore
+    private Set<String> changedFields;
     /**
      * 员工列表。
      */
     @OneToMany(mappedBy = "department", cascade = CascadeType.ALL)
     @Ignore
-    private List<Employee> employees = new CopyOnWriteArrayList<>();
+    private List<Employee> employees = new ArrayList<>();
     /**
      * 数据源。
      */
@@ -162,6 +197,29 @@ public class Department {
         return namePath;
     }
 
+    /**
+     * <pre>
+     * 根据上级部门已经计算好的路径设置当前部门的idPath，numberPath，namePath和englishNamePath。
+     * 路径中任意一个部门没有英文名称时englishNamePath为null。
+     * </pre>
+     *
+     * @param parent 上级部门，为null时当前部门为根部门
+     */
+    public void buildPaths(@Nullable Department parent) {
+        if (parent == null) {
+            idPath = id;
+            numberPath = number;
+            namePath = name;
+            englishNamePath = englishName;
+        } else {
+            idPath = parent.idPath + "_" + id;
+            numberPath = parent.numberPath + "_" + number;
+            namePath = parent.namePath + "_" + name;
+            englishNamePath = parent.englishNamePath == null || englishName == null
+                    ? null : parent.englishNamePath + "_" + englishName;
+        }
+    }
+
     /**
      * <pre>
      * 返回当前部门的路径（一个从根部门对象到当前部门对象所组成的链路）。
@@ -218,6 +276,9 @@ public class Department {
                 ", organizationType='" + organizationType + '\'' +
                 ", personInCharge='" + personInCharge + '\'' +
                 ", sequence=" + sequence +
+                ", lft=" + lft +
+                ", rgt=" + rgt +
+                ", depth=" + depth +
                 '}';
     }
 }
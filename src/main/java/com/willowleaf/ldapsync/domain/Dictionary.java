@@ -12,6 +12,21 @@ import java.util.List;
 @Entity
 public class Dictionary {
 
+    /**
+     * 默认的分页大小。
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    /**
+     * 默认的批量查询大小。
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * 默认的批量写入大小。
+     */
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 100;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Integer id;
@@ -29,6 +44,24 @@ public class Dictionary {
      */
     @Column(length = 2000)
     private String filter;
+    /**
+     * 分页拉取时每页的数据量。
+     *
+     * @see DataSource.PullStrategy#PAGED
+     */
+    private Integer pageSize;
+    /**
+     * 批量循环拉取时每次查询包含的部门数量。
+     *
+     * @see DataSource.PullStrategy#BATCH_CYCLE
+     */
+    private Integer batchSize;
+    /**
+     * 响应式拉取时每批持久化的数据量。
+     *
+     * @see DataSource.PullStrategy#REACTIVE
+     */
+    private Integer writeBatchSize;
 
     @OneToMany(mappedBy = "dictionary")
     private List<AttributeMap> attributeMaps;
@@ -54,6 +87,33 @@ public class Dictionary {
         POSITION
     }
 
+    /**
+     * 返回分页拉取时每页的数据量，未配置时使用{@link #DEFAULT_PAGE_SIZE}。
+     *
+     * @return 每页的数据量
+     */
+    public Integer getPageSize() {
+        return pageSize == null || pageSize <= 0 ? DEFAULT_PAGE_SIZE : pageSize;
+    }
+
+    /**
+     * 返回批量循环拉取时每次查询包含的部门数量，未配置时使用{@link #DEFAULT_BATCH_SIZE}。
+     *
+     * @return 每次查询包含的部门数量
+     */
+    public Integer getBatchSize() {
+        return batchSize == null || batchSize <= 0 ? DEFAULT_BATCH_SIZE : batchSize;
+    }
+
+    /**
+     * 返回响应式拉取时每批持久化的数据量，未配置时使用{@link #DEFAULT_WRITE_BATCH_SIZE}。
+     *
+     * @return 每批持久化的数据量
+     */
+    public Integer getWriteBatchSize() {
+        return writeBatchSize == null || writeBatchSize <= 0 ? DEFAULT_WRITE_BATCH_SIZE : writeBatchSize;
+    }
+
     @Override
     public String toString() {
         return type.name();
@@ -1,14 +1,17 @@
 package com.willowleaf.ldapsync.domain;
 
 import com.willowleaf.ldapsync.annotation.Ignore;
+import com.willowleaf.ldapsync.annotation.Metadata;
 import lombok.Data;
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
 
 /**
  * 标准的员工信息模型。
@@ -17,6 +20,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
  */
 @Data
 @Entity
+@DynamicUpdate
 public class Employee {
 
     /**
@@ -126,6 +130,22 @@ public class Employee {
      * 序号。
      */
     private Integer sequence;
+    /**
+     * 写入时的同步代数（毫秒时间戳），全量同步之后删除代数小于本次同步的数据。
+     */
+    @Metadata
+    private Long generation;
+    /**
+     * 持久化字段的内容哈希，全量同步时跳过内容没有变化的数据。
+     */
+    @Metadata
+    private Long contentHash;
+    /**
+     * 与数据库中已有数据相比发生变化的字段，为null时写入所有字段。
+     */
+    @Transient
+    @Ignore
+    private Set<String> changedFields;
     /**
      * 员工所属部门。
      */
@@ -137,7 +157,7 @@ public class Employee {
      */
     @Transient
     @Ignore
-    private List<Position> positions = new CopyOnWriteArrayList<>();
+    private List<Position> positions = new ArrayList<>();
     /**
      * 数据源。
      */
@@ -0,0 +1,118 @@
+package com.willowleaf.ldapsync.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.SneakyThrows;
+
+import javax.annotation.Nonnull;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.persistence.*;
+
+/**
+ * <pre>
+ * 增量同步的高水位标记。
+ *
+ * 每个数据源的每种字典类型记录一个标记，OpenLDAP使用modifyTimestamp，AD使用uSNChanged。
+ * 拉取数据时记录所有条目中最大的标记值，同步成功后将其保存，下次同步只拉取标记之后发生变化的条目。
+ * </pre>
+ *
+ * @see DataSource.DirectoryType
+ */
+@Data
+@NoArgsConstructor
+@Entity
+public class HighWaterMark {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @ManyToOne
+    private DataSource dataSource;
+
+    @Enumerated
+    private Dictionary.Type type;
+
+    /**
+     * 上次同步成功时的标记值。
+     */
+    private String mark;
+
+    /**
+     * 本次同步观察到的最大标记值。
+     */
+    @Transient
+    private String observed;
+
+    public HighWaterMark(@Nonnull DataSource dataSource, @Nonnull Dictionary.Type type) {
+        this.dataSource = dataSource;
+        this.type = type;
+    }
+
+    /**
+     * 返回标记所使用的LDAP属性名称。
+     *
+     * @return LDAP属性名称
+     */
+    public String getAttributeName() {
+        return dataSource.getDirectoryType().getAttributeName();
+    }
+
+    /**
+     * 返回只查询标记之后发生变化的条目的filter，没有标记时返回原filter。
+     *
+     * @param filter 字典配置的filter
+     * @return LDAP filter
+     */
+    @Nonnull
+    public String getFilter(@Nonnull String filter) {
+        if (mark == null) {
+            return filter;
+        }
+        return "(&" + filter + dataSource.getDirectoryType().getFilter(mark) + ")";
+    }
+
+    /**
+     * 记录条目的标记值。
+     *
+     * @param attributes 条目的属性
+     */
+    @SneakyThrows
+    public void observe(@Nonnull Attributes attributes) {
+        Attribute attribute = attributes.get(getAttributeName());
+        if (attribute == null || attribute.get() == null) {
+            return;
+        }
+
+        String candidate = attribute.get().toString();
+        synchronized (this) {
+            if (observed == null || dataSource.getDirectoryType().compare(candidate, observed) > 0) {
+                observed = candidate;
+            }
+        }
+    }
+
+    /**
+     * 同步成功后推进标记，返回标记是否发生了变化。
+     *
+     * @return 标记是否发生了变化
+     */
+    public synchronized boolean advance() {
+        if (observed == null || (mark != null && dataSource.getDirectoryType().compare(observed, mark) <= 0)) {
+            return false;
+        }
+        mark = observed;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "HighWaterMark{" +
+                "id=" + id +
+                ", type=" + type +
+                ", mark='" + mark + '\'' +
+                ", observed='" + observed + '\'' +
+                '}';
+    }
+}
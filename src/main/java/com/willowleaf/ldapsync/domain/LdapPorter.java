@@ -1,13 +1,17 @@
 package com.willowleaf.ldapsync.domain;
 
+import com.willowleaf.ldapsync.domain.executor.IoExecutor;
 import lombok.Getter;
 
 import javax.annotation.Nonnull;
-import java.lang.reflect.InvocationTargetException;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.function.Consumer;
 
-import static java.util.stream.Collectors.toList;
+import static com.willowleaf.ldapsync.domain.Dictionary.Type.EMPLOYEE;
 
 /**
  * LDAP数据搬运工。
@@ -22,11 +26,91 @@ public abstract class LdapPorter {
     protected DataSource dataSource;
     protected Organization.Storage storage;
 
+    /**
+     * 拉取LDAP数据的线程池。
+     */
+    protected IoExecutor fetchExecutor;
+
+    /**
+     * 持久化数据的线程池。
+     */
+    protected IoExecutor storageExecutor;
+
+    /**
+     * 同步模式。
+     */
+    @Getter
+    protected Mode mode = Mode.FULL;
+
+    /**
+     * 每种字典类型的高水位标记。
+     */
+    private final Map<Dictionary.Type, HighWaterMark> highWaterMarks = new EnumMap<>(Dictionary.Type.class);
+
     public LdapPorter(@Nonnull DataSource dataSource, @Nonnull Organization.Storage storage) {
         this.dataSource = dataSource;
         this.storage = storage;
     }
 
+    /**
+     * 数据同步模式。
+     */
+    public enum Mode {
+        /**
+         * 全量同步，拉取所有数据。
+         */
+        FULL,
+        /**
+         * <pre>
+         * 增量同步，只拉取高水位标记之后发生变化的员工数据。
+         * 部门和岗位数据量较小且构建部门树需要完整的部门信息，因此仍然全量拉取。
+         * 没有高水位标记时等同于全量同步。
+         * </pre>
+         */
+        DELTA,
+        /**
+         * <pre>
+         * 全量重建，拉取所有数据写入影子表，写入完成后原子地替换正式表，同步过程中读取者始终看到完整的旧数据。
+         * 持久化方式不支持重建时等同于全量同步。
+         * </pre>
+         *
+         * @see Organization.Storage#begin(DataSource, Mode)
+         */
+        REBUILD,
+    }
+
+    /**
+     * 设置拉取和持久化数据使用的线程池。
+     *
+     * @param fetchExecutor   拉取LDAP数据的线程池
+     * @param storageExecutor 持久化数据的线程池
+     */
+    public void setExecutors(@Nonnull IoExecutor fetchExecutor, @Nonnull IoExecutor storageExecutor) {
+        this.fetchExecutor = fetchExecutor;
+        this.storageExecutor = storageExecutor;
+    }
+
+    /**
+     * 设置同步模式和上次同步成功时的高水位标记。
+     *
+     * @param mode           同步模式
+     * @param highWaterMarks 已保存的高水位标记
+     */
+    public void setMode(@Nonnull Mode mode, @Nonnull Collection<HighWaterMark> highWaterMarks) {
+        this.mode = mode;
+        highWaterMarks.forEach(highWaterMark -> this.highWaterMarks.put(highWaterMark.getType(), highWaterMark));
+    }
+
+    /**
+     * 返回本次同步的高水位标记，同步成功后需要将其推进并保存。
+     *
+     * @return 高水位标记
+     * @see HighWaterMark#advance()
+     */
+    public Collection<HighWaterMark> getHighWaterMarks() {
+        return highWaterMarks.values();
+    }
+
     /**
      * 从LDAP数据源拉取数据并将数据转换为统一组织架构模型。
      *
@@ -34,6 +118,27 @@ public abstract class LdapPorter {
      */
     public abstract Organization pull();
 
+    /**
+     * 从LDAP数据源拉取数据并持久化，持久化的开始和结束通知给持久化方式。
+     */
+    public void sync() {
+        storage.begin(dataSource, mode);
+        boolean succeeded = false;
+        try {
+            transfer();
+            succeeded = true;
+        } finally {
+            storage.end(dataSource, succeeded);
+        }
+    }
+
+    /**
+     * 拉取数据并持久化，默认构造完整的组织架构后持久化。
+     */
+    protected void transfer() {
+        pull().save();
+    }
+
     /**
      * 返回数据集合。
      *
@@ -42,24 +147,41 @@ public abstract class LdapPorter {
      * @see Position
      */
     protected <T> List<T> pullElements(@Nonnull Dictionary dictionary, Class<T> clazz) {
-        return getElements(
-                dataSource.search(dictionary.getBase(), dictionary.getFilter(),
-                                dictionary.getAttributeMaps(), clazz)
-                        .parallelStream(),
-                clazz);
+        return dataSource.search(dictionary.getBase(), getFilter(dictionary),
+                dictionary.getAttributeMaps(), clazz, getHighWaterMark(dictionary));
+    }
+
+    /**
+     * 分页拉取数据，每页数据到达后立即交给{@code pageConsumer}处理。
+     *
+     * @see Dictionary#getPageSize()
+     */
+    protected <T> void pullElements(@Nonnull Dictionary dictionary, Class<T> clazz,
+                                    @Nonnull Consumer<List<T>> pageConsumer) {
+        dataSource.search(dictionary.getBase(), getFilter(dictionary), dictionary.getAttributeMaps(),
+                clazz, getHighWaterMark(dictionary), dictionary.getPageSize(), pageConsumer);
     }
 
-    protected <T> List<T> getElements(@Nonnull Stream<T> stream, Class<?> clazz) {
-        return stream
-                .peek(element -> {
-                    try {
-                        clazz.getDeclaredMethod("setDataSource", DataSource.class)
-                                .invoke(element, dataSource);
-                    } catch (IllegalAccessException
-                             | InvocationTargetException
-                             | NoSuchMethodException ignored) {
-                    }
-                })
-                .collect(toList());
+    /**
+     * 返回字典的LDAP filter，增量同步时只查询高水位标记之后发生变化的条目。
+     */
+    @Nonnull
+    protected String getFilter(@Nonnull Dictionary dictionary) {
+        HighWaterMark highWaterMark = getHighWaterMark(dictionary);
+        if (mode == Mode.DELTA && highWaterMark != null) {
+            return highWaterMark.getFilter(dictionary.getFilter());
+        }
+        return dictionary.getFilter();
+    }
+
+    /**
+     * 返回字典的高水位标记，只有员工数据记录高水位标记。
+     */
+    @Nullable
+    protected synchronized HighWaterMark getHighWaterMark(@Nonnull Dictionary dictionary) {
+        if (dictionary.getType() != EMPLOYEE) {
+            return null;
+        }
+        return highWaterMarks.computeIfAbsent(dictionary.getType(), type -> new HighWaterMark(dataSource, type));
     }
 }
@@ -1,12 +1,21 @@
 package com.willowleaf.ldapsync.domain;
 
+import com.willowleaf.ldapsync.domain.executor.IoExecutor;
 import lombok.Getter;
 import lombok.SneakyThrows;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.partitioningBy;
+import static java.util.stream.Collectors.toCollection;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 import static org.springframework.util.ObjectUtils.isEmpty;
@@ -16,6 +25,13 @@ import static org.springframework.util.ObjectUtils.isEmpty;
  */
 public class Organization {
 
+    /**
+     * 计算嵌套集合时兄弟部门的顺序，与部门的显示顺序一致，保证每次同步的编号稳定。
+     */
+    private static final Comparator<Department> SIBLING_ORDER = Comparator
+            .comparing(Department::getSequence, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(Department::getNumber, Comparator.nullsLast(Comparator.naturalOrder()));
+
     /**
      * 组织信息所属的数据源。
      */
@@ -42,17 +58,28 @@ public class Organization {
 
     private final Storage storage;
 
+    /**
+     * 持久化数据的线程池。
+     */
+    private final IoExecutor storageExecutor;
+
+    private Map<String, Department> departmentMap;
+    private Map<String, Position> positionMap;
+
     /**
      * 创建组织架构。
      *
-     * @param dataSource  数据源
-     * @param departments 所有的部门信息，包含员工信息
-     * @param positions   所有的岗位信息
+     * @param dataSource      数据源
+     * @param departments     所有的部门信息，包含员工信息
+     * @param positions       所有的岗位信息
+     * @param storage         持久化方式
+     * @param storageExecutor 持久化数据的线程池
      */
     public Organization(@Nonnull DataSource dataSource,
                         @Nonnull List<Department> departments,
                         @Nonnull List<Position> positions,
-                        @Nonnull Storage storage) {
+                        @Nonnull Storage storage,
+                        @Nonnull IoExecutor storageExecutor) {
         this(
                 dataSource,
                 departments,
@@ -60,28 +87,33 @@ public class Organization {
                         .flatMap(department -> department.getEmployees().stream())
                         .collect(toList()),
                 positions,
-                storage
+                storage,
+                storageExecutor
         );
     }
 
     /**
      * 创建组织架构。
      *
-     * @param dataSource  数据源
-     * @param departments 所有的部门信息，不包含员工信息
-     * @param employees   所有的员工信息
-     * @param positions   所有的岗位信息
+     * @param dataSource      数据源
+     * @param departments     所有的部门信息，不包含员工信息
+     * @param employees       所有的员工信息
+     * @param positions       所有的岗位信息
+     * @param storage         持久化方式
+     * @param storageExecutor 持久化数据的线程池
      */
     public Organization(@Nonnull DataSource dataSource,
                         @Nonnull List<Department> departments,
                         @Nonnull List<Employee> employees,
                         @Nonnull List<Position> positions,
-                        @Nonnull Storage storage) {
+                        @Nonnull Storage storage,
+                        @Nonnull IoExecutor storageExecutor) {
         this.dataSource = dataSource;
         this.departments = departments;
         this.employees = employees;
         this.positions = positions;
         this.storage = storage;
+        this.storageExecutor = storageExecutor;
 
         init();
     }
@@ -97,75 +129,162 @@ public class Organization {
      */
     public void save() {
         if (!isEmpty(departments)) {
-            getDepartments().parallelStream().forEach(storage::save);
+            storage.save(getDepartments(), storageExecutor);
         }
     }
 
+    /**
+     * <pre>
+     * 将员工加入组织架构，建立员工与部门、岗位之间的关系。
+     * 只设置员工一方的关系，不会将员工加入部门和岗位的员工列表，用于流式处理员工数据。
+     * </pre>
+     *
+     * @param employee 员工信息
+     * @return 员工的部门不存在时返回false
+     */
+    public boolean join(@Nonnull Employee employee) {
+        String departmentNumber = employee.getDepartmentNumber();
+        if (departmentNumber == null || !departmentMap.containsKey(departmentNumber)) {
+            return false;   // 过滤掉没有部门的员工
+        }
+
+        if (employee.getDepartment() == null) {
+            employee.setDepartment(departmentMap.get(departmentNumber));
+        }
+        String positionNumber = employee.getPositionNumber();
+        if (positionNumber != null) {
+            Position position = positionMap.get(positionNumber);
+            employee.getPositions().add(position);
+            employee.setPositionName(position == null ? null : position.getName());
+        }
+        return true;
+    }
+
     @SneakyThrows
     private void init() {
-        Map<String, Department> departmentMap = departments.parallelStream()
+        departmentMap = departments.parallelStream()
                 .collect(toMap(Department::getNumber, department -> department));
+        positionMap = positions.parallelStream()
+                .collect(toMap(Position::getNumber, position -> position));
 
-        Thread calcRelationTask = new Thread(() -> calcRelation(departmentMap));
+        Thread calcRelationTask = new Thread(this::calcRelation);
         calcRelationTask.start();
-        buildDepartmentTree(departmentMap);
+        buildDepartmentTree();
         calcRelationTask.join();
     }
 
-    private void buildDepartmentTree(Map<String, Department> departmentMap) {
+    /**
+     * 构造部门树，先并行设置每个部门的上级部门，再按上级部门编号分组得到每个部门的下级部门列表，
+     * 最后计算每个部门的路径和嵌套集合。
+     */
+    private void buildDepartmentTree() {
         departments.parallelStream().forEach(department -> {
             String departmentParentNumber = department.getParentNumber();
             if (departmentParentNumber != null) {
-                Department parent = departmentMap.get(departmentParentNumber);
-                if (parent != null) {
-                    department.setParent(parent);
-                    parent.getChildren().add(department);
-                }
+                department.setParent(departmentMap.get(departmentParentNumber));
             }
         });
+        departments.parallelStream()
+                .filter(department -> department.getParent() != null)
+                .collect(groupingBy(Department::getParentNumber))
+                .forEach((number, children) -> departmentMap.get(number).setChildren(children));
         setPath();
+        setNestedSet();
     }
 
     /**
+     * <pre>
      * 计算员工与部门、岗位之间的关系。
+     *
+     * 先并行关联每个员工的部门和岗位，再按部门编号和岗位编号分组得到部门和岗位的员工列表，
+     * 分组时每个线程使用各自的列表，最后合并，避免多个线程向同一个列表中添加元素。
+     * </pre>
      */
-    private void calcRelation(Map<String, Department> departmentMap) {
-        Map<String, Position> positionMap = positions.parallelStream()
-                .collect(toMap(Position::getNumber, position -> position));
+    private void calcRelation() {
+        // 构造组织架构之前已经关联了部门的员工已经在部门的员工列表中
+        Map<Boolean, List<Employee>> attachedEmployees = employees.parallelStream()
+                .collect(partitioningBy(employee -> employee.getDepartment() != null));
+        attachedEmployees.get(true).parallelStream().forEach(this::join);
+        attachedEmployees.get(false).parallelStream()
+                .filter(this::join)
+                .collect(groupingBy(Employee::getDepartmentNumber))
+                .forEach((number, departmentEmployees) -> {
+                    Department department = departmentMap.get(number);
+                    department.setEmployees(concat(department.getEmployees(), departmentEmployees));
+                });
 
         employees.parallelStream()
-                .filter(employee -> employee.getDepartmentNumber() != null
-                        && departmentMap.containsKey(employee.getDepartmentNumber()))  // 过滤掉没有部门的员工
-                .forEach(employee -> {
-                    if (employee.getDepartment() == null) {
-                        String departmentNumber = employee.getDepartmentNumber();
-                        Department department = departmentMap.get(departmentNumber);
-                        employee.setDepartment(department);
-                        department.getEmployees().add(employee);
-                    }
-
-                    String positionNumber = employee.getPositionNumber();
-                    if (positionNumber != null) {
-                        Position position = positionMap.get(positionNumber);
-                        employee.getPositions().add(position);
-                        employee.setPositionName(position == null ? null : position.getName());
-                        if (position != null) {
-                            position.getEmployees().add(employee);
-                        }
-                    }
-                });
+                .filter(employee -> employee.getDepartment() != null
+                        && positionMap.containsKey(employee.getPositionNumber()))
+                .collect(groupingBy(Employee::getPositionNumber))
+                .forEach((number, positionEmployees) -> positionMap.get(number).setEmployees(positionEmployees));
+    }
+
+    private static <T> List<T> concat(List<T> list, List<T> other) {
+        if (list.isEmpty()) {
+            return other;
+        }
+        List<T> result = new ArrayList<>(list.size() + other.size());
+        result.addAll(list);
+        result.addAll(other);
+        return result;
     }
 
     /**
-     * 设置部门的idPath，numberPath和namePath。
+     * <pre>
+     * 设置部门的idPath，numberPath，namePath和englishNamePath。
+     * 从根部门开始广度优先遍历部门树，每个部门的路径由上级部门已经计算好的路径拼接得到。
+     * 不在部门树中的部门（例如上级部门编号存在循环）不设置路径。
+     * </pre>
      */
     private void setPath() {
-        departments.parallelStream()
-                .forEach(department -> {
-                    department.getIdPath();
-                    department.getNumberPath();
-                    department.getNamePath();
-                });
+        Queue<Department> queue = departments.stream()
+                .filter(department -> department.getParent() == null)
+                .collect(toCollection(ArrayDeque::new));
+        while (!queue.isEmpty()) {
+            Department department = queue.poll();
+            department.buildPaths(department.getParent());
+            queue.addAll(department.getChildren());
+        }
+    }
+
+    /**
+     * <pre>
+     * 设置部门的lft，rgt和depth（嵌套集合）。
+     *
+     * 从根部门开始深度优先遍历部门树，进入部门时分配左值，离开部门时分配右值，兄弟部门按显示顺序和编号排序，
+     * 所有根部门共用一个计数器。部门X的所有下级部门就是同一数据源中lft在X.lft和X.rgt之间的部门，
+     * 查询整个子树的部门和员工只需要一次范围扫描。不在部门树中的部门不设置。
+     * </pre>
+     */
+    private void setNestedSet() {
+        departments.forEach(department -> {
+            department.setLft(null);
+            department.setRgt(null);
+            department.setDepth(null);
+        });
+
+        Deque<Department> stack = new ArrayDeque<>();
+        departments.stream()
+                .filter(department -> department.getParent() == null)
+                .sorted(SIBLING_ORDER.reversed())
+                .forEach(stack::push);
+        int counter = 0;
+        while (!stack.isEmpty()) {
+            Department department = stack.pop();
+            if (department.getLft() != null) {
+                department.setRgt(++counter);    // 所有下级部门都已经遍历
+                continue;
+            }
+
+            Department parent = department.getParent();
+            department.setLft(++counter);
+            department.setDepth(parent == null ? 0 : parent.getDepth() + 1);
+            stack.push(department);
+            department.getChildren().stream()
+                    .sorted(SIBLING_ORDER.reversed())
+                    .forEach(stack::push);
+        }
     }
 
     @Override
@@ -184,11 +303,29 @@ public class Organization {
      */
     public interface Storage {
 
+        /**
+         * 开始持久化数据源的数据。
+         *
+         * @param dataSource 数据源
+         * @param mode       同步模式
+         */
+        default void begin(@Nonnull DataSource dataSource, @Nonnull LdapPorter.Mode mode) {
+        }
+
+        /**
+         * 结束持久化数据源的数据。
+         *
+         * @param dataSource 数据源
+         * @param succeeded  拉取和持久化是否成功
+         */
+        default void end(@Nonnull DataSource dataSource, boolean succeeded) {
+        }
+
         /**
          * <pre>
          * 持久化组织架构数据。
          *
-         * 实现类不允许修改Department对象的数据。
+         * 实现类不允许修改Department对象的数据（标记写入的代数除外）。
          * </pre>
          *
          * @param department 部门信息，包含部门下的所有员工信息及员工的所有岗位信息
@@ -196,6 +333,17 @@ public class Organization {
          */
         void save(@Nonnull final Department department);
 
+        /**
+         * 持久化所有部门信息，默认使用线程池并发持久化每个部门。
+         *
+         * @param departments 部门信息，包含部门下的所有员工信息及员工的所有岗位信息
+         * @param executor    持久化数据的线程池
+         * @see #save(Department)
+         */
+        default void save(@Nonnull final List<Department> departments, @Nonnull IoExecutor executor) {
+            executor.forEach(departments, this::save);
+        }
+
         /**
          * 移除组织架构数据。
          *
@@ -203,5 +351,56 @@ public class Organization {
          * @param e          异常信息
          */
         void remove(@Nonnull final Department department, Exception e);
+
+        /**
+         * 持久化单个员工信息，用于增量写入。
+         *
+         * @param employee 员工信息，员工所属部门必须已经持久化
+         */
+        void save(@Nonnull final Employee employee);
+
+        /**
+         * 批量持久化员工信息，用于流式写入。
+         *
+         * @param employees 员工信息，员工所属部门必须已经持久化
+         */
+        default void save(@Nonnull final List<Employee> employees) {
+            employees.forEach(this::save);
+        }
+
+        /**
+         * 移除单个员工信息，用于增量写入。
+         *
+         * @param employee 员工信息
+         */
+        void remove(@Nonnull final Employee employee);
+
+        /**
+         * <pre>
+         * 删除数据源中代数小于generation的部门和员工，即本次全量同步没有写入、已经从LDAP中消失的数据。
+         * 只在全量同步成功后调用，默认不删除。
+         * </pre>
+         *
+         * @param dataSource 数据源
+         * @param generation 本次同步的代数
+         * @see Department#getGeneration()
+         */
+        default void sweep(@Nonnull DataSource dataSource, long generation) {
+        }
+
+        /**
+         * <pre>
+         * 删除指定的部门和员工（全量同步中没有出现过的数据），代数不小于generation的数据不删除。
+         * 跳过内容没有变化的数据时，没有变化的数据保留原来的代数，因此不能按代数删除。默认不删除。
+         * </pre>
+         *
+         * @param dataSource  数据源
+         * @param generation  本次同步的代数
+         * @param departments 要删除的部门，只包含ID，编号和数据源
+         * @param employees   要删除的员工，只包含ID，uid和数据源
+         */
+        default void sweep(@Nonnull DataSource dataSource, long generation,
+                           @Nonnull List<Department> departments, @Nonnull List<Employee> employees) {
+        }
     }
 }
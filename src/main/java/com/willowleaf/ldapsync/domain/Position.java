@@ -3,8 +3,8 @@ package com.willowleaf.ldapsync.domain;
 import com.willowleaf.ldapsync.annotation.Ignore;
 import lombok.Data;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * 标准的岗位信息模型。<br/>
@@ -34,5 +34,5 @@ public class Position {
      * 岗位的员工列表。
      */
     @Ignore
-    private List<Employee> employees = new CopyOnWriteArrayList<>();
+    private List<Employee> employees = new ArrayList<>();
 }
@@ -0,0 +1,133 @@
+package com.willowleaf.ldapsync.domain.directory;
+
+import com.willowleaf.ldapsync.config.DirectoryProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.LdapPorter;
+import com.willowleaf.ldapsync.domain.persistence.Snapshot;
+import com.willowleaf.ldapsync.domain.persistence.SnapshotStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <pre>
+ * 每个数据源最近一次成功同步的组织架构目录（{@link OrganizationDirectory}）。
+ *
+ * 同步过程中收集所有部门和员工，同步成功后构建新的目录并原子地替换旧目录，
+ * 查询总是看到某一次同步的完整目录，同步失败时继续使用旧目录。
+ * 进程重启后内存中没有目录，第一次查询时从最新的快照加载。
+ * 目录包含整个组织架构，构建目录的同步需要在内存中保留所有数据，因此默认关闭。
+ * 开启Redis时替换之后同时将新的目录写入Redis（{@link RedisDirectory}），写入失败只记录日志。
+ * </pre>
+ *
+ * @see DirectoryProperties
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(DirectoryProperties.class)
+public class DirectoryCache {
+
+    private final DirectoryProperties properties;
+    private final SnapshotStore snapshotStore;
+    private final RedisDirectory redisDirectory;
+
+    private final Map<Integer, OrganizationDirectory> directories = new ConcurrentHashMap<>();
+
+    /**
+     * 已经尝试过从快照加载但是没有快照的数据源。
+     */
+    private final Set<Integer> missing = ConcurrentHashMap.newKeySet();
+
+    public DirectoryCache(DirectoryProperties properties, SnapshotStore snapshotStore,
+                          RedisDirectory redisDirectory) {
+        this.properties = properties;
+        this.snapshotStore = snapshotStore;
+        this.redisDirectory = redisDirectory;
+    }
+
+    /**
+     * 开始收集一次同步的数据。
+     *
+     * @return 目录的构建器，不需要构建目录时返回null
+     */
+    @Nullable
+    public OrganizationDirectory.Builder begin(long generation) {
+        return properties.isEnabled() || redisDirectory.isEnabled()
+                ? new OrganizationDirectory.Builder(generation) : null;
+    }
+
+    /**
+     * 同步成功后使用新的目录替换旧目录。增量同步只包含变化的员工，在旧目录的基础上构建，没有旧目录时不替换。
+     */
+    public void swap(@Nonnull DataSource dataSource, @Nonnull LdapPorter.Mode mode,
+                     @Nonnull OrganizationDirectory.Builder builder) {
+        OrganizationDirectory directory;
+        if (mode == LdapPorter.Mode.DELTA) {
+            OrganizationDirectory previous = get(dataSource.getId());
+            if (previous == null) {
+                log.warn("数据源[{}]没有全量同步的目录，增量同步之后不构建目录", dataSource.getName());
+                return;
+            }
+            directory = builder.build(previous);
+        } else {
+            directory = builder.build();
+        }
+
+        if (properties.isEnabled()) {
+            directories.put(dataSource.getId(), directory);
+            missing.remove(dataSource.getId());
+            log.info("数据源[{}]的目录已替换为代数{}，{}个部门，{}个员工", dataSource.getName(),
+                    directory.getGeneration(), directory.getDepartmentCount(), directory.getEmployeeCount());
+        }
+        if (redisDirectory.isEnabled()) {
+            try {
+                redisDirectory.publish(dataSource, directory);
+            } catch (RuntimeException e) {
+                log.error("数据源[{}]将目录写入Redis失败", dataSource.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * 返回数据源当前的目录，没有成功同步过（也没有快照）时返回null。
+     */
+    @Nullable
+    public OrganizationDirectory get(int dataSourceId) {
+        OrganizationDirectory directory = directories.get(dataSourceId);
+        if (directory != null || !properties.isEnabled() || !properties.isLoadSnapshot()
+                || missing.contains(dataSourceId)) {
+            return directory;
+        }
+        return directories.computeIfAbsent(dataSourceId, this::load);
+    }
+
+    private OrganizationDirectory load(int dataSourceId) {
+        try {
+            Snapshot snapshot = snapshotStore.openLatest(dataSourceId);
+            if (snapshot == null) {
+                missing.add(dataSourceId);
+                return null;
+            }
+
+            List<Department> departments = snapshot.readDepartments();
+            OrganizationDirectory.Builder builder = new OrganizationDirectory.Builder(snapshot.getGeneration());
+            builder.addAll(departments);
+            OrganizationDirectory directory = builder.build();
+            log.info("数据源[{}]从代数为{}的快照加载了目录", dataSourceId, snapshot.getGeneration());
+            return directory;
+        } catch (IOException | RuntimeException e) {
+            log.error("数据源[{}]从快照加载目录失败", dataSourceId, e);
+            missing.add(dataSourceId);
+            return null;
+        }
+    }
+}
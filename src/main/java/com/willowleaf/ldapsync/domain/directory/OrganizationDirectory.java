@@ -0,0 +1,280 @@
+package com.willowleaf.ldapsync.domain.directory;
+
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import com.willowleaf.ldapsync.domain.persistence.DocumentSerializer;
+import lombok.Getter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <pre>
+ * 一个数据源在某次同步之后的只读组织架构目录。
+ *
+ * 部门按编号索引，员工按uid索引，部门之间按上级部门编号建立父子关系，员工按部门编号加入部门。
+ * 每个部门和员工在构建时序列化为JSON（与Elasticsearch文档相同），查询时不再访问数据库，也不再序列化。
+ * 目录构建完成后不再修改，新的同步结束时整体替换（{@link DirectoryCache}）。
+ * </pre>
+ */
+public final class OrganizationDirectory {
+
+    private static final Comparator<DepartmentNode> ORDER = Comparator
+            .comparing((DepartmentNode node) -> node.sequence, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(node -> node.number);
+
+    /**
+     * 构建目录的同步的代数。
+     */
+    @Getter
+    private final long generation;
+
+    private final Map<String, DepartmentNode> departments;
+    private final Map<String, EmployeeNode> employees;
+    private final List<DepartmentNode> roots;
+
+    private OrganizationDirectory(long generation, @Nonnull Map<String, DepartmentNode> departments,
+                                  @Nonnull Map<String, EmployeeNode> employees) {
+        this.generation = generation;
+        this.departments = departments;
+        this.employees = employees;
+
+        List<DepartmentNode> roots = new ArrayList<>();
+        for (DepartmentNode department : departments.values()) {
+            DepartmentNode parent = department.parentNumber == null ? null : departments.get(department.parentNumber);
+            if (parent == null || parent == department) {
+                roots.add(department);
+            } else {
+                parent.children.add(department);
+            }
+        }
+        for (EmployeeNode employee : employees.values()) {
+            DepartmentNode department = employee.departmentNumber == null
+                    ? null : departments.get(employee.departmentNumber);
+            if (department != null) {
+                department.employees.add(employee);
+            }
+        }
+        for (DepartmentNode department : departments.values()) {
+            department.children.sort(ORDER);
+            department.employees.sort(Comparator.comparing(employee -> employee.uid));
+        }
+        roots.sort(ORDER);
+        this.roots = Collections.unmodifiableList(roots);
+    }
+
+    @Nullable
+    public DepartmentNode getDepartment(@Nonnull String number) {
+        return departments.get(number);
+    }
+
+    @Nullable
+    public EmployeeNode getEmployee(@Nonnull String uid) {
+        return employees.get(uid);
+    }
+
+    /**
+     * 返回没有上级部门（或者上级部门不存在）的部门。
+     */
+    @Nonnull
+    public List<DepartmentNode> getRoots() {
+        return roots;
+    }
+
+    @Nonnull
+    public Collection<DepartmentNode> getDepartments() {
+        return Collections.unmodifiableCollection(departments.values());
+    }
+
+    @Nonnull
+    public Collection<EmployeeNode> getEmployees() {
+        return Collections.unmodifiableCollection(employees.values());
+    }
+
+    public int getDepartmentCount() {
+        return departments.size();
+    }
+
+    public int getEmployeeCount() {
+        return employees.size();
+    }
+
+    /**
+     * 按先序遍历部门及其所有下级部门，上级部门编号形成环时每个部门只遍历一次。
+     */
+    @Nonnull
+    public Iterator<DepartmentNode> subtree(@Nonnull DepartmentNode root) {
+        Deque<DepartmentNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        Set<DepartmentNode> visited = new HashSet<>();
+        return new Iterator<DepartmentNode>() {
+            @Override
+            public boolean hasNext() {
+                while (!stack.isEmpty() && visited.contains(stack.peek())) {
+                    stack.pop();
+                }
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public DepartmentNode next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                DepartmentNode node = stack.pop();
+                visited.add(node);
+                for (int i = node.children.size() - 1; i >= 0; i--) {
+                    stack.push(node.children.get(i));
+                }
+                return node;
+            }
+        };
+    }
+
+    /**
+     * 目录中的部门。
+     */
+    public static final class DepartmentNode {
+
+        @Getter
+        private final String number;
+        @Getter
+        private final String parentNumber;
+        private final Integer sequence;
+
+        /**
+         * 部门的JSON文档。
+         */
+        @Getter
+        private final byte[] document;
+        @Getter
+        private final long contentHash;
+
+        private final List<DepartmentNode> children = new ArrayList<>();
+        private final List<EmployeeNode> employees = new ArrayList<>();
+
+        private DepartmentNode(@Nonnull Department department, long contentHash) {
+            this.number = department.getNumber();
+            this.parentNumber = department.getParentNumber();
+            this.sequence = department.getSequence();
+            this.document = DocumentSerializer.of(Department.class).toBytes(department);
+            this.contentHash = contentHash;
+        }
+
+        @Nonnull
+        public List<DepartmentNode> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
+
+        @Nonnull
+        public List<EmployeeNode> getEmployees() {
+            return Collections.unmodifiableList(employees);
+        }
+    }
+
+    /**
+     * 目录中的员工。
+     */
+    public static final class EmployeeNode {
+
+        @Getter
+        private final String uid;
+        @Getter
+        private final String departmentNumber;
+
+        /**
+         * 员工的JSON文档。
+         */
+        @Getter
+        private final byte[] document;
+        @Getter
+        private final long contentHash;
+
+        private EmployeeNode(@Nonnull Employee employee, long contentHash) {
+            this.uid = employee.getUid();
+            this.departmentNumber = employee.getDepartmentNumber();
+            this.document = DocumentSerializer.of(Employee.class).toBytes(employee);
+            this.contentHash = contentHash;
+        }
+    }
+
+    /**
+     * <pre>
+     * 收集一次同步的部门和员工并构建目录，可以被多个线程同时调用。
+     * 数据在加入时立即序列化，同一编号（uid）只保留最后加入的数据。每个Builder只能构建一次目录。
+     * </pre>
+     */
+    public static final class Builder {
+
+        private final long generation;
+        private final Map<String, DepartmentNode> departments = new ConcurrentHashMap<>();
+        private final Map<String, EmployeeNode> employees = new ConcurrentHashMap<>();
+
+        public Builder(long generation) {
+            this.generation = generation;
+        }
+
+        public void add(@Nonnull Department department) {
+            if (department.getNumber() != null) {
+                departments.put(department.getNumber(), new DepartmentNode(department, contentHash(
+                        department.getContentHash(), department.getGeneration())));
+            }
+        }
+
+        public void add(@Nonnull Employee employee) {
+            if (employee.getUid() != null) {
+                employees.put(employee.getUid(), new EmployeeNode(employee, contentHash(
+                        employee.getContentHash(), employee.getGeneration())));
+            }
+        }
+
+        public void addAll(@Nonnull Collection<Department> departments) {
+            for (Department department : departments) {
+                add(department);
+                department.getEmployees().forEach(this::add);
+            }
+        }
+
+        /**
+         * 构建完整的目录。
+         */
+        @Nonnull
+        public OrganizationDirectory build() {
+            return new OrganizationDirectory(generation, new HashMap<>(departments), new HashMap<>(employees));
+        }
+
+        /**
+         * <pre>
+         * 构建增量同步之后的目录：部门使用本次同步的数据（增量同步仍然拉取所有部门），
+         * 员工在上一个目录的基础上覆盖本次同步变化的员工。
+         * </pre>
+         */
+        @Nonnull
+        public OrganizationDirectory build(@Nonnull OrganizationDirectory previous) {
+            Map<String, EmployeeNode> merged = new HashMap<>(previous.employees);   // 员工节点不可变，可以共用
+            merged.putAll(employees);
+            return new OrganizationDirectory(generation, new HashMap<>(departments), merged);
+        }
+
+        /**
+         * 没有内容哈希时（不是通过同步写入的数据）使用代数代替，只用于生成ETag。
+         */
+        private static long contentHash(Long contentHash, Long generation) {
+            return contentHash != null ? contentHash : generation != null ? generation : 0;
+        }
+    }
+}
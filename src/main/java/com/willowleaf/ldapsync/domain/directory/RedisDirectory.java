@@ -0,0 +1,243 @@
+package com.willowleaf.ldapsync.domain.directory;
+
+import com.willowleaf.ldapsync.config.DirectoryProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.directory.OrganizationDirectory.DepartmentNode;
+import com.willowleaf.ldapsync.domain.directory.OrganizationDirectory.EmployeeNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <pre>
+ * 将组织架构目录（{@link OrganizationDirectory}）共享到Redis，所有节点和外部系统读取同一份目录。
+ *
+ * 每次同步成功后使用新的代数写入一组新的键，写入使用管道，HMSET和SADD按批拆分：
+ *   {prefix}:{数据源ID}:{代数}:departments        部门编号 -> 部门的JSON文档
+ *   {prefix}:{数据源ID}:{代数}:employees          员工uid -> 员工的JSON文档
+ *   {prefix}:{数据源ID}:{代数}:members:{部门编号}  部门的直接成员的uid
+ * 全部写入后使用Lua脚本将{prefix}:{数据源ID}:current原子地切换为新的代数（代数只增不减），
+ * 再为旧代数的键设置过期时间。读取时先读取当前代数，再读取该代数的键，因此总是读到某一次同步的完整目录。
+ * 写入失败时当前代数不变，已经写入的新键设置过期时间。
+ * </pre>
+ *
+ * @see DirectoryProperties.Redis
+ */
+@Slf4j
+@Component
+public class RedisDirectory {
+
+    /**
+     * 当前代数不小于新的代数时返回-1，否则切换为新的代数并返回旧的代数（没有时返回0）。
+     */
+    private static final byte[] FLIP = ("local current = redis.call('GET', KEYS[1]) "
+            + "if current and tonumber(current) >= tonumber(ARGV[1]) then return -1 end "
+            + "redis.call('SET', KEYS[1], ARGV[1]) "
+            + "return tonumber(current) or 0").getBytes(UTF_8);
+
+    private final DirectoryProperties.Redis properties;
+    private final RedisConnectionFactory connectionFactory;
+
+    public RedisDirectory(DirectoryProperties properties, RedisConnectionFactory connectionFactory) {
+        this.properties = properties.getRedis();
+        this.connectionFactory = connectionFactory;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 写入目录并切换当前代数。
+     */
+    public void publish(@Nonnull DataSource dataSource, @Nonnull OrganizationDirectory directory) {
+        int dataSourceId = dataSource.getId();
+        long generation = directory.getGeneration();
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            long previous;
+            try {
+                write(connection, dataSourceId, directory);
+                Long flipped = connection.eval(FLIP, ReturnType.INTEGER, 1, current(dataSourceId),
+                        bytes(Long.toString(generation)));
+                previous = flipped == null ? 0 : flipped;
+            } catch (RuntimeException e) {
+                expire(connection, dataSourceId, generation);
+                throw e;
+            }
+
+            if (previous < 0) {
+                log.warn("数据源[{}]在Redis中的目录已经是更新的代数，放弃代数{}", dataSource.getName(), generation);
+                expire(connection, dataSourceId, generation);
+                return;
+            }
+            if (previous > 0) {
+                expire(connection, dataSourceId, previous);
+            }
+            log.info("数据源[{}]在Redis中的目录已切换为代数{}，{}个部门，{}个员工", dataSource.getName(),
+                    generation, directory.getDepartmentCount(), directory.getEmployeeCount());
+        }
+    }
+
+    /**
+     * 返回数据源当前的代数，没有目录时返回null。
+     */
+    @Nullable
+    public Long getGeneration(int dataSourceId) {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            byte[] generation = connection.get(current(dataSourceId));
+            return generation == null ? null : Long.valueOf(new String(generation, UTF_8));
+        }
+    }
+
+    /**
+     * 返回部门的JSON文档，部门不存在时返回null。
+     */
+    @Nullable
+    public byte[] getDepartment(int dataSourceId, long generation, @Nonnull String number) {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            return connection.hGet(key(dataSourceId, generation, "departments"), bytes(number));
+        }
+    }
+
+    /**
+     * 返回员工的JSON文档，员工不存在时返回null。
+     */
+    @Nullable
+    public byte[] getEmployee(int dataSourceId, long generation, @Nonnull String uid) {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            return connection.hGet(key(dataSourceId, generation, "employees"), bytes(uid));
+        }
+    }
+
+    /**
+     * 返回部门的直接成员的JSON文档，按uid排序。
+     */
+    @Nonnull
+    public List<byte[]> getMembers(int dataSourceId, long generation, @Nonnull String number) {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            Set<byte[]> members = connection.sMembers(members(dataSourceId, generation, number));
+            if (members == null || members.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            Set<String> uids = new TreeSet<>();
+            members.forEach(uid -> uids.add(new String(uid, UTF_8)));
+            List<byte[]> fields = new ArrayList<>(uids.size());
+            uids.forEach(uid -> fields.add(bytes(uid)));
+            List<byte[]> documents = new ArrayList<>(fields.size());
+            for (byte[] document : connection.hMGet(key(dataSourceId, generation, "employees"),
+                    fields.toArray(new byte[0][]))) {
+                if (document != null) {
+                    documents.add(document);
+                }
+            }
+            return documents;
+        }
+    }
+
+    private void write(@Nonnull RedisConnection connection, int dataSourceId,
+                       @Nonnull OrganizationDirectory directory) {
+        long generation = directory.getGeneration();
+        int batchSize = Math.max(1, properties.getBatchSize());
+        connection.openPipeline();
+        try {
+            byte[] departments = key(dataSourceId, generation, "departments");
+            Map<byte[], byte[]> batch = new LinkedHashMap<>();
+            for (DepartmentNode department : directory.getDepartments()) {
+                batch.put(bytes(department.getNumber()), department.getDocument());
+                if (batch.size() >= batchSize) {
+                    connection.hMSet(departments, batch);
+                    batch = new LinkedHashMap<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                connection.hMSet(departments, batch);
+            }
+
+            byte[] employees = key(dataSourceId, generation, "employees");
+            batch = new LinkedHashMap<>();
+            for (EmployeeNode employee : directory.getEmployees()) {
+                batch.put(bytes(employee.getUid()), employee.getDocument());
+                if (batch.size() >= batchSize) {
+                    connection.hMSet(employees, batch);
+                    batch = new LinkedHashMap<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                connection.hMSet(employees, batch);
+            }
+
+            for (DepartmentNode department : directory.getDepartments()) {
+                byte[] members = members(dataSourceId, generation, department.getNumber());
+                List<byte[]> uids = new ArrayList<>();
+                for (EmployeeNode employee : department.getEmployees()) {
+                    uids.add(bytes(employee.getUid()));
+                    if (uids.size() >= batchSize) {
+                        connection.sAdd(members, uids.toArray(new byte[0][]));
+                        uids.clear();
+                    }
+                }
+                if (!uids.isEmpty()) {
+                    connection.sAdd(members, uids.toArray(new byte[0][]));
+                }
+            }
+        } finally {
+            connection.closePipeline();
+        }
+    }
+
+    /**
+     * 为一个代数的所有键设置过期时间，部门成员的键由部门编号得出。
+     */
+    private void expire(@Nonnull RedisConnection connection, int dataSourceId, long generation) {
+        try {
+            byte[] departments = key(dataSourceId, generation, "departments");
+            Collection<byte[]> numbers = connection.hKeys(departments);
+            long millis = properties.getExpiration().toMillis();
+            connection.openPipeline();
+            try {
+                if (numbers != null) {
+                    for (byte[] number : numbers) {
+                        connection.pExpire(members(dataSourceId, generation, new String(number, UTF_8)), millis);
+                    }
+                }
+                connection.pExpire(departments, millis);
+                connection.pExpire(key(dataSourceId, generation, "employees"), millis);
+            } finally {
+                connection.closePipeline();
+            }
+        } catch (RuntimeException e) {
+            log.error("数据源[{}]为Redis中代数{}的目录设置过期时间失败", dataSourceId, generation, e);
+        }
+    }
+
+    private byte[] current(int dataSourceId) {
+        return bytes(properties.getKeyPrefix() + ":" + dataSourceId + ":current");
+    }
+
+    private byte[] key(int dataSourceId, long generation, @Nonnull String name) {
+        return bytes(properties.getKeyPrefix() + ":" + dataSourceId + ":" + generation + ":" + name);
+    }
+
+    private byte[] members(int dataSourceId, long generation, @Nonnull String number) {
+        return bytes(properties.getKeyPrefix() + ":" + dataSourceId + ":" + generation + ":members:" + number);
+    }
+
+    private static byte[] bytes(@Nonnull String value) {
+        return value.getBytes(UTF_8);
+    }
+}
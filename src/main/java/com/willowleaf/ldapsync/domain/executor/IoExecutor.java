@@ -0,0 +1,204 @@
+package com.willowleaf.ldapsync.domain.executor;
+
+import lombok.Getter;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * <pre>
+ * 执行阻塞I/O任务（LDAP查询，数据持久化）的有界线程池。
+ *
+ * 线程具有名称，等待队列有界，队列已满时提交任务的线程等待而不是拒绝任务。
+ * 批量执行任务时，任意一个任务失败会取消其它尚未完成的任务。
+ *
+ * 每个已提交的任务占用一个许可，许可在任务结束时（完成、失败或被取消）归还。
+ * 在队列中被取消的任务不会再执行，因此许可不能在任务内部归还，被取消的任务同时从队列中移除。
+ * </pre>
+ *
+ * @see IoExecutorRegistry
+ */
+public class IoExecutor implements Executor, Closeable {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int concurrency;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permits;
+
+    public IoExecutor(@Nonnull String name, int concurrency, int queueCapacity) {
+        this.name = name;
+        this.concurrency = concurrency;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.permits = new Semaphore(concurrency + queueCapacity);
+    }
+
+    /**
+     * 提交任务，线程池和等待队列都已满时等待。
+     *
+     * @param task 任务
+     * @param <T>  任务结果类型
+     * @return 任务结果
+     */
+    public <T> Future<T> submit(@Nonnull Callable<T> task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException(name + "提交任务时被中断");
+        }
+
+        PermitTask<T> future = new PermitTask<>(task);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * 执行任务，线程池和等待队列都已满时等待。
+     *
+     * @param command 任务
+     */
+    @Override
+    public void execute(@Nonnull Runnable command) {
+        submit(Executors.callable(command));
+    }
+
+    /**
+     * 并发处理所有元素并按顺序返回结果，任意一个任务失败时取消其它任务并抛出异常。
+     *
+     * @param items    元素
+     * @param function 处理函数
+     * @param <T>      元素类型
+     * @param <R>      结果类型
+     * @return 结果列表
+     */
+    public <T, R> List<R> map(@Nonnull Collection<T> items, @Nonnull Function<? super T, ? extends R> function) {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Queue<Future<R>> running = new ConcurrentLinkedQueue<>();
+        List<Future<R>> futures = new ArrayList<>(items.size());
+        for (T item : items) {
+            if (failure.get() != null) {
+                break;
+            }
+            Future<R> future = submit(() -> {
+                try {
+                    return function.apply(item);
+                } catch (Throwable e) {
+                    if (failure.compareAndSet(null, e)) {
+                        running.forEach(other -> other.cancel(true));
+                    }
+                    throw e;
+                }
+            });
+            running.add(future);
+            futures.add(future);
+            if (failure.get() != null) {
+                future.cancel(true);
+            }
+        }
+
+        List<R> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (CancellationException | ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw propagate(failure.get() != null ? failure.get() : e);
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new CancellationException(name + "等待任务结果时被中断");
+        }
+        return results;
+    }
+
+    /**
+     * 并发处理所有元素，任意一个任务失败时取消其它任务并抛出异常。
+     *
+     * @param items  元素
+     * @param action 处理函数
+     * @param <T>    元素类型
+     */
+    public <T> void forEach(@Nonnull Collection<T> items, @Nonnull Consumer<? super T> action) {
+        map(items, item -> {
+            action.accept(item);
+            return null;
+        });
+    }
+
+    /**
+     * 返回等待队列中的任务数。
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 返回正在执行的任务数。
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 结束时归还许可的任务。
+     */
+    private class PermitTask<T> extends FutureTask<T> {
+
+        private PermitTask(@Nonnull Callable<T> callable) {
+            super(callable);
+        }
+
+        /**
+         * 任务完成、失败或被取消时调用，每个任务只调用一次。
+         */
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                executor.remove(this);  // 还在队列中的任务不再占用队列的容量
+            }
+            permits.release();
+        }
+    }
+
+    private static RuntimeException propagate(Throwable e) {
+        if (e instanceof ExecutionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new CompletionException(e);
+    }
+}
@@ -0,0 +1,82 @@
+package com.willowleaf.ldapsync.domain.executor;
+
+import com.willowleaf.ldapsync.config.LdapExecutorProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <pre>
+ * 每个数据源的I/O线程池，分为拉取LDAP数据和持久化数据两类。
+ *
+ * 队列长度和活动线程数以ldap.executor.queue和ldap.executor.active指标发布，
+ * 标签为dataSource和type。
+ * </pre>
+ *
+ * @see LdapExecutorProperties
+ */
+@Component
+@EnableConfigurationProperties(LdapExecutorProperties.class)
+public class IoExecutorRegistry {
+
+    private static final String FETCH = "fetch";
+    private static final String STORAGE = "storage";
+
+    private final LdapExecutorProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, IoExecutor> executors = new ConcurrentHashMap<>();
+
+    public IoExecutorRegistry(LdapExecutorProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 返回数据源拉取LDAP数据的线程池。
+     *
+     * @param dataSource 数据源
+     * @return 线程池
+     */
+    public IoExecutor getFetchExecutor(@Nonnull DataSource dataSource) {
+        return getExecutor(FETCH, dataSource, properties.getFetch());
+    }
+
+    /**
+     * 返回数据源持久化数据的线程池。
+     *
+     * @param dataSource 数据源
+     * @return 线程池
+     */
+    public IoExecutor getStorageExecutor(@Nonnull DataSource dataSource) {
+        return getExecutor(STORAGE, dataSource, properties.getStorage());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executors.values().forEach(IoExecutor::close);
+    }
+
+    private IoExecutor getExecutor(String type, DataSource dataSource, LdapExecutorProperties.Pool pool) {
+        return executors.computeIfAbsent(type + "-" + dataSource.getId(), name -> {
+            IoExecutor executor = new IoExecutor("ldap-" + name, pool.getConcurrency(), pool.getQueueCapacity());
+            String dataSourceId = String.valueOf(dataSource.getId());
+            Gauge.builder("ldap.executor.queue", executor, IoExecutor::getQueueSize)
+                    .tag("dataSource", dataSourceId)
+                    .tag("type", type)
+                    .register(meterRegistry);
+            Gauge.builder("ldap.executor.active", executor, IoExecutor::getActiveCount)
+                    .tag("dataSource", dataSourceId)
+                    .tag("type", type)
+                    .register(meterRegistry);
+            return executor;
+        });
+    }
+}
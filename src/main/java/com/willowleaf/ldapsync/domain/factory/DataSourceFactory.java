@@ -18,9 +18,12 @@ import static org.springframework.util.ObjectUtils.isEmpty;
 public class DataSourceFactory {
 
     private final DataSourceRepository dataSourceRepository;
+    private final LdapConnectionPoolRegistry ldapConnectionPoolRegistry;
 
-    public DataSourceFactory(DataSourceRepository dataSourceRepository) {
+    public DataSourceFactory(DataSourceRepository dataSourceRepository,
+                             LdapConnectionPoolRegistry ldapConnectionPoolRegistry) {
         this.dataSourceRepository = dataSourceRepository;
+        this.ldapConnectionPoolRegistry = ldapConnectionPoolRegistry;
     }
 
     DataSource getDataSource(@Nonnull Integer dataSourceId) {
@@ -34,6 +37,7 @@ public class DataSourceFactory {
                                 .map(DateTimeFormatter::ofPattern)
                                 .toArray(DateTimeFormatter[]::new)));
         dataSource.setDateTimeFormatters(dateTimeFormatters);
+        dataSource.setContextSource(ldapConnectionPoolRegistry.getContextSource(dataSource));
         return dataSource;
     }
 }
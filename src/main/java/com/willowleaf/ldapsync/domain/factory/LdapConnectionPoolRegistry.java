@@ -0,0 +1,243 @@
+package com.willowleaf.ldapsync.domain.factory;
+
+import com.willowleaf.ldapsync.config.LdapPoolProperties;
+import com.willowleaf.ldapsync.data.DataSourceRepository;
+import com.willowleaf.ldapsync.domain.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.pool2.DirContextType;
+import org.springframework.ldap.pool2.factory.PoolConfig;
+import org.springframework.ldap.pool2.factory.PooledContextSource;
+import org.springframework.ldap.pool2.validation.DefaultDirContextValidator;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import javax.naming.directory.DirContext;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <pre>
+ * LDAP连接池注册中心，每个数据源一个连接池，连接池的生命周期独立于单次同步。
+ *
+ * 1. 空闲连接定期检测，检测失败或超过最长存活时间的连接被关闭；
+ * 2. 启动时为所有数据源预先建立最小空闲连接；
+ * 3. 数据源的连接信息发生变化时关闭旧的连接池。
+ * </pre>
+ *
+ * @see LdapPoolProperties
+ */
+@Slf4j
+@Component
+@RepositoryEventHandler
+@EnableConfigurationProperties(LdapPoolProperties.class)
+public class LdapConnectionPoolRegistry {
+
+    private final LdapPoolProperties properties;
+    private final DataSourceRepository dataSourceRepository;
+
+    private final Map<Integer, Pool> pools = new ConcurrentHashMap<>();
+
+    public LdapConnectionPoolRegistry(LdapPoolProperties properties,
+                                      DataSourceRepository dataSourceRepository) {
+        this.properties = properties;
+        this.dataSourceRepository = dataSourceRepository;
+    }
+
+    /**
+     * 返回数据源的连接池，数据源的连接信息发生变化时重新创建连接池。
+     *
+     * @param dataSource 数据源
+     * @return 池化的ContextSource
+     */
+    public ContextSource getContextSource(@Nonnull DataSource dataSource) {
+        return pools.compute(dataSource.getId(), (id, pool) -> {
+            if (pool != null && pool.matches(dataSource)) {
+                return pool;
+            }
+            if (pool != null) {
+                log.info("{}的连接信息已变更，重建LDAP连接池。", dataSource.getName());
+                pool.destroy();
+            }
+            return new Pool(dataSource);
+        }).contextSource;
+    }
+
+    /**
+     * 关闭数据源的连接池。
+     *
+     * @param dataSourceId 数据源ID
+     */
+    public void invalidate(@Nonnull Integer dataSourceId) {
+        Pool pool = pools.remove(dataSourceId);
+        if (pool != null) {
+            pool.destroy();
+        }
+    }
+
+    @HandleAfterSave
+    public void onDataSourceSaved(DataSource dataSource) {
+        invalidate(dataSource.getId());
+    }
+
+    @HandleAfterDelete
+    public void onDataSourceDeleted(DataSource dataSource) {
+        invalidate(dataSource.getId());
+    }
+
+    /**
+     * 启动时为所有数据源预先建立最小空闲连接。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarm() {
+        if (!properties.isPrewarm() || properties.getMinIdle() <= 0) {
+            return;
+        }
+
+        for (DataSource dataSource : dataSourceRepository.findAll()) {
+            ContextSource contextSource = getContextSource(dataSource);
+            List<DirContext> contexts = new ArrayList<>();
+            try {
+                for (int i = 0; i < properties.getMinIdle(); i++) {
+                    contexts.add(contextSource.getReadOnlyContext());
+                }
+                log.info("{}的LDAP连接池已预热[{}]", dataSource.getName(), contexts.size());
+            } catch (Exception e) {
+                log.warn("{}的LDAP连接池预热失败", dataSource.getName(), e);
+            } finally {
+                contexts.forEach(this::close);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pools.keySet().forEach(this::invalidate);
+    }
+
+    private void close(DirContext context) {
+        try {
+            context.close();    // 归还至连接池
+        } catch (Exception ignored) {
+        }
+    }
+
+    private PoolConfig createPoolConfig() {
+        PoolConfig config = new PoolConfig();
+        config.setMinIdlePerKey(properties.getMinIdle());
+        config.setMaxIdlePerKey(properties.getMaxTotal());
+        config.setMaxTotalPerKey(properties.getMaxTotal());
+        config.setMaxTotal(properties.getMaxTotal() * 2);   // 只读连接和读写连接分别计数
+        config.setMaxWaitMillis(properties.getMaxWait().toMillis());
+        config.setTestOnBorrow(true);
+        config.setTestWhileIdle(true);
+        config.setTimeBetweenEvictionRunsMillis(properties.getValidationInterval().toMillis());
+        config.setMinEvictableIdleTimeMillis(properties.getMinEvictableIdleTime().toMillis());
+        config.setJmxEnabled(false);
+        return config;
+    }
+
+    /**
+     * 单个数据源的连接池。
+     */
+    private class Pool {
+
+        private final String url;
+        private final String username;
+        private final String password;
+        private final PooledContextSource contextSource;
+
+        Pool(@Nonnull DataSource dataSource) {
+            this.url = dataSource.getUrl();
+            this.username = dataSource.getUsername();
+            this.password = dataSource.getPassword();
+
+            AgeTrackingContextSource target = new AgeTrackingContextSource(dataSource.createContextSource());
+            this.contextSource = new PooledContextSource(createPoolConfig());
+            this.contextSource.setContextSource(target);
+            this.contextSource.setDirContextValidator(new MaxAgeDirContextValidator(target,
+                    properties.getMaxAge().toMillis()));
+        }
+
+        boolean matches(@Nonnull DataSource dataSource) {
+            return Objects.equals(url, dataSource.getUrl())
+                    && Objects.equals(username, dataSource.getUsername())
+                    && Objects.equals(password, dataSource.getPassword());
+        }
+
+        void destroy() {
+            try {
+                contextSource.destroy();
+            } catch (Exception e) {
+                log.warn("关闭LDAP连接池失败[{}]", url, e);
+            }
+        }
+    }
+
+    /**
+     * 记录每个连接的创建时间。
+     */
+    private static class AgeTrackingContextSource implements ContextSource {
+
+        private final ContextSource target;
+        private final Map<DirContext, Long> createdTimes = Collections.synchronizedMap(new WeakHashMap<>());
+
+        AgeTrackingContextSource(ContextSource target) {
+            this.target = target;
+        }
+
+        @Override
+        public DirContext getReadOnlyContext() {
+            return track(target.getReadOnlyContext());
+        }
+
+        @Override
+        public DirContext getReadWriteContext() {
+            return track(target.getReadWriteContext());
+        }
+
+        @Override
+        public DirContext getContext(String principal, String credentials) {
+            return track(target.getContext(principal, credentials));
+        }
+
+        long getAge(DirContext context) {
+            Long createdTime = createdTimes.get(context);
+            return createdTime == null ? 0 : System.currentTimeMillis() - createdTime;
+        }
+
+        private DirContext track(DirContext context) {
+            createdTimes.put(context, System.currentTimeMillis());
+            return context;
+        }
+    }
+
+    /**
+     * 检测连接是否可用，超过最长存活时间的连接视为不可用。
+     */
+    private static class MaxAgeDirContextValidator extends DefaultDirContextValidator {
+
+        private final AgeTrackingContextSource contextSource;
+        private final long maxAge;
+
+        MaxAgeDirContextValidator(AgeTrackingContextSource contextSource, long maxAge) {
+            this.contextSource = contextSource;
+            this.maxAge = maxAge;
+        }
+
+        @Override
+        public boolean validateDirContext(DirContextType contextType, DirContext dirContext) {
+            if (maxAge > 0 && contextSource.getAge(dirContext) > maxAge) {
+                return false;
+            }
+            return super.validateDirContext(contextType, dirContext);
+        }
+    }
+}
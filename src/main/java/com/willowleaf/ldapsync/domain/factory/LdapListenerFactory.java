@@ -0,0 +1,81 @@
+package com.willowleaf.ldapsync.domain.factory;
+
+import com.willowleaf.ldapsync.data.DepartmentRepository;
+import com.willowleaf.ldapsync.data.EmployeeRepository;
+import com.willowleaf.ldapsync.domain.Organization;
+import com.willowleaf.ldapsync.domain.listener.LdapListener;
+import com.willowleaf.ldapsync.domain.persistence.CompositeStorage;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 创建{@code LdapListener}对象并管理其生命周期，每个数据源最多只有一个监听者。
+ *
+ * @see LdapListener
+ */
+@Component
+public class LdapListenerFactory {
+
+    private final DataSourceFactory dataSourceFactory;
+    private final Organization.Storage storage;
+    private final DepartmentRepository departmentRepository;
+    private final EmployeeRepository employeeRepository;
+
+    private final Map<Integer, LdapListener> listeners = new ConcurrentHashMap<>();
+
+    public LdapListenerFactory(DataSourceFactory dataSourceFactory, CompositeStorage persistence,
+                               DepartmentRepository departmentRepository,
+                               EmployeeRepository employeeRepository) {
+        this.dataSourceFactory = dataSourceFactory;
+        this.storage = persistence;
+        this.departmentRepository = departmentRepository;
+        this.employeeRepository = employeeRepository;
+    }
+
+    /**
+     * 开始监听数据源的变更，已经在监听时直接返回。
+     *
+     * @param dataSourceId 数据源ID
+     * @return LDAP变更监听者
+     */
+    public LdapListener start(@Nonnull Integer dataSourceId) {
+        return listeners.computeIfAbsent(dataSourceId, id -> {
+            LdapListener listener = new LdapListener(dataSourceFactory.getDataSource(id), storage,
+                    departmentRepository, employeeRepository);
+            listener.start();
+            return listener;
+        });
+    }
+
+    /**
+     * 停止监听数据源的变更。
+     *
+     * @param dataSourceId 数据源ID
+     */
+    public void stop(@Nonnull Integer dataSourceId) {
+        LdapListener listener = listeners.remove(dataSourceId);
+        if (listener != null) {
+            listener.close();
+        }
+    }
+
+    /**
+     * 返回数据源是否正在监听变更。
+     *
+     * @param dataSourceId 数据源ID
+     * @return 是否正在监听
+     */
+    public boolean isListening(@Nonnull Integer dataSourceId) {
+        LdapListener listener = listeners.get(dataSourceId);
+        return listener != null && listener.isConnected();
+    }
+
+    @PreDestroy
+    public void stopAll() {
+        listeners.keySet().forEach(this::stop);
+    }
+}
@@ -1,11 +1,17 @@
 package com.willowleaf.ldapsync.domain.factory;
 
+import com.willowleaf.ldapsync.data.HighWaterMarkRepository;
 import com.willowleaf.ldapsync.domain.DataSource;
 import com.willowleaf.ldapsync.domain.LdapPorter;
 import com.willowleaf.ldapsync.domain.Organization;
+import com.willowleaf.ldapsync.domain.executor.IoExecutorRegistry;
 import com.willowleaf.ldapsync.domain.persistence.CompositeStorage;
+import com.willowleaf.ldapsync.domain.porter.BatchCycleLdapPorter;
 import com.willowleaf.ldapsync.domain.porter.CycleLdapPorter;
+import com.willowleaf.ldapsync.domain.porter.PagedLdapPorter;
+import com.willowleaf.ldapsync.domain.porter.ReactiveLdapPorter;
 import com.willowleaf.ldapsync.domain.porter.SingleLdapPorter;
+import com.willowleaf.ldapsync.domain.porter.StreamingLdapPorter;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nonnull;
@@ -20,10 +26,16 @@ public class LdapPorterFactory {
 
     private final DataSourceFactory dataSourceFactory;
     private final Organization.Storage storage;
+    private final HighWaterMarkRepository highWaterMarkRepository;
+    private final IoExecutorRegistry ioExecutorRegistry;
 
-    public LdapPorterFactory(DataSourceFactory dataSourceFactory, CompositeStorage persistence) {
+    public LdapPorterFactory(DataSourceFactory dataSourceFactory, CompositeStorage persistence,
+                             HighWaterMarkRepository highWaterMarkRepository,
+                             IoExecutorRegistry ioExecutorRegistry) {
         this.dataSourceFactory = dataSourceFactory;
         this.storage = persistence;
+        this.highWaterMarkRepository = highWaterMarkRepository;
+        this.ioExecutorRegistry = ioExecutorRegistry;
     }
 
     /**
@@ -33,6 +45,25 @@ public class LdapPorterFactory {
      * @return LDAP搬运工
      */
     public LdapPorter getLdapPorter(@Nonnull Integer dataSourceId) {
+        return getLdapPorter(dataSourceId, LdapPorter.Mode.FULL);
+    }
+
+    /**
+     * 返回指定同步模式的LDAP搬运工。
+     *
+     * @param dataSourceId 数据源ID
+     * @param mode         同步模式
+     * @return LDAP搬运工
+     */
+    public LdapPorter getLdapPorter(@Nonnull Integer dataSourceId, @Nonnull LdapPorter.Mode mode) {
+        LdapPorter porter = createLdapPorter(dataSourceId);
+        porter.setMode(mode, highWaterMarkRepository.findByDataSourceId(dataSourceId));
+        porter.setExecutors(ioExecutorRegistry.getFetchExecutor(porter.getDataSource()),
+                ioExecutorRegistry.getStorageExecutor(porter.getDataSource()));
+        return porter;
+    }
+
+    private LdapPorter createLdapPorter(@Nonnull Integer dataSourceId) {
         DataSource dataSource = dataSourceFactory.getDataSource(dataSourceId);
 
         switch (dataSource.getPullStrategy()) {
@@ -40,6 +71,14 @@ public class LdapPorterFactory {
                 return new SingleLdapPorter(dataSource, storage);
             case CYCLE:
                 return new CycleLdapPorter(dataSource, storage);
+            case PAGED:
+                return new PagedLdapPorter(dataSource, storage);
+            case BATCH_CYCLE:
+                return new BatchCycleLdapPorter(dataSource, storage);
+            case REACTIVE:
+                return new ReactiveLdapPorter(dataSource, storage);
+            case STREAMING:
+                return new StreamingLdapPorter(dataSource, storage);
             default:
                 throw new RuntimeException(String.format("数据源[%s]不存在", dataSourceId));
         }
@@ -0,0 +1,449 @@
+package com.willowleaf.ldapsync.domain.listener;
+
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.*;
+import com.unboundid.ldap.sdk.controls.*;
+import com.unboundid.util.ssl.SSLUtil;
+import com.willowleaf.ldapsync.data.DepartmentRepository;
+import com.willowleaf.ldapsync.data.EmployeeRepository;
+import com.willowleaf.ldapsync.domain.*;
+import com.willowleaf.ldapsync.domain.Dictionary;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import javax.net.SocketFactory;
+import java.io.Closeable;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.willowleaf.ldapsync.domain.Dictionary.Type.*;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * <pre>
+ * 监听LDAP数据源的变更，并将变更增量写入{@code Organization.Storage}。
+ *
+ * 优先使用RFC 4533 LDAP Content Synchronization（syncrepl）的refreshAndPersist模式，
+ * LDAP服务器不支持时使用Persistent Search。部门和员工字典各使用一个长连接查询，
+ * 收到的新增、修改、删除和改名事件使用字典的属性映射转换为部门或员工后写入存储。
+ *
+ * 1. 首次监听时跳过syncrepl的refresh阶段，完整数据由全量同步负责；
+ * 2. 连接断开后自动重连，syncrepl使用最后收到的cookie续传；
+ * 3. 部门改名或移动时只更新当前部门的路径，子部门的路径由下一次全量同步修正。
+ * 4. 部门的嵌套集合（左值、右值和深度）沿用持久化的值，新增的部门在下一次同步之前没有这些值，
+ *    不会出现在按嵌套集合查询的下级部门中，移动的部门在下一次同步之前仍然按原来的位置查询。
+ * </pre>
+ *
+ * @see com.willowleaf.ldapsync.domain.factory.LdapListenerFactory
+ */
+@Slf4j
+public class LdapListener implements Closeable {
+
+    /**
+     * 监听的字典类型，岗位信息在每次连接时全量加载。
+     */
+    private static final Dictionary.Type[] LISTENED_TYPES = {DEPARTMENT, EMPLOYEE};
+
+    /**
+     * 以二进制形式读取的LDAP属性，与JNDI的默认行为保持一致。
+     */
+    private static final Set<String> BINARY_ATTRIBUTES = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        BINARY_ATTRIBUTES.addAll(Arrays.asList("objectGUID", "objectSid", "userPassword",
+                "userCertificate", "jpegPhoto", "photo"));
+    }
+
+    private static final long RECONNECT_DELAY_SECONDS = 10;
+
+    @Getter
+    private final DataSource dataSource;
+    private final Organization.Storage storage;
+    private final DepartmentRepository departmentRepository;
+    private final EmployeeRepository employeeRepository;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * syncrepl的同步状态，key - 字典类型，value - 最后收到的cookie。
+     */
+    private final Map<Dictionary.Type, ASN1OctetString> cookies = new ConcurrentHashMap<>();
+
+    /**
+     * 岗位名称，key - 岗位编号，value - 岗位名称。
+     */
+    private volatile Map<String, String> positionNames = Collections.emptyMap();
+
+    private volatile LDAPConnection connection;
+    private volatile boolean closed;
+
+    public LdapListener(@Nonnull DataSource dataSource,
+                        @Nonnull Organization.Storage storage,
+                        @Nonnull DepartmentRepository departmentRepository,
+                        @Nonnull EmployeeRepository employeeRepository) {
+        this.dataSource = dataSource;
+        this.storage = storage;
+        this.departmentRepository = departmentRepository;
+        this.employeeRepository = employeeRepository;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ldap-listener-" + dataSource.getId());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 开始监听。
+     */
+    public void start() {
+        scheduler.execute(this::connect);
+    }
+
+    /**
+     * 返回是否正在监听。
+     *
+     * @return 是否正在监听
+     */
+    public boolean isConnected() {
+        LDAPConnection connection = this.connection;
+        return !closed && connection != null && connection.isConnected();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        LDAPConnection connection = this.connection;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private synchronized void connect() {
+        if (closed || connection != null) {
+            return;
+        }
+
+        LDAPConnection connection = null;
+        try {
+            positionNames = loadPositionNames();
+            connection = openConnection();
+            RootDSE rootDSE = connection.getRootDSE();
+            boolean syncrepl = rootDSE != null && rootDSE.supportsControl(ContentSyncRequestControl.SYNC_REQUEST_OID);
+            for (Dictionary.Type type : LISTENED_TYPES) {
+                connection.asyncSearch(createSearchRequest(connection, dataSource.getDictionary(type), syncrepl));
+            }
+            this.connection = connection;
+            log.info("{}开始监听LDAP变更[{}]", dataSource.getName(), syncrepl ? "syncrepl" : "persistent search");
+        } catch (Exception e) {
+            log.error("{}监听LDAP变更失败，{}秒后重试。", dataSource.getName(), RECONNECT_DELAY_SECONDS, e);
+            if (connection != null) {
+                connection.close();
+            }
+            scheduleConnect();
+        }
+    }
+
+    /**
+     * 连接断开或查询结束时重新连接，同一个连接只会触发一次重连。
+     */
+    private synchronized void reconnect(@Nonnull LDAPConnection failed) {
+        if (closed || failed != connection) {
+            return;
+        }
+
+        connection = null;
+        scheduler.execute(failed::close);   // 不在连接的读取线程中关闭连接
+        scheduleConnect();
+    }
+
+    private void scheduleConnect() {
+        if (!closed) {
+            scheduler.schedule(this::connect, RECONNECT_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Nonnull
+    private LDAPConnection openConnection() throws LDAPException, GeneralSecurityException {
+        LDAPURL url = new LDAPURL(dataSource.getUrl().trim().split("\\s+")[0]);
+        SocketFactory socketFactory = "ldaps".equalsIgnoreCase(url.getScheme())
+                ? new SSLUtil().createSSLSocketFactory() : null;
+        LDAPConnectionOptions options = new LDAPConnectionOptions();
+        options.setUseKeepAlive(true);
+        return new LDAPConnection(socketFactory, options, url.getHost(), url.getPort(),
+                dataSource.getUsername(), dataSource.getPassword());
+    }
+
+    @Nonnull
+    private SearchRequest createSearchRequest(@Nonnull LDAPConnection connection,
+                                              @Nonnull Dictionary dictionary,
+                                              boolean syncrepl) throws LDAPException {
+        EntryListener listener = new EntryListener(connection, dictionary, syncrepl);
+        SearchRequest request = new SearchRequest(listener, dictionary.getBase(), SearchScope.SUB,
+                dictionary.getFilter(), dictionary.getAttributeMaps().stream()
+                .map(AttributeMap::getSourceName)
+                .toArray(String[]::new));
+        request.setResponseTimeoutMillis(0L);   // 长连接查询不能超时
+        if (syncrepl) {
+            request.addControl(new ContentSyncRequestControl(true, ContentSyncRequestMode.REFRESH_AND_PERSIST,
+                    cookies.get(dictionary.getType()), false));
+            request.setIntermediateResponseListener(listener);
+        } else {
+            request.addControl(new PersistentSearchRequestControl(
+                    PersistentSearchChangeType.allChangeTypes(), true, true));
+        }
+        return request;
+    }
+
+    @Nonnull
+    private Map<String, String> loadPositionNames() {
+        Dictionary dictionary = dataSource.getDictionary(POSITION);
+        return dataSource.search(dictionary.getBase(), dictionary.getFilter(),
+                dictionary.getAttributeMaps(), Position.class)
+                .stream()
+                .filter(position -> position.getNumber() != null && position.getName() != null)
+                .collect(toMap(Position::getNumber, Position::getName, (name1, name2) -> name1));
+    }
+
+    private void save(@Nonnull Dictionary dictionary, @Nonnull Entry entry) throws LDAPException {
+        if (dictionary.getType() == DEPARTMENT) {
+            saveDepartment(map(dictionary, entry, Department.class));
+        } else {
+            saveEmployee(map(dictionary, entry, Employee.class));
+        }
+    }
+
+    private void remove(@Nonnull Dictionary dictionary, @Nonnull Entry entry) throws LDAPException {
+        if (dictionary.getType() == DEPARTMENT) {
+            removeDepartment(map(dictionary, entry, Department.class).getNumber());
+        } else {
+            removeEmployee(map(dictionary, entry, Employee.class).getUid());
+        }
+    }
+
+    /**
+     * 处理改名事件，RDN变化导致唯一标识变化时移除旧的数据。
+     */
+    private void rename(@Nonnull Dictionary dictionary, @Nonnull Entry entry,
+                        @Nullable String previousDN) throws LDAPException {
+        if (previousDN != null) {
+            Entry previous = new Entry(previousDN);
+            if (dictionary.getType() == DEPARTMENT) {
+                String number = map(dictionary, previous, Department.class).getNumber();
+                if (number != null && !number.equals(map(dictionary, entry, Department.class).getNumber())) {
+                    removeDepartment(number);
+                }
+            } else {
+                String uid = map(dictionary, previous, Employee.class).getUid();
+                if (uid != null && !uid.equals(map(dictionary, entry, Employee.class).getUid())) {
+                    removeEmployee(uid);
+                }
+            }
+        }
+        save(dictionary, entry);
+    }
+
+    /**
+     * 写入部门，嵌套集合的左值、右值和深度由全量同步计算，沿用持久化的值，新增的部门在下一次同步之前没有这些值。
+     */
+    private void saveDepartment(@Nonnull Department department) {
+        Department parent = department.getParentNumber() == null ? null
+                : departmentRepository.findFirstByDataSourceIdAndNumber(dataSource.getId(),
+                department.getParentNumber()).orElse(null);
+        department.buildPaths(parent);
+        if (department.getNumber() != null) {
+            departmentRepository.findFirstByDataSourceIdAndNumber(dataSource.getId(), department.getNumber())
+                    .ifPresent(stored -> {
+                        department.setLft(stored.getLft());
+                        department.setRgt(stored.getRgt());
+                        department.setDepth(stored.getDepth());
+                    });
+        }
+        storage.save(department);
+    }
+
+    private void removeDepartment(@Nullable String number) {
+        if (number == null) {
+            return;
+        }
+        departmentRepository.findFirstByDataSourceIdAndNumber(dataSource.getId(), number)
+                .ifPresent(stored -> {
+                    Department department = new Department();  // 不加载持久化的员工列表
+                    department.setId(stored.getId());
+                    department.setNumber(stored.getNumber());
+                    department.setName(stored.getName());
+                    department.setDataSource(dataSource);
+                    storage.remove(department, null);
+                });
+    }
+
+    private void saveEmployee(@Nonnull Employee employee) {
+        Department department = employee.getDepartmentNumber() == null ? null
+                : departmentRepository.findFirstByDataSourceIdAndNumber(dataSource.getId(),
+                employee.getDepartmentNumber()).orElse(null);
+        if (department == null) {   // 过滤掉没有部门的员工
+            log.warn("{}员工[{}]的部门[{}]不存在，忽略此变更。", dataSource.getName(),
+                    employee.getUid(), employee.getDepartmentNumber());
+            return;
+        }
+
+        employee.setDepartment(department);
+        if (employee.getPositionNumber() != null) {
+            employee.setPositionName(positionNames.get(employee.getPositionNumber()));
+        }
+        storage.save(employee);
+    }
+
+    private void removeEmployee(@Nullable String uid) {
+        if (uid == null) {
+            return;
+        }
+        employeeRepository.findFirstByDataSourceIdAndUid(dataSource.getId(), uid)
+                .ifPresent(storage::remove);
+    }
+
+    /**
+     * 将LDAP条目转换为数据对象，删除事件的条目可能只有DN，此时使用RDN的属性补充。
+     */
+    @Nonnull
+    private <T> T map(@Nonnull Dictionary dictionary, @Nonnull Entry entry, @Nonnull Class<T> clazz)
+            throws LDAPException {
+        Attributes attributes = new BasicAttributes(true);
+        for (Attribute attribute : entry.getAttributes()) {
+            attributes.put(attribute.getBaseName(), BINARY_ATTRIBUTES.contains(attribute.getBaseName())
+                    ? attribute.getValueByteArray() : attribute.getValue());
+        }
+        RDN rdn = entry.getRDN();
+        if (rdn != null) {
+            String[] names = rdn.getAttributeNames();
+            String[] values = rdn.getAttributeValues();
+            for (int i = 0; i < names.length; i++) {
+                if (attributes.get(names[i]) == null) {
+                    attributes.put(names[i], values[i]);
+                }
+            }
+        }
+
+        return dataSource.map(attributes, dictionary.getAttributeMaps(), clazz);
+    }
+
+    /**
+     * 处理单个字典查询返回的变更事件。
+     */
+    private class EntryListener implements AsyncSearchResultListener, IntermediateResponseListener {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient LDAPConnection connection;
+        private final transient Dictionary dictionary;
+        private final boolean syncrepl;
+
+        /**
+         * 首次监听时处于refresh阶段，此阶段返回的是全量数据，不需要处理。
+         */
+        private volatile boolean refreshing;
+
+        EntryListener(@Nonnull LDAPConnection connection, @Nonnull Dictionary dictionary, boolean syncrepl) {
+            this.connection = connection;
+            this.dictionary = dictionary;
+            this.syncrepl = syncrepl;
+            this.refreshing = syncrepl && !cookies.containsKey(dictionary.getType());
+        }
+
+        @Override
+        public void searchEntryReturned(SearchResultEntry entry) {
+            try {
+                if (syncrepl) {
+                    handleSyncState(entry);
+                } else {
+                    handleEntryChange(entry);
+                }
+            } catch (Exception e) {
+                log.error("{}处理LDAP变更失败[{}]", dataSource.getName(), entry.getDN(), e);
+            }
+        }
+
+        private void handleSyncState(SearchResultEntry entry) throws LDAPException {
+            ContentSyncStateControl control = ContentSyncStateControl.get(entry);
+            if (control == null) {
+                return;
+            }
+            if (control.getCookie() != null) {
+                cookies.put(dictionary.getType(), control.getCookie());
+            }
+            if (refreshing) {
+                return;
+            }
+
+            switch (control.getState()) {
+                case ADD:
+                case MODIFY:
+                    save(dictionary, entry);
+                    break;
+                case DELETE:
+                    remove(dictionary, entry);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void handleEntryChange(SearchResultEntry entry) throws LDAPException {
+            EntryChangeNotificationControl control = EntryChangeNotificationControl.get(entry);
+            if (control == null) {
+                return;
+            }
+
+            switch (control.getChangeType()) {
+                case ADD:
+                case MODIFY:
+                    save(dictionary, entry);
+                    break;
+                case DELETE:
+                    remove(dictionary, entry);
+                    break;
+                case MODIFY_DN:
+                    rename(dictionary, entry, control.getPreviousDN());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void intermediateResponseReturned(IntermediateResponse intermediateResponse) {
+            try {
+                ContentSyncInfoIntermediateResponse response =
+                        ContentSyncInfoIntermediateResponse.decode(intermediateResponse);
+                if (response.getCookie() != null) {
+                    cookies.put(dictionary.getType(), response.getCookie());
+                }
+                if (response.refreshDone()) {
+                    refreshing = false;
+                }
+            } catch (LDAPException e) {
+                log.warn("{}无法解析syncrepl的同步信息", dataSource.getName(), e);
+            }
+        }
+
+        @Override
+        public void searchReferenceReturned(SearchResultReference searchReference) {
+        }
+
+        @Override
+        public void searchResultReceived(AsyncRequestID requestID, SearchResult searchResult) {
+            if (!closed) {
+                log.warn("{}的{}变更监听已结束[{}]，准备重新连接。", dataSource.getName(),
+                        dictionary, searchResult.getResultCode());
+            }
+            reconnect(connection);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.willowleaf.ldapsync.domain.mapping;
+
+import com.willowleaf.ldapsync.domain.AttributeMap;
+import com.willowleaf.ldapsync.domain.DataSource;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.util.ClassUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * <pre>
+ * 预编译的属性映射器。
+ *
+ * 在同步开始时将字典的属性映射编译一次：使用LambdaMetafactory生成构造函数和setter的调用，
+ * 并根据目标字段的类型确定类型转换方式，每个LDAP条目的转换过程不再使用反射。
+ * 数据对象的dataSource字段在转换时一并设置。
+ * </pre>
+ *
+ * @param <T> 结果数据类型
+ */
+@Slf4j
+public class CompiledAttributesMapper<T> implements AttributesMapper<T> {
+
+    private static final ConversionService CONVERSION_SERVICE = DefaultConversionService.getSharedInstance();
+
+    @Getter
+    private final Class<T> type;
+    private final Supplier<T> constructor;
+    private final String[] sourceNames;
+    private final Function<Object, Object>[] converters;
+    private final BiConsumer<Object, Object>[] setters;
+    @Nullable
+    private final BiConsumer<Object, Object> dataSourceSetter;
+    private final DataSource dataSource;
+
+    @SuppressWarnings("unchecked")
+    private CompiledAttributesMapper(@Nonnull Class<T> type, @Nonnull List<AttributeMap> attributeMaps,
+                                     @Nonnull DataSource dataSource,
+                                     @Nonnull Map<String, DateTimeFormatter[]> dateTimeFormatters) {
+        this.type = type;
+        this.dataSource = dataSource;
+        this.constructor = compileConstructor(type);
+        this.sourceNames = new String[attributeMaps.size()];
+        this.converters = new Function[attributeMaps.size()];
+        this.setters = new BiConsumer[attributeMaps.size()];
+        for (int i = 0; i < attributeMaps.size(); i++) {
+            AttributeMap attributeMap = attributeMaps.get(i);
+            PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, attributeMap.getTargetName());
+            if (descriptor == null || descriptor.getWriteMethod() == null) {
+                throw new IllegalArgumentException(String.format("属性映射[%s]的目标字段在%s中不存在",
+                        attributeMap, type.getSimpleName()));
+            }
+            sourceNames[i] = attributeMap.getSourceName();
+            converters[i] = compileConverter(descriptor.getPropertyType(),
+                    dateTimeFormatters.get(attributeMap.getSourceName()));
+            setters[i] = compileSetter(type, descriptor.getWriteMethod());
+        }
+
+        PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, "dataSource");
+        this.dataSourceSetter = descriptor == null || descriptor.getWriteMethod() == null
+                || descriptor.getPropertyType() != DataSource.class
+                ? null : compileSetter(type, descriptor.getWriteMethod());
+    }
+
+    /**
+     * 编译属性映射器。
+     *
+     * @param type               结果数据类型的Class对象
+     * @param attributeMaps      属性映射
+     * @param dataSource         数据源
+     * @param dateTimeFormatters 日期字段的日期格式
+     * @param <T>                结果数据类型
+     * @return 属性映射器
+     */
+    public static <T> CompiledAttributesMapper<T> compile(@Nonnull Class<T> type,
+                                                          @Nonnull List<AttributeMap> attributeMaps,
+                                                          @Nonnull DataSource dataSource,
+                                                          @Nonnull Map<String, DateTimeFormatter[]> dateTimeFormatters) {
+        return new CompiledAttributesMapper<>(type, attributeMaps, dataSource, dateTimeFormatters);
+    }
+
+    @Override
+    public T mapFromAttributes(Attributes attributes) throws NamingException {
+        T model = constructor.get();
+        for (int i = 0; i < sourceNames.length; i++) {
+            Attribute attribute = attributes.get(sourceNames[i]);
+            Object value = attribute == null ? null : attribute.get();
+            setters[i].accept(model, value == null ? null : converters[i].apply(value));
+        }
+        if (dataSourceSetter != null) {
+            dataSourceSetter.accept(model, dataSource);
+        }
+        return model;   // Never be null.
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Supplier<T> compileConstructor(@Nonnull Class<T> type) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.findConstructor(type, methodType(void.class));
+            return (Supplier<T>) LambdaMetafactory.metafactory(lookup, "get",
+                    methodType(Supplier.class), methodType(Object.class), handle, methodType(type))
+                    .getTarget()
+                    .invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalArgumentException(type.getName() + "没有可访问的无参构造函数", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> compileSetter(@Nonnull Class<?> type, @Nonnull Method method) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.unreflect(method);
+            if (method.getReturnType() == void.class) {
+                Class<?> parameterType = ClassUtils.resolvePrimitiveIfNecessary(method.getParameterTypes()[0]);
+                return (BiConsumer<Object, Object>) LambdaMetafactory.metafactory(lookup, "accept",
+                        methodType(BiConsumer.class), methodType(void.class, Object.class, Object.class),
+                        handle, methodType(void.class, type, parameterType))
+                        .getTarget()
+                        .invokeExact();
+            }
+
+            // 链式setter无法生成BiConsumer，退化为MethodHandle调用
+            MethodHandle setter = handle.asType(methodType(void.class, Object.class, Object.class));
+            return (model, value) -> {
+                try {
+                    setter.invokeExact(model, value);
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+        } catch (Throwable e) {
+            throw new IllegalArgumentException(method + "无法访问", e);
+        }
+    }
+
+    /**
+     * 根据目标字段的类型确定类型转换方式。
+     */
+    @Nonnull
+    private static Function<Object, Object> compileConverter(@Nonnull Class<?> propertyType,
+                                                             @Nullable DateTimeFormatter[] formatters) {
+        Class<?> targetType = ClassUtils.resolvePrimitiveIfNecessary(propertyType);
+        if (formatters != null && formatters.length > 0) {  // 需要处理日期格式的字段
+            return value -> parseDateTime(value.toString(), formatters);
+        }
+        if (targetType == String.class) {
+            return value -> value instanceof byte[]
+                    ? new String((byte[]) value, StandardCharsets.UTF_8) : value.toString();
+        }
+        if (targetType == byte[].class) {
+            return value -> value instanceof byte[]
+                    ? value : value.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        if (targetType == Integer.class) {
+            return value -> value instanceof Integer ? value : Integer.valueOf(value.toString().trim());
+        }
+        if (targetType == Long.class) {
+            return value -> value instanceof Long ? value : Long.valueOf(value.toString().trim());
+        }
+        if (targetType == LocalDateTime.class) {
+            return value -> value instanceof LocalDateTime ? value : LocalDateTime.parse(value.toString());
+        }
+        return value -> targetType.isInstance(value) ? value : CONVERSION_SERVICE.convert(value, targetType);
+    }
+
+    @Nonnull
+    private static LocalDateTime parseDateTime(@Nonnull String value, @Nonnull DateTimeFormatter[] formatters) {
+        for (int i = 0; ; i++) {
+            try {
+                return LocalDateTime.parse(value, formatters[i]);
+            } catch (DateTimeParseException e) {
+                if (i == formatters.length - 1) {   // 未找到合适的日期格式
+                    log.error("日期格式不合法[{}]，请添加合适的日期格式配置。", value);
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -1,45 +1,569 @@
 package com.willowleaf.ldapsync.domain.persistence;
 
+import com.willowleaf.ldapsync.config.CompositeStorageProperties;
+import com.willowleaf.ldapsync.config.ElasticsearchStorageProperties;
+import com.willowleaf.ldapsync.config.JdbcStorageProperties;
+import com.willowleaf.ldapsync.config.SweepProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
 import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import com.willowleaf.ldapsync.domain.LdapPorter;
 import com.willowleaf.ldapsync.domain.Organization;
+import com.willowleaf.ldapsync.domain.directory.DirectoryCache;
+import com.willowleaf.ldapsync.domain.directory.OrganizationDirectory;
+import com.willowleaf.ldapsync.domain.executor.IoExecutor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 
+/**
+ * <pre>
+ * 同时持久化组织架构数据到数据库和Elasticsearch。
+ *
+ * 每次写入同时提交给两个存储（{@link StorageSink}），各自在独立的有界线程池中写入并重试，
+ * 等待两者都完成后返回，耗时约为较慢的存储的耗时。一个存储写入失败不会删除另一个存储中的数据，
+ * 也不会中断同步，失败的数据在同步结束时按存储汇总报告，有失败数据时同步失败。
+ * 开启本地预写日志时Elasticsearch的数据先写入日志（{@link JournalStorage}）。
+ *
+ * 写入的部门和员工都标记本次同步的代数（同步开始的毫秒时间戳，不在同步过程中的写入使用当前时间），
+ * 开启删除（storage.sweep.enabled）且全量同步成功、没有失败数据时，依次删除每个存储中代数更小的数据，
+ * 即已经从LDAP中消失的部门和员工。
+ * 同步失败、有数据写入失败或者本次同步没有写入任何数据时不删除。
+ *
+ * 写入的部门和员工同时计算内容哈希（{@link ContentHasher}）。全量同步开始时读取数据库中已有数据的内容哈希，
+ * 内容哈希没有变化的部门和员工不再写入任何存储，这些数据保留原来的代数，因此同步结束时只删除本次同步没有出现过的数据。
+ * 同步失败或者有数据写入失败时清除本次同步写入的数据的内容哈希，下次全量同步时重新写入。
+ * 内容有变化的数据与数据库中已有的数据比较（{@link FieldDiffer}），只更新发生变化的字段。
+ *
+ * 开启快照时，全量同步成功后将本次同步的所有部门和员工（包括没有变化的数据）写入快照（{@link SnapshotStore}）。
+ * 同步成功后同时替换内存中的组织架构目录（{@link DirectoryCache}）。有数据写入失败时不写入快照也不替换目录，
+ * 避免快照和目录（包括发布到Redis的目录）包含存储中没有的数据。
+ * 开启闭包表时，同步成功并删除过期数据后重新生成部门闭包表（{@link DepartmentClosure}）。
+ * </pre>
+ *
+ * @see CompositeStorageProperties
+ */
 @Slf4j
 @Component
+@EnableConfigurationProperties(CompositeStorageProperties.class)
 public class CompositeStorage implements Organization.Storage {
 
-    private final DatabaseStorage databaseStorage;
-    private final ElasticsearchStorage elasticsearchStorage;
+    private final Organization.Storage databaseStorage;
+    private final Organization.Storage elasticsearchStorage;
+    private final List<StorageSink> sinks;
+    private final SweepProperties sweepProperties;
+    private final ContentHashes contentHashes;
+    private final FieldDiffer fieldDiffer;
+    private final SnapshotStore snapshotStore;
+    private final DirectoryCache directoryCache;
+    private final DepartmentClosure departmentClosure;
+    private final boolean skipUnchanged;
+    private final boolean partialUpdates;
+    private final boolean closureTable;
+
+    /**
+     * 数据库是否批量写入。
+     */
+    private final boolean batch;
+
+    /**
+     * 正在同步的数据源，key为数据源ID。
+     */
+    private final Map<Integer, Sync> syncs = new ConcurrentHashMap<>();
 
     public CompositeStorage(DatabaseStorage databaseStorage,
-                            ElasticsearchStorage elasticsearchStorage) {
-        this.databaseStorage = databaseStorage;
-        this.elasticsearchStorage = elasticsearchStorage;
+                            JdbcStorage jdbcStorage,
+                            JdbcStorageProperties jdbcStorageProperties,
+                            ElasticsearchStorage elasticsearchStorage,
+                            JournalStorage journalStorage,
+                            ElasticsearchStorageProperties elasticsearchStorageProperties,
+                            CompositeStorageProperties properties,
+                            SweepProperties sweepProperties,
+                            ContentHashes contentHashes,
+                            FieldDiffer fieldDiffer,
+                            SnapshotStore snapshotStore,
+                            DirectoryCache directoryCache,
+                            DepartmentClosure departmentClosure) {
+        this.sweepProperties = sweepProperties;
+        this.contentHashes = contentHashes;
+        this.fieldDiffer = fieldDiffer;
+        this.snapshotStore = snapshotStore;
+        this.directoryCache = directoryCache;
+        this.departmentClosure = departmentClosure;
+        this.skipUnchanged = properties.isSkipUnchanged();
+        this.partialUpdates = properties.isPartialUpdates();
+        this.closureTable = properties.isClosureTable();
+        this.batch = jdbcStorageProperties.isEnabled();
+        this.databaseStorage = batch ? jdbcStorage : databaseStorage;
+        this.elasticsearchStorage = elasticsearchStorageProperties.getJournal().isEnabled()
+                ? journalStorage : elasticsearchStorage;
+        this.sinks = Arrays.asList(
+                new StorageSink("database", this.databaseStorage, properties.getDatabase()),
+                new StorageSink("elasticsearch", this.elasticsearchStorage, properties.getElasticsearch()));
     }
 
+    /**
+     * 开始所有存储的同步，一个存储无法开始时结束已经开始的存储并抛出异常。
+     */
     @Override
-    public void save(@Nonnull final Department department) {
+    public void begin(@Nonnull DataSource dataSource, @Nonnull LdapPorter.Mode mode) {
+        if (mode == LdapPorter.Mode.REBUILD && !batch) {
+            log.warn("没有开启storage.jdbc，数据源[{}]的数据库使用全量同步代替全量重建", dataSource.getName());
+        }
+
+        long generation = System.currentTimeMillis();
+        syncs.put(dataSource.getId(), new Sync(mode, generation, skipUnchanged && mode == LdapPorter.Mode.FULL
+                ? contentHashes.load(dataSource) : null, snapshotStore.begin(mode), directoryCache.begin(generation)));
+        List<StorageSink> begun = new ArrayList<>(sinks.size());
         try {
-            databaseStorage.save(department);
-            elasticsearchStorage.save(department);
-        } catch (Exception e) {
-            remove(department, e);
+            for (StorageSink sink : sinks) {
+                sink.begin(dataSource, mode);
+                begun.add(sink);
+            }
+        } catch (RuntimeException e) {
+            syncs.remove(dataSource.getId());
+            for (StorageSink sink : begun) {
+                try {
+                    sink.end(dataSource, false);
+                } catch (RuntimeException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
             throw e;
         }
     }
 
+    /**
+     * 结束所有存储的同步并报告每个存储写入失败的数据，全量同步成功时删除过期数据。
+     */
+    @Override
+    public void end(@Nonnull DataSource dataSource, boolean succeeded) {
+        Sync sync = syncs.remove(dataSource.getId());
+        RuntimeException failure = null;
+        List<String> failedSinks = new ArrayList<>();
+        for (StorageSink sink : sinks) {
+            try {
+                StorageSink.DeadLetters deadLetters = sink.end(dataSource, succeeded);
+                if (deadLetters.getCount() > 0) {
+                    failedSinks.add(sink.getName() + ": " + deadLetters.getCount());
+                    log.error("数据源[{}]有{}条数据写入[{}]失败: \n{}", dataSource.getName(), deadLetters.getCount(),
+                            sink.getName(), String.join("\n", deadLetters.getLetters()));
+                }
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        if (sync != null && (!succeeded || failure != null || !failedSinks.isEmpty())) {
+            invalidate(dataSource, sync);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (succeeded && !failedSinks.isEmpty()) {
+            throw new IllegalStateException(String.format("数据源[%s]有数据持久化失败%s",
+                    dataSource.getName(), failedSinks));
+        }
+        if (succeeded && sync != null && sync.snapshot != null) {
+            writeSnapshot(dataSource, sync);
+        }
+        if (succeeded && sync != null && sync.directory != null) {
+            directoryCache.swap(dataSource, sync.mode, sync.directory);
+        }
+        if (succeeded && sync != null) {
+            sweep(dataSource, sync);
+        }
+        if (succeeded && closureTable) {
+            rebuildClosure(dataSource);
+        }
+    }
+
+    @Override
+    public void save(@Nonnull final Department department) {
+        Sync sync = mark(singletonList(department));
+        if (sync == null || sync.fingerprints == null) {
+            write(department.getDataSource(), describe(department), storage -> storage.save(department));
+            return;
+        }
+
+        Department changed = sync.fingerprints.isChanged(department) ? withoutEmployees(department) : null;
+        List<Employee> changedEmployees = filter(sync, department.getEmployees());
+        if (changed == null && changedEmployees.isEmpty()) {
+            return;
+        }
+        diff(changed == null ? emptyList() : singletonList(changed), changedEmployees);
+        write(department.getDataSource(), describe(department), storage -> {
+            if (changed != null) {
+                storage.save(changed);
+            }
+            if (!changedEmployees.isEmpty()) {
+                storage.save(changedEmployees);
+            }
+        });
+    }
+
+    /**
+     * 使用JDBC批量写入时，所有部门作为一个整体分别写入数据库和Elasticsearch。
+     */
+    @Override
+    public void save(@Nonnull final List<Department> departments, @Nonnull IoExecutor executor) {
+        if (!batch) {
+            Organization.Storage.super.save(departments, executor);
+            return;
+        }
+        if (departments.isEmpty()) {
+            return;
+        }
+
+        Sync sync = mark(departments);
+        if (sync == null || sync.fingerprints == null) {
+            write(departments.get(0).getDataSource(), departments.size() + "个部门",
+                    storage -> storage.save(departments, executor));
+            return;
+        }
+
+        List<Department> changed = new ArrayList<>();
+        List<Employee> changedEmployees = new ArrayList<>();
+        for (Department department : departments) {
+            if (sync.fingerprints.isChanged(department)) {
+                changed.add(withoutEmployees(department));
+            }
+            changedEmployees.addAll(filter(sync, department.getEmployees()));
+        }
+        if (changed.isEmpty() && changedEmployees.isEmpty()) {
+            return;
+        }
+        diff(changed, changedEmployees);
+        write(departments.get(0).getDataSource(), changed.size() + "个部门和" + changedEmployees.size() + "个员工",
+                storage -> {
+                    if (!changed.isEmpty()) {
+                        storage.save(changed, executor);
+                    }
+                    if (!changedEmployees.isEmpty()) {
+                        storage.save(changedEmployees);
+                    }
+                });
+    }
+
     @Override
     public void remove(@Nonnull Department department, Exception e) {
         databaseStorage.remove(department, e);
         elasticsearchStorage.remove(department, e);
+        if (e == null) {
+            return;
+        }
 
         log.error("持久化错误! \n部门: {}[{}], 员工数: {}, \n员工列表: {}", department.getName(),
                 department.getId(), department.getEmployees().size(), department.getEmployees().stream()
                 .map(employee -> employee.getName() + "[" + employee.getId() + "]").collect(toList()), e);
     }
+
+    @Override
+    public void save(@Nonnull final Employee employee) {
+        Sync sync = markEmployees(singletonList(employee));
+        if (sync != null && sync.fingerprints != null) {
+            if (!sync.fingerprints.isChanged(employee)) {
+                return;
+            }
+            diff(emptyList(), singletonList(employee));
+        }
+        write(employee.getDataSource(), describe(employee), storage -> storage.save(employee));
+    }
+
+    @Override
+    public void save(@Nonnull final List<Employee> employees) {
+        if (employees.isEmpty()) {
+            return;
+        }
+
+        Sync sync = markEmployees(employees);
+        if (sync == null || sync.fingerprints == null) {
+            write(employees.get(0).getDataSource(), employees.size() + "个员工", storage -> storage.save(employees));
+            return;
+        }
+
+        List<Employee> changed = filter(sync, employees);
+        if (changed.isEmpty()) {
+            return;
+        }
+        diff(emptyList(), changed);
+        write(employees.get(0).getDataSource(), changed.size() + "个员工", storage -> storage.save(changed));
+    }
+
+    @Override
+    public void remove(@Nonnull final Employee employee) {
+        databaseStorage.remove(employee);
+        elasticsearchStorage.remove(employee);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        sinks.forEach(StorageSink::close);
+    }
+
+    /**
+     * 依次删除每个存储中代数小于本次同步的数据，跳过没有变化的数据时只删除本次同步没有出现过的数据。
+     */
+    private void sweep(@Nonnull DataSource dataSource, @Nonnull Sync sync) {
+        if (!sweepProperties.isEnabled() || sync.mode == LdapPorter.Mode.DELTA) {
+            return;
+        }
+        if (sync.seen.get() == 0) {
+            log.warn("数据源[{}]本次同步没有写入任何数据，不删除过期数据", dataSource.getName());
+            return;
+        }
+
+        if (sync.fingerprints == null) {
+            for (Organization.Storage storage : Arrays.asList(databaseStorage, elasticsearchStorage)) {
+                storage.sweep(dataSource, sync.generation);
+            }
+            return;
+        }
+
+        List<Department> departments = sync.fingerprints.getUnseenDepartments(dataSource);
+        List<Employee> employees = sync.fingerprints.getUnseenEmployees(dataSource);
+        if (departments.isEmpty() && employees.isEmpty()) {
+            return;
+        }
+        for (Organization.Storage storage : Arrays.asList(databaseStorage, elasticsearchStorage)) {
+            storage.sweep(dataSource, sync.generation, departments, employees);
+        }
+    }
+
+    /**
+     * 写入本次同步的快照，写入失败时只记录日志，不影响同步的结果。
+     */
+    private void writeSnapshot(@Nonnull DataSource dataSource, @Nonnull Sync sync) {
+        try {
+            snapshotStore.write(dataSource, sync.generation, sync.snapshot);
+        } catch (IOException | RuntimeException e) {
+            log.error("数据源[{}]写入快照失败", dataSource.getName(), e);
+        }
+    }
+
+    /**
+     * 重新生成部门闭包表，生成失败时只记录日志，不影响同步的结果。
+     */
+    private void rebuildClosure(@Nonnull DataSource dataSource) {
+        try {
+            departmentClosure.rebuild(dataSource);
+        } catch (RuntimeException e) {
+            log.error("数据源[{}]生成部门闭包表失败", dataSource.getName(), e);
+        }
+    }
+
+    /**
+     * 清除本次同步写入的数据的内容哈希，清除失败时只记录日志，不影响同步的结果。
+     */
+    private void invalidate(@Nonnull DataSource dataSource, @Nonnull Sync sync) {
+        if (sync.fingerprints == null) {
+            return;
+        }
+        try {
+            contentHashes.invalidate(dataSource, sync.generation);
+        } catch (RuntimeException e) {
+            log.error("清除数据源[{}]的内容哈希失败，下次全量同步可能跳过没有写入成功的数据", dataSource.getName(), e);
+        }
+    }
+
+    /**
+     * 标记部门及其员工的代数和内容哈希。
+     *
+     * @return 部门所属数据源正在进行的同步，不在同步过程中时返回null
+     */
+    private Sync mark(@Nonnull List<Department> departments) {
+        if (departments.isEmpty()) {
+            return null;
+        }
+
+        Sync sync = getSync(departments.get(0).getDataSource());
+        long generation = sync == null ? System.currentTimeMillis() : sync.generation;
+        for (Department department : departments) {
+            department.setGeneration(generation);
+            department.setContentHash(ContentHasher.hash(department));
+            department.getEmployees().forEach(employee -> {
+                employee.setGeneration(generation);
+                employee.setContentHash(ContentHasher.hash(employee));
+            });
+        }
+        if (sync != null) {
+            sync.seen.addAndGet(departments.size());
+            if (sync.snapshot != null) {
+                for (Department department : departments) {
+                    sync.snapshot.add(department);
+                    department.getEmployees().forEach(sync.snapshot::add);
+                }
+            }
+            if (sync.directory != null) {
+                sync.directory.addAll(departments);
+            }
+        }
+        return sync;
+    }
+
+    private Sync markEmployees(@Nonnull List<Employee> employees) {
+        if (employees.isEmpty()) {
+            return null;
+        }
+
+        Sync sync = getSync(employees.get(0).getDataSource());
+        long generation = sync == null ? System.currentTimeMillis() : sync.generation;
+        employees.forEach(employee -> {
+            employee.setGeneration(generation);
+            employee.setContentHash(ContentHasher.hash(employee));
+        });
+        if (sync != null) {
+            sync.seen.addAndGet(employees.size());
+            if (sync.snapshot != null) {
+                employees.forEach(sync.snapshot::add);
+            }
+            if (sync.directory != null) {
+                employees.forEach(sync.directory::add);
+            }
+        }
+        return sync;
+    }
+
+    /**
+     * 标记内容有变化的部门和员工中发生变化的字段。
+     */
+    private void diff(@Nonnull List<Department> departments, @Nonnull List<Employee> employees) {
+        if (!partialUpdates) {
+            return;
+        }
+        if (!departments.isEmpty()) {
+            fieldDiffer.diffDepartments(departments);
+        }
+        if (!employees.isEmpty()) {
+            fieldDiffer.diffEmployees(employees);
+        }
+    }
+
+    /**
+     * 返回内容有变化的员工。
+     */
+    @Nonnull
+    private static List<Employee> filter(@Nonnull Sync sync, @Nonnull List<Employee> employees) {
+        return employees.stream().filter(sync.fingerprints::isChanged).collect(toList());
+    }
+
+    /**
+     * 复制部门但不包括员工，部门没有变化的员工不再写入。
+     */
+    @Nonnull
+    private static Department withoutEmployees(@Nonnull Department department) {
+        Department copy = new Department();
+        BeanUtils.copyProperties(department, copy, "employees");
+        return copy;
+    }
+
+    private Sync getSync(DataSource dataSource) {
+        return dataSource == null ? null : syncs.get(dataSource.getId());
+    }
+
+    /**
+     * 同时写入所有存储并等待全部完成。
+     */
+    private void write(DataSource dataSource, @Nonnull String description,
+                       @Nonnull Consumer<Organization.Storage> write) {
+        List<Future<?>> futures = sinks.stream()
+                .map(sink -> sink.submit(dataSource, description, write))
+                .collect(toList());
+
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                RuntimeException cause = e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause() : new CompletionException(e.getCause());
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            } catch (InterruptedException e) {
+                futures.forEach(other -> other.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new CancellationException("等待持久化" + description + "时被中断");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static String describe(@Nonnull Department department) {
+        return "部门" + department.getName() + "[" + department.getNumber() + "]";
+    }
+
+    private static String describe(@Nonnull Employee employee) {
+        return "员工" + employee.getName() + "[" + employee.getUid() + "]";
+    }
+
+    /**
+     * 一个数据源的一次同步。
+     */
+    private static class Sync {
+
+        private final LdapPorter.Mode mode;
+
+        /**
+         * 本次同步的代数。
+         */
+        private final long generation;
+
+        /**
+         * 本次同步的部门和员工数（包括内容没有变化而跳过的数据）。
+         */
+        private final AtomicLong seen = new AtomicLong();
+
+        /**
+         * 数据库中已有数据的内容哈希，不跳过没有变化的数据时为null。
+         */
+        private final ContentHashes.Fingerprints fingerprints;
+
+        /**
+         * 本次同步的快照，不写入快照时为null。
+         */
+        private final Snapshot.Writer snapshot;
+
+        /**
+         * 本次同步的目录，不构建目录时为null。
+         */
+        private final OrganizationDirectory.Builder directory;
+
+        private Sync(@Nonnull LdapPorter.Mode mode, long generation, ContentHashes.Fingerprints fingerprints,
+                     Snapshot.Writer snapshot, OrganizationDirectory.Builder directory) {
+            this.mode = mode;
+            this.generation = generation;
+            this.fingerprints = fingerprints;
+            this.snapshot = snapshot;
+            this.directory = directory;
+        }
+    }
 }
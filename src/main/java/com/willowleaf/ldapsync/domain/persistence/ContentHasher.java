@@ -0,0 +1,107 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.annotation.Ignore;
+import com.willowleaf.ldapsync.annotation.Metadata;
+import lombok.SneakyThrows;
+
+import javax.annotation.Nonnull;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <pre>
+ * 计算数据对象持久化字段的内容哈希（64位FNV-1a）。
+ *
+ * 参与计算的字段与{@link DocumentSerializer}相同，但不包括{@link Metadata}注解的字段。
+ * 每个字段按名称、类型标记、值的顺序参与计算，null值只有类型标记，字符串按UTF-16代码单元计算，
+ * 因此哈希值与JVM和默认字符集无关，可以保存在数据库中与下次同步的数据比较。
+ * </pre>
+ */
+final class ContentHasher {
+
+    private static final Map<Class<?>, ContentHasher> HASHERS = new ConcurrentHashMap<>();
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int BYTES = 2;
+    private static final int OTHER = 3;
+
+    private final String[] names;
+    private final MethodHandle[] getters;
+
+    @SneakyThrows
+    private ContentHasher(@Nonnull Class<?> clazz) {
+        List<String> names = new ArrayList<>();
+        List<MethodHandle> getters = new ArrayList<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers())
+                    && field.getDeclaredAnnotation(Ignore.class) == null
+                    && field.getDeclaredAnnotation(Metadata.class) == null) {
+                field.setAccessible(true);
+                names.add(field.getName());
+                getters.add(MethodHandles.lookup().unreflectGetter(field));
+            }
+        }
+        this.names = names.toArray(new String[0]);
+        this.getters = getters.toArray(new MethodHandle[0]);
+    }
+
+    /**
+     * 返回数据对象的内容哈希。
+     */
+    @SneakyThrows
+    static long hash(@Nonnull Object object) {
+        ContentHasher hasher = HASHERS.computeIfAbsent(object.getClass(), ContentHasher::new);
+        long hash = OFFSET_BASIS;
+        for (int i = 0; i < hasher.getters.length; i++) {
+            hash = update(hash, hasher.names[i]);
+            Object value = hasher.getters[i].invoke(object);
+            if (value == null) {
+                hash = update(hash, NULL);
+            } else if (value instanceof String) {
+                hash = update(update(hash, STRING), (String) value);
+            } else if (value instanceof byte[]) {
+                hash = update(hash, BYTES);
+                for (byte b : (byte[]) value) {
+                    hash = update(hash, b);
+                }
+                hash = updateInt(hash, ((byte[]) value).length);
+            } else {
+                hash = update(update(hash, OTHER), value.toString());
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 字符串之后加入长度，避免相邻字段的内容拼接后相同。
+     */
+    private static long update(long hash, @Nonnull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = update(hash, c >>> 8);
+            hash = update(hash, c);
+        }
+        return updateInt(hash, value.length());
+    }
+
+    private static long updateInt(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash = update(hash, value >>> shift);
+        }
+        return hash;
+    }
+
+    private static long update(long hash, int b) {
+        return (hash ^ (b & 0xff)) * PRIME;
+    }
+}
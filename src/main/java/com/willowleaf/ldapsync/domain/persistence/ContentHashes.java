@@ -0,0 +1,182 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * <pre>
+ * 读取和失效数据库中保存的内容哈希。
+ *
+ * 全量同步开始时使用流式查询一次性读取数据源所有部门和员工的ID，LDAP唯一标识（部门编号，员工uid）和内容哈希，
+ * 同步过程中与新数据的内容哈希比较，跳过没有变化的数据。同步结束时没有出现过的数据就是已经从LDAP中消失的数据。
+ * </pre>
+ *
+ * @see ContentHasher
+ */
+@Slf4j
+@Component
+public class ContentHashes {
+
+    private static final String DEPARTMENTS = "select id, number, content_hash from department where data_source_id = ?";
+    private static final String EMPLOYEES = "select id, uid, content_hash from employee where data_source_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TableLock tableLock;
+
+    public ContentHashes(JdbcTemplate jdbcTemplate, TableLock tableLock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tableLock = tableLock;
+    }
+
+    /**
+     * 读取数据源所有部门和员工的内容哈希。
+     */
+    @Nonnull
+    Fingerprints load(@Nonnull DataSource dataSource) {
+        Fingerprints fingerprints = new Fingerprints();
+        query(DEPARTMENTS, dataSource, fingerprints.departments::put);
+        query(EMPLOYEES, dataSource, fingerprints.employees::put);
+        log.info("数据源[{}]读取了{}个部门和{}个员工的内容哈希", dataSource.getName(),
+                fingerprints.departments.size(), fingerprints.employees.size());
+        return fingerprints;
+    }
+
+    /**
+     * <pre>
+     * 清除本次同步写入的数据的内容哈希。
+     * 同步失败或者有数据写入失败时，其它存储中的数据可能与数据库不一致，下次同步时需要重新写入。
+     * </pre>
+     */
+    void invalidate(@Nonnull DataSource dataSource, long generation) {
+        tableLock.shared(() -> {
+            for (String table : new String[]{"employee", "department"}) {
+                jdbcTemplate.update("update " + table + " set content_hash = null where data_source_id = ? "
+                        + "and generation = ?", dataSource.getId(), generation);
+            }
+        });
+    }
+
+    /**
+     * 清除一个部门的内容哈希，下次全量同步时重新写入。
+     */
+    void invalidateDepartment(int dataSourceId, @Nonnull String number) {
+        tableLock.shared(() -> jdbcTemplate.update(
+                "update department set content_hash = null where data_source_id = ? and number = ?",
+                dataSourceId, number));
+    }
+
+    /**
+     * 清除一个员工的内容哈希，下次全量同步时重新写入。
+     */
+    void invalidateEmployee(int dataSourceId, @Nonnull String uid) {
+        tableLock.shared(() -> jdbcTemplate.update(
+                "update employee set content_hash = null where data_source_id = ? and uid = ?",
+                dataSourceId, uid));
+    }
+
+    /**
+     * 使用流式查询读取数据，MySQL驱动只有在fetchSize为Integer.MIN_VALUE时才不会将结果全部读入内存。
+     */
+    private void query(@Nonnull String sql, @Nonnull DataSource dataSource,
+                       @Nonnull BiConsumer<String, Fingerprint> consumer) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            String product = connection.getMetaData().getDatabaseProductName();
+            statement.setFetchSize("MySQL".equals(product) || "MariaDB".equals(product) ? Integer.MIN_VALUE : 1000);
+            statement.setInt(1, dataSource.getId());
+            return statement;
+        }, (RowCallbackHandler) resultSet -> {
+            String id = resultSet.getString(1);
+            String key = resultSet.getString(2);
+            long hash = resultSet.getLong(3);
+            consumer.accept(id, new Fingerprint(key, resultSet.wasNull() ? null : hash));
+        });
+    }
+
+    /**
+     * 数据库中一行数据的LDAP唯一标识和内容哈希。
+     */
+    private static class Fingerprint {
+
+        private final String key;
+        private final Long hash;
+
+        private Fingerprint(String key, Long hash) {
+            this.key = key;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * 一次同步中数据库已有数据的内容哈希，key为数据的ID，比较过的数据从中移除。
+     */
+    static class Fingerprints {
+
+        private final Map<String, Fingerprint> departments = new ConcurrentHashMap<>();
+        private final Map<String, Fingerprint> employees = new ConcurrentHashMap<>();
+
+        /**
+         * 返回部门的内容是否变化（包括新增的部门）。
+         */
+        boolean isChanged(@Nonnull Department department) {
+            Fingerprint fingerprint = department.getId() == null ? null : departments.remove(department.getId());
+            return fingerprint == null || !Objects.equals(fingerprint.hash, department.getContentHash());
+        }
+
+        /**
+         * 返回员工的内容是否变化（包括新增的员工）。
+         */
+        boolean isChanged(@Nonnull Employee employee) {
+            Fingerprint fingerprint = employee.getId() == null ? null : employees.remove(employee.getId());
+            return fingerprint == null || !Objects.equals(fingerprint.hash, employee.getContentHash());
+        }
+
+        /**
+         * 返回本次同步没有出现过的部门，只包含ID，编号和数据源。
+         */
+        @Nonnull
+        List<Department> getUnseenDepartments(@Nonnull DataSource dataSource) {
+            List<Department> unseen = new ArrayList<>(departments.size());
+            departments.forEach((id, fingerprint) -> {
+                Department department = new Department();
+                department.setId(id);
+                department.setNumber(fingerprint.key);
+                department.setDataSource(dataSource);
+                unseen.add(department);
+            });
+            return unseen;
+        }
+
+        /**
+         * 返回本次同步没有出现过的员工，只包含ID，uid和数据源。
+         */
+        @Nonnull
+        List<Employee> getUnseenEmployees(@Nonnull DataSource dataSource) {
+            List<Employee> unseen = new ArrayList<>(employees.size());
+            employees.forEach((id, fingerprint) -> {
+                Employee employee = new Employee();
+                employee.setId(id);
+                employee.setUid(fingerprint.key);
+                employee.setDataSource(dataSource);
+                unseen.add(employee);
+            });
+            return unseen;
+        }
+    }
+}
@@ -2,22 +2,28 @@ package com.willowleaf.ldapsync.domain.persistence;
 
 import com.willowleaf.ldapsync.data.DepartmentRepository;
 import com.willowleaf.ldapsync.data.EmployeeRepository;
+import com.willowleaf.ldapsync.domain.DataSource;
 import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
 import com.willowleaf.ldapsync.domain.Organization;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nonnull;
+import java.util.List;
 
 @Component
 public class DatabaseStorage implements Organization.Storage {
 
     private final DepartmentRepository departmentRepository;
     private final EmployeeRepository employeeRepository;
+    private final GenerationSweeper generationSweeper;
 
     public DatabaseStorage(DepartmentRepository departmentRepository,
-                           EmployeeRepository employeeRepository) {
+                           EmployeeRepository employeeRepository,
+                           GenerationSweeper generationSweeper) {
         this.departmentRepository = departmentRepository;
         this.employeeRepository = employeeRepository;
+        this.generationSweeper = generationSweeper;
     }
 
     @Override
@@ -30,4 +36,30 @@ public class DatabaseStorage implements Organization.Storage {
         departmentRepository.delete(department);
         employeeRepository.deleteAll(department.getEmployees());
     }
+
+    @Override
+    public void save(@Nonnull final Employee employee) {
+        employeeRepository.save(employee);
+    }
+
+    @Override
+    public void save(@Nonnull final List<Employee> employees) {
+        employeeRepository.saveAll(employees);
+    }
+
+    @Override
+    public void remove(@Nonnull final Employee employee) {
+        employeeRepository.delete(employee);
+    }
+
+    @Override
+    public void sweep(@Nonnull DataSource dataSource, long generation) {
+        generationSweeper.sweep(dataSource, generation);
+    }
+
+    @Override
+    public void sweep(@Nonnull DataSource dataSource, long generation,
+                      @Nonnull List<Department> departments, @Nonnull List<Employee> employees) {
+        generationSweeper.sweep(dataSource, generation, departments, employees);
+    }
 }
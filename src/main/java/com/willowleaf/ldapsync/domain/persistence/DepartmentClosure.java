@@ -0,0 +1,50 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Department;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <pre>
+ * 维护部门的闭包表department_closure，每个部门与它自己及所有上级部门各有一行，distance为两者的深度差。
+ *
+ * 闭包表由数据库中部门的嵌套集合（{@link Department#getLft()}）生成：同步成功后在一个事务中删除数据源原有的行，
+ * 再使用一条INSERT ... SELECT按左右值范围连接部门表写入，不需要在内存中展开每个部门的路径。
+ * 闭包表没有外键，部门表在全量重建时会被整体替换（{@link ShadowTables}）。
+ * </pre>
+ */
+@Slf4j
+@Component
+public class DepartmentClosure {
+
+    private static final String DELETE = "delete from department_closure where data_source_id = ?";
+    private static final String INSERT = "insert into department_closure "
+            + "(data_source_id, ancestor_id, descendant_id, distance) "
+            + "select a.data_source_id, a.id, d.id, d.depth - a.depth from department a "
+            + "join department d on d.data_source_id = a.data_source_id and d.lft between a.lft and a.rgt "
+            + "where a.data_source_id = ? and a.lft is not null";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public DepartmentClosure(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * 重新生成数据源的闭包表。
+     */
+    void rebuild(@Nonnull DataSource dataSource) {
+        Integer rows = transactionTemplate.execute(status -> {
+            jdbcTemplate.update(DELETE, dataSource.getId());
+            return jdbcTemplate.update(INSERT, dataSource.getId());
+        });
+        log.info("数据源[{}]的部门闭包表写入了{}行", dataSource.getName(), rows);
+    }
+}
@@ -0,0 +1,273 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.annotation.Ignore;
+import lombok.SneakyThrows;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import javax.annotation.Nonnull;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <pre>
+ * 将数据对象序列化为Elasticsearch的JSON文档。
+ *
+ * 每个类只在第一次使用时扫描一次字段，没有{@link Ignore}注解的非静态字段按声明顺序写入文档，
+ * 字段名称（包含引号和冒号）预先编码为UTF-8字节。部分更新时只写入指定的字段。序列化时直接将JSON写入线程复用的字节缓冲区，
+ * 不再为每个文档查找字段、读取注解以及创建XContentBuilder。
+ *
+ * 输出与XContentBuilder一致：null值写为null，byte[]写为Base64字符串，LocalDateTime写为UTC格式的日期字符串。
+ * </pre>
+ *
+ * @param <T> 数据对象的类型
+ */
+public final class DocumentSerializer<T> {
+
+    private static final Map<Class<?>, DocumentSerializer<?>> SERIALIZERS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final DateTimeFormatter DATE_TIME = new DateTimeFormatterBuilder()
+            .appendPattern("uuuu-MM-dd'T'HH:mm:ss")
+            .appendFraction(ChronoField.NANO_OF_SECOND, 3, 9, true)
+            .appendLiteral('Z')
+            .toFormatter();
+
+    private final Property[] properties;
+
+    private DocumentSerializer(@Nonnull Class<T> clazz) {
+        List<Property> properties = new ArrayList<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && field.getDeclaredAnnotation(Ignore.class) == null) {
+                properties.add(new Property(field));
+            }
+        }
+        this.properties = properties.toArray(new Property[0]);
+    }
+
+    /**
+     * 返回类对应的序列化器。
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <T> DocumentSerializer<T> of(@Nonnull Class<T> clazz) {
+        return (DocumentSerializer<T>) SERIALIZERS.computeIfAbsent(clazz, DocumentSerializer::new);
+    }
+
+    /**
+     * 返回数据对象的JSON文档。
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static BytesReference toDocument(@Nonnull Object object) {
+        return new BytesArray(of((Class<Object>) object.getClass()).toBytes(object));
+    }
+
+    /**
+     * 返回只包含指定字段的JSON文档，用于部分更新。
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static BytesReference toPartialDocument(@Nonnull Object object, @Nonnull Set<String> fields) {
+        return new BytesArray(of((Class<Object>) object.getClass()).toBytes(object, fields));
+    }
+
+    /**
+     * 将数据对象序列化为UTF-8编码的JSON。
+     */
+    @Nonnull
+    public byte[] toBytes(@Nonnull T object) {
+        return toBytes(object, null);
+    }
+
+    /**
+     * 将数据对象的指定字段序列化为UTF-8编码的JSON。
+     *
+     * @param fields 字段名称，为null时序列化所有字段
+     */
+    @Nonnull
+    @SneakyThrows
+    public byte[] toBytes(@Nonnull T object, Set<String> fields) {
+        Buffer buffer = BUFFERS.get();
+        buffer.reset();
+        buffer.write('{');
+        boolean first = true;
+        for (Property property : properties) {
+            if (fields != null && !fields.contains(property.field)) {
+                continue;
+            }
+            if (!first) {
+                buffer.write(',');
+            }
+            first = false;
+            buffer.write(property.name);
+            writeValue(buffer, property.getter.invoke(object));
+        }
+        buffer.write('}');
+        return buffer.toByteArray();
+    }
+
+    private static void writeValue(@Nonnull Buffer buffer, Object value) {
+        if (value == null) {
+            buffer.write(NULL);
+        } else if (value instanceof String) {
+            writeString(buffer, (String) value);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            buffer.writeAscii(value.toString());
+        } else if (value instanceof LocalDateTime) {
+            buffer.write('"');
+            buffer.writeAscii(DATE_TIME.format((LocalDateTime) value));
+            buffer.write('"');
+        } else if (value instanceof byte[]) {
+            buffer.write('"');
+            buffer.write(Base64.getEncoder().encode((byte[]) value));
+            buffer.write('"');
+        } else {
+            writeString(buffer, value.toString());
+        }
+    }
+
+    /**
+     * 写入JSON字符串，转义引号、反斜杠和控制字符，其它字符编码为UTF-8。
+     */
+    private static void writeString(@Nonnull Buffer buffer, @Nonnull String value) {
+        buffer.write('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    buffer.write('\\');
+                    buffer.write(c);
+                } else if (c < 0x20) {
+                    writeControl(buffer, c);
+                } else {
+                    buffer.write(c);
+                }
+            } else if (c < 0x800) {
+                buffer.write(0xc0 | (c >> 6));
+                buffer.write(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.write(0xf0 | (codePoint >> 18));
+                buffer.write(0x80 | ((codePoint >> 12) & 0x3f));
+                buffer.write(0x80 | ((codePoint >> 6) & 0x3f));
+                buffer.write(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer.write('?');  // 不成对的代理字符无法编码，与String.getBytes的处理相同
+            } else {
+                buffer.write(0xe0 | (c >> 12));
+                buffer.write(0x80 | ((c >> 6) & 0x3f));
+                buffer.write(0x80 | (c & 0x3f));
+            }
+        }
+        buffer.write('"');
+    }
+
+    private static void writeControl(@Nonnull Buffer buffer, char c) {
+        buffer.write('\\');
+        switch (c) {
+            case '\b':
+                buffer.write('b');
+                break;
+            case '\t':
+                buffer.write('t');
+                break;
+            case '\n':
+                buffer.write('n');
+                break;
+            case '\f':
+                buffer.write('f');
+                break;
+            case '\r':
+                buffer.write('r');
+                break;
+            default:
+                buffer.write('u');
+                buffer.write('0');
+                buffer.write('0');
+                buffer.write(HEX[c >> 4]);
+                buffer.write(HEX[c & 0xf]);
+        }
+    }
+
+    /**
+     * 持久化的字段。
+     */
+    private static class Property {
+
+        private final String field;
+
+        /**
+         * UTF-8编码的字段名称，例如："name":。
+         */
+        private final byte[] name;
+        private final MethodHandle getter;
+
+        @SneakyThrows
+        private Property(@Nonnull Field field) {
+            this.field = field.getName();
+            this.name = ("\"" + field.getName() + "\":").getBytes(StandardCharsets.UTF_8);
+            field.setAccessible(true);
+            this.getter = MethodHandles.lookup().unreflectGetter(field);
+        }
+    }
+
+    /**
+     * 可复用的字节缓冲区。
+     */
+    private static class Buffer {
+
+        private byte[] bytes = new byte[1024];
+        private int count;
+
+        private void reset() {
+            count = 0;
+        }
+
+        private void write(int b) {
+            ensureCapacity(1);
+            bytes[count++] = (byte) b;
+        }
+
+        private void write(@Nonnull byte[] b) {
+            ensureCapacity(b.length);
+            System.arraycopy(b, 0, bytes, count, b.length);
+            count += b.length;
+        }
+
+        private void writeAscii(@Nonnull String s) {
+            ensureCapacity(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                bytes[count++] = (byte) s.charAt(i);
+            }
+        }
+
+        private void ensureCapacity(int length) {
+            if (count + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, count + length));
+            }
+        }
+
+        @Nonnull
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, count);
+        }
+    }
+}
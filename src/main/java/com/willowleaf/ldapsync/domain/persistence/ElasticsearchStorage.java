@@ -1,64 +1,318 @@
 package com.willowleaf.ldapsync.domain.persistence;
 
-import com.willowleaf.ldapsync.annotation.Ignore;
+import com.willowleaf.ldapsync.config.ElasticsearchStorageProperties;
+import com.willowleaf.ldapsync.config.SweepProperties;
 import com.willowleaf.ldapsync.domain.DataSource;
 import com.willowleaf.ldapsync.domain.Department;
 import com.willowleaf.ldapsync.domain.Employee;
+import com.willowleaf.ldapsync.domain.LdapPorter;
 import com.willowleaf.ldapsync.domain.Organization;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RestHighLevelClient;
-import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
 
 import static org.elasticsearch.client.RequestOptions.DEFAULT;
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
+/**
+ * <pre>
+ * 持久化组织架构数据到Elasticsearch。
+ *
+ * 同步过程中所有的部门和员工文档都交给该数据源的{@link BulkProcessor}，按文档数、请求大小和时间批量发送，
+ * 同时进行的请求数有上限，请求被拒绝（429）时退避重试。每个文档的写入结果单独记录，
+ * 同步结束时有文档写入失败则同步失败。不在同步过程中的写入（例如LDAP变更监听）直接发送请求。
+ * 文档由{@link DocumentSerializer}序列化。
+ *
+ * 索引dept_{id}和emp_{id}是别名，全量重建时写入新一代索引后切换别名，见{@link IndexRebuild}。
+ * 从创建新一代索引到切换别名之间，不在同步过程中的写入和删除同时发送到别名和新一代索引，
+ * 写入新一代索引时总是使用index请求写入整个文档，避免切换别名后丢失这些变化。
+ * </pre>
+ *
+ * @see ElasticsearchStorageProperties
+ */
 @Slf4j
 @Component
+@EnableConfigurationProperties({ElasticsearchStorageProperties.class, SweepProperties.class})
 public class ElasticsearchStorage implements Organization.Storage {
 
-    private String deptIndex;
-    private String empIndex;
+    /**
+     * 同步失败时日志中最多输出的失败文档数。
+     */
+    private static final int MAX_LOGGED_FAILURES = 100;
+
+    private static final String GENERATION = "generation";
+    private static final String DEPT = "dept";
+    private static final String EMP = "emp";
+
+    /**
+     * 每个数据源的索引（别名）名称，key为数据源ID。
+     */
+    private final Map<Integer, String> deptIndices = new ConcurrentHashMap<>();
+    private final Map<Integer, String> empIndices = new ConcurrentHashMap<>();
 
     private final RestHighLevelClient client;
+    private final ElasticsearchStorageProperties properties;
+    private final SweepProperties sweepProperties;
+
+    /**
+     * 正在同步的数据源的批量写入，key为数据源ID。
+     */
+    private final Map<Integer, BulkSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * 正在全量重建的数据源的新一代索引，从创建新一代索引到切换别名结束，key为数据源ID。
+     */
+    private final Map<Integer, IndexRebuild> rebuilds = new ConcurrentHashMap<>();
 
-    public ElasticsearchStorage(RestHighLevelClient client) {
+    public ElasticsearchStorage(RestHighLevelClient client, ElasticsearchStorageProperties properties,
+                                SweepProperties sweepProperties) {
         this.client = client;
+        this.properties = properties;
+        this.sweepProperties = sweepProperties;
+    }
+
+    /**
+     * 开始批量写入，全量重建时创建新一代索引。
+     */
+    @Override
+    public void begin(@Nonnull DataSource dataSource, @Nonnull LdapPorter.Mode mode) {
+        IndexRebuild rebuild = null;
+        if (mode == LdapPorter.Mode.REBUILD) {
+            rebuild = new IndexRebuild(client, properties.getRebuild(),
+                    Arrays.asList(getDeptIndex(dataSource), getEmpIndex(dataSource)));
+            rebuild.create();
+            rebuilds.put(dataSource.getId(), rebuild);
+        }
+
+        BulkSession previous = sessions.put(dataSource.getId(), new BulkSession(dataSource, rebuild));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    @Override
+    public void end(@Nonnull DataSource dataSource, boolean succeeded) {
+        BulkSession session = sessions.remove(dataSource.getId());
+        if (session == null) {
+            return;
+        }
+
+        try {
+            try {
+                session.close();
+                if (succeeded && session.failures.get() > 0) {
+                    throw new IllegalStateException(String.format("数据源[%s]有%d个文档写入Elasticsearch失败",
+                            dataSource.getName(), session.failures.get()));
+                }
+            } catch (RuntimeException e) {
+                if (session.rebuild != null) {
+                    session.rebuild.discard();
+                }
+                throw e;
+            }
+
+            if (session.rebuild != null) {
+                if (succeeded) {
+                    session.rebuild.swap();
+                } else {
+                    session.rebuild.discard();
+                }
+            }
+        } finally {
+            if (session.rebuild != null) {
+                rebuilds.remove(dataSource.getId(), session.rebuild);
+            }
+        }
     }
 
     @SneakyThrows
     @Override
     public void save(@Nonnull final Department department) {
-        saveDepartment(department);
-        saveEmployees(department.getEmployees());
+        BulkSession session = getSession(department.getDataSource());
+        if (session == null) {
+            saveDepartment(department);
+            saveEmployees(department.getEmployees());
+            return;
+        }
+
+        session.add(getDeptIndex(department.getDataSource()), department.getNumber(), department);
+        department.getEmployees().forEach(employee ->
+                session.add(getEmpIndex(employee.getDataSource()), employee.getUid(), employee));
     }
 
     @SneakyThrows
     @Override
     public void remove(@Nonnull Department department, Exception e) {
-        client.delete(new DeleteRequest(getDeptIndex(department.getDataSource())).id(department.getNumber()), DEFAULT);
+        IndexRebuild rebuild = getRebuild(department.getDataSource());
+        String deptIndex = getDeptIndex(department.getDataSource());
+        client.delete(new DeleteRequest(deptIndex).id(department.getNumber()), DEFAULT);
+        if (rebuild != null) {
+            client.delete(new DeleteRequest(rebuild.getIndex(deptIndex)).id(department.getNumber()), DEFAULT);
+        }
+
         BulkRequest bulkRequest = new BulkRequest();
         for (Employee employee : department.getEmployees()) {
-            DeleteRequest deleteRequest = new DeleteRequest(getEmpIndex(employee.getDataSource()))
-                    .id(employee.getUid());
-            bulkRequest.add(deleteRequest);
+            String empIndex = getEmpIndex(employee.getDataSource());
+            bulkRequest.add(new DeleteRequest(empIndex).id(employee.getUid()));
+            if (rebuild != null) {
+                bulkRequest.add(new DeleteRequest(rebuild.getIndex(empIndex)).id(employee.getUid()));
+            }
         }
-        client.bulk(bulkRequest, DEFAULT);
+        if (bulkRequest.numberOfActions() > 0) {
+            client.bulk(bulkRequest, DEFAULT);
+        }
+    }
+
+    @SneakyThrows
+    @Override
+    public void save(@Nonnull final Employee employee) {
+        save(singletonList(employee));
+    }
+
+    @SneakyThrows
+    @Override
+    public void save(@Nonnull final List<Employee> employees) {
+        BulkSession session = employees.isEmpty() ? null : getSession(employees.get(0).getDataSource());
+        if (session == null) {
+            saveEmployees(employees);
+            return;
+        }
+
+        String empIndex = getEmpIndex(employees.get(0).getDataSource());
+        employees.forEach(employee -> session.add(empIndex, employee.getUid(), employee));
+    }
+
+    @SneakyThrows
+    @Override
+    public void remove(@Nonnull final Employee employee) {
+        String empIndex = getEmpIndex(employee.getDataSource());
+        client.delete(new DeleteRequest(empIndex).id(employee.getUid()), DEFAULT);
+        IndexRebuild rebuild = getRebuild(employee.getDataSource());
+        if (rebuild != null) {
+            client.delete(new DeleteRequest(rebuild.getIndex(empIndex)).id(employee.getUid()), DEFAULT);
+        }
+    }
+
+    /**
+     * 使用delete-by-query删除代数小于generation或者没有代数的文档，按storage.sweep.requests-per-second限速。
+     * 删除期间被更新的文档版本冲突，跳过而不是失败。
+     */
+    @SneakyThrows
+    @Override
+    public void sweep(@Nonnull DataSource dataSource, long generation) {
+        long deleted = deleteByQuery(dataSource, QueryBuilders.boolQuery()
+                        .should(QueryBuilders.rangeQuery(GENERATION).lt(generation))
+                        .should(QueryBuilders.boolQuery().mustNot(QueryBuilders.existsQuery(GENERATION))),
+                getDeptIndex(dataSource), getEmpIndex(dataSource));
+        log.info("数据源[{}]从Elasticsearch中删除了{}个文档", dataSource.getName(), deleted);
+    }
+
+    /**
+     * 按文档ID（部门编号，员工uid）分批删除指定的部门和员工，每批最多storage.sweep.chunk-size个ID，
+     * 代数不小于generation的文档不删除。
+     */
+    @SneakyThrows
+    @Override
+    public void sweep(@Nonnull DataSource dataSource, long generation,
+                      @Nonnull List<Department> departments, @Nonnull List<Employee> employees) {
+        long deleted = deleteByIds(dataSource, generation, getEmpIndex(dataSource),
+                employees.stream().map(Employee::getUid).collect(toList()));
+        deleted += deleteByIds(dataSource, generation, getDeptIndex(dataSource),
+                departments.stream().map(Department::getNumber).collect(toList()));
+        log.info("数据源[{}]从Elasticsearch中删除了{}个文档", dataSource.getName(), deleted);
+    }
+
+    private long deleteByIds(@Nonnull DataSource dataSource, long generation, @Nonnull String index,
+                             @Nonnull List<String> ids) throws IOException, InterruptedException {
+        int chunkSize = Math.max(1, sweepProperties.getChunkSize());
+        long deleted = 0;
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            if (from > 0) {
+                Thread.sleep(sweepProperties.getChunkDelay().toMillis());
+            }
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + chunkSize));
+            deleted += deleteByQuery(dataSource, QueryBuilders.boolQuery()
+                    .filter(QueryBuilders.idsQuery().addIds(chunk.toArray(new String[0])))
+                    .filter(QueryBuilders.boolQuery()
+                            .should(QueryBuilders.rangeQuery(GENERATION).lt(generation))
+                            .should(QueryBuilders.boolQuery().mustNot(QueryBuilders.existsQuery(GENERATION)))), index);
+        }
+        return deleted;
+    }
+
+    /**
+     * 使用delete-by-query删除文档并返回删除的文档数。
+     */
+    private long deleteByQuery(@Nonnull DataSource dataSource, @Nonnull QueryBuilder query,
+                               @Nonnull String... indices) throws IOException {
+        DeleteByQueryRequest request = new DeleteByQueryRequest(indices);
+        request.setQuery(query);
+        request.setConflicts("proceed");
+        request.setRequestsPerSecond(sweepProperties.getRequestsPerSecond() > 0
+                ? sweepProperties.getRequestsPerSecond() : Float.POSITIVE_INFINITY);
+        request.setRefresh(true);
+        request.setBatchSize(Math.max(1, sweepProperties.getChunkSize()));
+        request.setIndicesOptions(IndicesOptions.lenientExpandOpen());
+        request.setTimeout(TimeValue.timeValueMillis(sweepProperties.getTimeout().toMillis()));
+
+        int timeout = (int) Math.min(Integer.MAX_VALUE, sweepProperties.getTimeout().toMillis());
+        BulkByScrollResponse response = client.deleteByQuery(request, DEFAULT.toBuilder()
+                .setRequestConfig(RequestConfig.custom().setSocketTimeout(timeout).build())
+                .build());
+        if (!response.getBulkFailures().isEmpty() || !response.getSearchFailures().isEmpty()) {
+            throw new IllegalStateException(String.format("数据源[%s]删除过期文档失败: %s %s", dataSource.getName(),
+                    response.getBulkFailures(), response.getSearchFailures()));
+        }
+        return response.getDeleted();
     }
 
     private void saveDepartment(Department department) throws IOException {
-        client.update(buildRequest(getDeptIndex(department.getDataSource()),
-                department.getNumber(), department), DEFAULT);
+        String deptIndex = getDeptIndex(department.getDataSource());
+        DocWriteRequest<?> request = buildRequest(deptIndex, department.getNumber(), department);
+        if (request instanceof UpdateRequest) {
+            client.update((UpdateRequest) request, DEFAULT);
+        } else {
+            client.index((IndexRequest) request, DEFAULT);
+        }
+
+        IndexRebuild rebuild = getRebuild(department.getDataSource());
+        if (rebuild != null) {
+            client.index(indexRequest(rebuild.getIndex(deptIndex), department.getNumber(), department), DEFAULT);
+        }
     }
 
     private void saveEmployees(@Nonnull List<Employee> employees) throws IOException {
@@ -68,24 +322,28 @@ public class ElasticsearchStorage implements Organization.Storage {
 
         BulkRequest bulkRequest = new BulkRequest();
         String empIndex = getEmpIndex(employees.get(0).getDataSource());
+        IndexRebuild rebuild = getRebuild(employees.get(0).getDataSource());
         for (Employee employee : employees) {
             bulkRequest.add(buildRequest(empIndex, employee.getUid(), employee));   // add方法是线程不安全的
+            if (rebuild != null) {
+                bulkRequest.add(indexRequest(rebuild.getIndex(empIndex), employee.getUid(), employee));
+            }
         }
         client.bulk(bulkRequest, DEFAULT);
     }
 
-    private String getDeptIndex(@Nonnull DataSource dataSource) {
-        if (deptIndex == null) {
-            deptIndex = getIndex("dept", dataSource);
-        }
-        return deptIndex;
+    /**
+     * 返回数据源的部门索引（别名）名称。
+     */
+    String getDeptIndex(@Nonnull DataSource dataSource) {
+        return deptIndices.computeIfAbsent(dataSource.getId(), id -> getIndex(DEPT, dataSource));
     }
 
-    private String getEmpIndex(@Nonnull DataSource dataSource) {
-        if (empIndex == null) {
-            empIndex = getIndex("emp", dataSource);
-        }
-        return empIndex;
+    /**
+     * 返回数据源的员工索引（别名）名称。
+     */
+    String getEmpIndex(@Nonnull DataSource dataSource) {
+        return empIndices.computeIfAbsent(dataSource.getId(), id -> getIndex(EMP, dataSource));
     }
 
     /**
@@ -96,43 +354,117 @@ public class ElasticsearchStorage implements Organization.Storage {
         return prefix + "_" + dataSource.getId();
     }
 
-    private UpdateRequest buildRequest(String index, String id, Object model) {
-        XContentBuilder document = buildDocument(model);
+    /**
+     * 创建写入文档的请求，只有部分字段变化时只更新这些字段，否则使用index请求整体覆盖（效果与upsert相同）。
+     */
+    private DocWriteRequest<?> buildRequest(String index, String id, Object model) {
+        Set<String> fields = getChangedFields(model);
+        if (fields != null) {
+            return new UpdateRequest(index, id)
+                    .doc(DocumentSerializer.toPartialDocument(model, fields), XContentType.JSON);
+        }
+        return indexRequest(index, id, model);
+    }
 
-        IndexRequest indexRequest = new IndexRequest(index).id(id).source(document);
-        return new UpdateRequest()
+    private static IndexRequest indexRequest(String index, String id, Object model) {
+        return new IndexRequest(index)
                 .id(id)
-                .index(index)
-                .doc(document)
-                .upsert(indexRequest);  // upsert: insert or update
+                .source(DocumentSerializer.toDocument(model), XContentType.JSON);
     }
 
-    @Nonnull
-    @SneakyThrows
-    private XContentBuilder buildDocument(@Nonnull Object object) {
-        try (XContentBuilder builder = jsonBuilder()) {
-            builder.startObject();
-            Class<?> clazz = object.getClass();
-            Field[] fields = clazz.getDeclaredFields();
-            for (Field field : fields) {
-                if (isPersisted(field)) {
-                    field.setAccessible(true);
-                    builder.field(field.getName(), field.get(object));
-                }
-            }
-
-            return builder.endObject();
+    /**
+     * 返回数据对象发生变化的字段，需要写入整个文档时返回null。
+     */
+    static Set<String> getChangedFields(@Nonnull Object model) {
+        if (model instanceof Department) {
+            return ((Department) model).getChangedFields();
         }
+        return model instanceof Employee ? ((Employee) model).getChangedFields() : null;
+    }
+
+    private BulkSession getSession(DataSource dataSource) {
+        return dataSource == null ? null : sessions.get(dataSource.getId());
+    }
+
+    private IndexRebuild getRebuild(DataSource dataSource) {
+        return dataSource == null ? null : rebuilds.get(dataSource.getId());
     }
 
     /**
-     * 返回字段是否需要持久化。
-     *
-     * @param field 数据对象的字段
-     * @return 需要持久化字段的类型
+     * 一个数据源一次同步的批量写入。
      */
-    private boolean isPersisted(@Nonnull Field field) {
-        Ignore annotation = field.getDeclaredAnnotation(Ignore.class);
-        return annotation == null;
+    private class BulkSession {
+
+        private final DataSource dataSource;
+        private final BulkProcessor processor;
+        private final AtomicLong failures = new AtomicLong();
+
+        /**
+         * 全量重建的新一代索引，不是全量重建时为null。
+         */
+        private final IndexRebuild rebuild;
+
+        private BulkSession(@Nonnull DataSource dataSource, IndexRebuild rebuild) {
+            this.dataSource = dataSource;
+            this.rebuild = rebuild;
+            ElasticsearchStorageProperties.Bulk bulk = properties.getBulk();
+            BiConsumer<BulkRequest, ActionListener<BulkResponse>> consumer = bulk.isCompression()
+                    ? new GzipBulkSender(client.getLowLevelClient())
+                    : (request, listener) -> client.bulkAsync(request, DEFAULT, listener);
+            this.processor = BulkProcessor.builder(consumer, new BulkProcessor.Listener() {
+                @Override
+                public void beforeBulk(long executionId, BulkRequest request) {
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                    if (!response.hasFailures()) {
+                        return;
+                    }
+                    for (BulkItemResponse item : response.getItems()) {
+                        if (item.isFailed()) {
+                            fail(item.getIndex(), item.getId(), item.getFailureMessage());
+                        }
+                    }
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                    request.requests().forEach(item -> fail(item.index(), item.id(), failure.toString()));
+                }
+            })
+                    .setBulkActions(bulk.getActions())
+                    .setBulkSize(new ByteSizeValue(bulk.getSize().toBytes()))
+                    .setFlushInterval(TimeValue.timeValueMillis(bulk.getFlushInterval().toMillis()))
+                    .setConcurrentRequests(bulk.getConcurrentRequests())
+                    .setBackoffPolicy(BackoffPolicy.exponentialBackoff(
+                            TimeValue.timeValueMillis(bulk.getBackoffDelay().toMillis()), bulk.getBackoffRetries()))
+                    .build();
+        }
+
+        /**
+         * 添加文档，全量重建时写入新一代索引，否则写入正式索引。
+         *
+         * @param index 正式索引（别名）名称
+         * @param id    文档ID
+         * @param model 数据对象
+         */
+        private void add(@Nonnull String index, @Nonnull String id, @Nonnull Object model) {
+            processor.add(buildRequest(rebuild == null ? index : rebuild.getIndex(index), id, model));
+        }
+
+        private void fail(String index, String id, String message) {
+            if (failures.incrementAndGet() <= MAX_LOGGED_FAILURES) {
+                log.error("数据源[{}]的文档写入Elasticsearch失败: {}/{}, {}", dataSource.getName(), index, id, message);
+            }
+        }
+
+        @SneakyThrows
+        private void close() {
+            if (!processor.awaitClose(properties.getBulk().getCloseTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException(String.format("数据源[%s]等待Elasticsearch批量请求完成超时",
+                        dataSource.getName()));
+            }
+        }
     }
 }
@@ -0,0 +1,105 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import static com.willowleaf.ldapsync.domain.persistence.JdbcTable.DEPARTMENT;
+import static com.willowleaf.ldapsync.domain.persistence.JdbcTable.EMPLOYEE;
+
+/**
+ * <pre>
+ * 比较数据与数据库中已有的数据，标记发生变化的字段（{@link Employee#setChangedFields(Set)}），
+ * 之后数据库只更新这些列，Elasticsearch只更新这些字段。
+ *
+ * 按主键分批读取已有的数据，每条SELECT语句最多包含1000个ID。数据库中不存在的数据，
+ * 以及内容哈希已经被清除的数据（上次写入失败，其它存储可能不一致）不标记，仍然写入所有字段。
+ * </pre>
+ *
+ * @see ContentHashes
+ */
+@Component
+public class FieldDiffer {
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final String CONTENT_HASH = "content_hash";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FieldDiffer(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 标记部门发生变化的字段。
+     */
+    void diffDepartments(@Nonnull List<Department> departments) {
+        diff(DEPARTMENT, departments, Department::setChangedFields);
+    }
+
+    /**
+     * 标记员工发生变化的字段。
+     */
+    void diffEmployees(@Nonnull List<Employee> employees) {
+        diff(EMPLOYEE, employees, Employee::setChangedFields);
+    }
+
+    private <T> void diff(@Nonnull JdbcTable<T> table, @Nonnull List<T> rows,
+                          @Nonnull BiConsumer<T, Set<String>> setter) {
+        List<String> columns = table.getColumns();
+        int contentHash = columns.indexOf(CONTENT_HASH);
+        String select = "select " + String.join(", ", columns) + " from " + table.getName() + " where "
+                + SqlDialect.ID + " in (";
+        for (int from = 0; from < rows.size(); from += CHUNK_SIZE) {
+            List<T> chunk = rows.subList(from, Math.min(rows.size(), from + CHUNK_SIZE));
+            Map<Object, T> byId = new HashMap<>(chunk.size() * 2);
+            chunk.forEach(row -> byId.put(table.id(row), row));
+
+            jdbcTemplate.query(select + String.join(", ", Collections.nCopies(byId.size(), "?")) + ")",
+                    (RowCallbackHandler) resultSet -> {
+                        T row = byId.get(resultSet.getObject(1));
+                        if (row == null || resultSet.getObject(contentHash + 1) == null) {
+                            return;
+                        }
+
+                        Set<String> changed = new HashSet<>();
+                        for (int i = 1; i < columns.size(); i++) {
+                            if (!isSame(resultSet.getObject(i + 1), table.value(row, i))) {
+                                changed.add(table.getProperty(i));
+                            }
+                        }
+                        setter.accept(row, changed);
+                    }, byId.keySet().toArray());
+        }
+    }
+
+    /**
+     * 比较数据库中的值与数据对象的值，JDBC驱动返回的类型可能与字段类型不同。
+     */
+    static boolean isSame(Object stored, Object value) {
+        if (stored instanceof Timestamp) {
+            stored = ((Timestamp) stored).toLocalDateTime();
+        }
+        if (stored instanceof byte[] && value instanceof byte[]) {
+            return Arrays.equals((byte[]) stored, (byte[]) value);
+        }
+        if (stored instanceof Number && value instanceof Number) {
+            return ((Number) stored).longValue() == ((Number) value).longValue();
+        }
+        return Objects.equals(stored, value);
+    }
+}
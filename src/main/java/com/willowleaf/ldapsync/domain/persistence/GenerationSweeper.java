@@ -0,0 +1,109 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.config.SweepProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * <pre>
+ * 分批删除数据库中代数小于本次同步的部门和员工。
+ *
+ * 每条DELETE语句最多删除storage.sweep.chunk-size行，语句之间等待storage.sweep.chunk-delay，
+ * 避免长事务和持续占用数据库。先删除员工再删除部门，仍然被员工引用的部门不删除。
+ * 没有代数的数据（添加代数之前写入的数据）同样视为过期数据。
+ *
+ * 跳过内容没有变化的数据时，只删除指定ID的数据，每条DELETE语句最多包含chunk-size个ID。
+ * </pre>
+ *
+ * @see SweepProperties
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(SweepProperties.class)
+public class GenerationSweeper {
+
+    private static final String EMPLOYEE = "delete from employee where data_source_id = ? "
+            + "and (generation < ? or generation is null) limit ?";
+    private static final String DEPARTMENT = "delete from department where data_source_id = ? "
+            + "and (generation < ? or generation is null) "
+            + "and not exists (select 1 from employee e where e.department_id = department.id) limit ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SweepProperties properties;
+
+    public GenerationSweeper(JdbcTemplate jdbcTemplate, SweepProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = properties;
+    }
+
+    /**
+     * 删除数据源中代数小于generation的员工和部门。
+     */
+    public void sweep(@Nonnull DataSource dataSource, long generation) {
+        int employees = delete(EMPLOYEE, dataSource, generation);
+        int departments = delete(DEPARTMENT, dataSource, generation);
+        log.info("数据源[{}]删除了{}个部门和{}个员工", dataSource.getName(), departments, employees);
+    }
+
+    /**
+     * 删除指定ID的员工和部门，代数不小于generation的数据（同步过程中重新写入的数据）不删除。
+     */
+    public void sweep(@Nonnull DataSource dataSource, long generation,
+                      @Nonnull List<Department> departments, @Nonnull List<Employee> employees) {
+        int deletedEmployees = deleteByIds("employee", "", dataSource, generation,
+                employees.stream().map(Employee::getId).collect(toList()));
+        int deletedDepartments = deleteByIds("department",
+                " and not exists (select 1 from employee e where e.department_id = department.id)",
+                dataSource, generation, departments.stream().map(Department::getId).collect(toList()));
+        log.info("数据源[{}]删除了{}个部门和{}个员工", dataSource.getName(), deletedDepartments, deletedEmployees);
+    }
+
+    @SneakyThrows
+    private int deleteByIds(@Nonnull String table, @Nonnull String condition, @Nonnull DataSource dataSource,
+                            long generation, @Nonnull List<String> ids) {
+        int chunkSize = Math.max(1, properties.getChunkSize());
+        int total = 0;
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            if (from > 0) {
+                Thread.sleep(properties.getChunkDelay().toMillis());
+            }
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + chunkSize));
+            List<Object> args = new ArrayList<>(chunk.size() + 2);
+            args.add(dataSource.getId());
+            args.add(generation);
+            args.addAll(chunk);
+            total += jdbcTemplate.update("delete from " + table + " where data_source_id = ? "
+                    + "and (generation < ? or generation is null)" + condition
+                    + " and id in (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                    args.toArray());
+        }
+        return total;
+    }
+
+    @SneakyThrows
+    private int delete(@Nonnull String sql, @Nonnull DataSource dataSource, long generation) {
+        int chunkSize = Math.max(1, properties.getChunkSize());
+        int total = 0;
+        while (true) {
+            int deleted = jdbcTemplate.update(sql, dataSource.getId(), generation, chunkSize);
+            total += deleted;
+            if (deleted < chunkSize) {
+                return total;
+            }
+            Thread.sleep(properties.getChunkDelay().toMillis());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPOutputStream;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.common.xcontent.XContentType.JSON;
+
+/**
+ * <pre>
+ * 使用gzip压缩发送批量请求。
+ *
+ * 当前版本的RestHighLevelClient不支持压缩请求，因此将批量请求序列化为NDJSON并压缩后使用低级客户端发送，
+ * 只支持index，update和delete请求。
+ * </pre>
+ *
+ * @see ElasticsearchStorage
+ */
+class GzipBulkSender implements BiConsumer<BulkRequest, ActionListener<BulkResponse>> {
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private final RestClient client;
+
+    GzipBulkSender(@Nonnull RestClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public void accept(BulkRequest bulkRequest, ActionListener<BulkResponse> listener) {
+        Request request = new Request("POST", "/_bulk");
+        try {
+            ByteArrayEntity entity = new ByteArrayEntity(compress(bulkRequest), NDJSON);
+            entity.setContentEncoding("gzip");
+            request.setEntity(entity);
+        } catch (IOException | RuntimeException e) {
+            listener.onFailure(e);
+            return;
+        }
+
+        client.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                BulkResponse bulkResponse;
+                try (InputStream content = response.getEntity().getContent();
+                     XContentParser parser = JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                             DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
+                    bulkResponse = BulkResponse.fromXContent(parser);
+                } catch (IOException | RuntimeException e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                listener.onResponse(bulkResponse);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    @Nonnull
+    static byte[] compress(@Nonnull BulkRequest bulkRequest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE,
+                bulkRequest.estimatedSizeInBytes() / 4 + 64));
+        try (OutputStream out = new GZIPOutputStream(bytes, 64 * 1024)) {
+            for (DocWriteRequest<?> request : bulkRequest.requests()) {
+                write(out, request);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void write(OutputStream out, DocWriteRequest<?> request) throws IOException {
+        String action = request.opType().getLowercase();
+        try (XContentBuilder builder = jsonBuilder()) {
+            builder.startObject().startObject(action)
+                    .field("_index", request.index())
+                    .field("_id", request.id())
+                    .endObject().endObject();
+            BytesReference.bytes(builder).writeTo(out);
+        }
+        out.write(NEW_LINE);
+
+        switch (request.opType()) {
+            case INDEX:
+            case CREATE:
+                ((IndexRequest) request).source().writeTo(out);
+                out.write(NEW_LINE);
+                break;
+            case UPDATE:
+                UpdateRequest updateRequest = (UpdateRequest) request;
+                out.write("{\"doc\":".getBytes(StandardCharsets.UTF_8));
+                updateRequest.doc().source().writeTo(out);
+                if (updateRequest.docAsUpsert()) {
+                    out.write(",\"doc_as_upsert\":true".getBytes(StandardCharsets.UTF_8));
+                } else if (updateRequest.upsertRequest() != null) {
+                    out.write(",\"upsert\":".getBytes(StandardCharsets.UTF_8));
+                    updateRequest.upsertRequest().source().writeTo(out);
+                }
+                out.write('}');
+                out.write(NEW_LINE);
+                break;
+            case DELETE:
+                break;
+            default:
+                throw new IllegalArgumentException("不支持的批量请求类型: " + request.opType());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.config.ElasticsearchStorageProperties;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.*;
+
+import static org.elasticsearch.client.RequestOptions.DEFAULT;
+
+/**
+ * <pre>
+ * 全量重建数据源的Elasticsearch索引（蓝绿部署）。
+ *
+ * 1. 为每个别名（dept_{id}，emp_{id}）创建新一代索引{alias}_{generation}，关闭刷新且没有副本。
+ * 2. 同步过程中的文档使用index请求写入新一代索引。
+ * 3. 写入完成后强制合并，恢复刷新间隔和副本数，原子地将别名切换到新一代索引，然后删除旧的索引。
+ *
+ * 别名之前是具体索引时（旧版本创建的索引），在切换别名的同一个请求中删除该索引。
+ * </pre>
+ *
+ * @see ElasticsearchStorage
+ */
+@Slf4j
+class IndexRebuild {
+
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+
+    private final RestHighLevelClient client;
+    private final ElasticsearchStorageProperties.Rebuild properties;
+
+    /**
+     * 别名与新一代索引名称。
+     */
+    private final Map<String, String> indices = new LinkedHashMap<>();
+
+    IndexRebuild(@Nonnull RestHighLevelClient client, @Nonnull ElasticsearchStorageProperties.Rebuild properties,
+                 @Nonnull Collection<String> aliases) {
+        this.client = client;
+        this.properties = properties;
+        String generation = String.valueOf(System.currentTimeMillis());
+        aliases.forEach(alias -> indices.put(alias, alias + "_" + generation));
+    }
+
+    /**
+     * 返回别名对应的新一代索引名称。
+     */
+    @Nonnull
+    String getIndex(@Nonnull String alias) {
+        return indices.get(alias);
+    }
+
+    /**
+     * 创建关闭刷新且没有副本的新一代索引。
+     */
+    @SneakyThrows
+    void create() {
+        for (String index : indices.values()) {
+            client.indices().create(new CreateIndexRequest(index).settings(Settings.builder()
+                    .put(REFRESH_INTERVAL, "-1")
+                    .put(NUMBER_OF_REPLICAS, 0)), DEFAULT);
+        }
+    }
+
+    /**
+     * 恢复索引设置并切换别名，然后删除旧的索引。
+     */
+    @SneakyThrows
+    void swap() {
+        IndicesAliasesRequest aliasesRequest = new IndicesAliasesRequest();
+        List<String> oldIndices = new ArrayList<>();
+        for (Map.Entry<String, String> entry : indices.entrySet()) {
+            String alias = entry.getKey();
+            String index = entry.getValue();
+            Settings live = getSettings(alias);
+
+            client.indices().forcemerge(new ForceMergeRequest(index).maxNumSegments(properties.getMaxNumSegments()),
+                    forceMergeOptions());
+            client.indices().putSettings(new UpdateSettingsRequest(index).settings(restore(live)), DEFAULT);
+            client.indices().refresh(new RefreshRequest(index), DEFAULT);
+
+            Set<String> aliased = client.indices().getAlias(new GetAliasesRequest(alias), DEFAULT)
+                    .getAliases().keySet();
+            if (aliased.isEmpty() && client.indices().exists(new GetIndexRequest(alias), DEFAULT)) {
+                aliasesRequest.addAliasAction(AliasActions.removeIndex().index(alias));
+            }
+            aliased.forEach(old -> aliasesRequest.addAliasAction(AliasActions.remove().index(old).alias(alias)));
+            aliasesRequest.addAliasAction(AliasActions.add().index(index).alias(alias));
+
+            String[] generations = client.indices().get(new GetIndexRequest(alias + "_*")
+                    .indicesOptions(IndicesOptions.lenientExpandOpen()), DEFAULT).getIndices();
+            Arrays.stream(generations)
+                    .filter(generation -> !generation.equals(index))
+                    .forEach(oldIndices::add);
+        }
+
+        client.indices().updateAliases(aliasesRequest, DEFAULT);
+        if (!oldIndices.isEmpty()) {
+            client.indices().delete(new DeleteIndexRequest(oldIndices.toArray(new String[0])), DEFAULT);
+        }
+    }
+
+    /**
+     * 放弃重建，删除新一代索引。
+     */
+    void discard() {
+        try {
+            client.indices().delete(new DeleteIndexRequest(indices.values().toArray(new String[0]))
+                    .indicesOptions(IndicesOptions.lenientExpandOpen()), DEFAULT);
+        } catch (Exception e) {
+            log.error("删除索引{}失败", indices.values(), e);
+        }
+    }
+
+    /**
+     * 返回别名当前指向的索引的设置，别名不存在时返回空设置。
+     */
+    @Nonnull
+    private Settings getSettings(@Nonnull String alias) throws IOException {
+        GetSettingsResponse response = client.indices().getSettings(new GetSettingsRequest()
+                .indices(alias)
+                .names(REFRESH_INTERVAL, NUMBER_OF_REPLICAS)
+                .indicesOptions(IndicesOptions.lenientExpandOpen()), DEFAULT);
+        return response.getIndexToSettings().valuesIt().hasNext()
+                ? response.getIndexToSettings().valuesIt().next() : Settings.EMPTY;
+    }
+
+    /**
+     * 恢复为正式索引的刷新间隔和副本数，正式索引没有设置时恢复为默认值。
+     */
+    @Nonnull
+    private static Settings restore(@Nonnull Settings live) {
+        Settings.Builder builder = Settings.builder();
+        for (String name : new String[]{REFRESH_INTERVAL, NUMBER_OF_REPLICAS}) {
+            String value = live.get(name);
+            if (value == null) {
+                builder.putNull(name);
+            } else {
+                builder.put(name, value);
+            }
+        }
+        return builder.build();
+    }
+
+    private RequestOptions forceMergeOptions() {
+        int timeout = (int) Math.min(Integer.MAX_VALUE, properties.getForceMergeTimeout().toMillis());
+        return DEFAULT.toBuilder()
+                .setRequestConfig(RequestConfig.custom().setSocketTimeout(timeout).build())
+                .build();
+    }
+}
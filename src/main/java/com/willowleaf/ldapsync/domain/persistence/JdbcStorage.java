@@ -0,0 +1,314 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.config.JdbcStorageProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import com.willowleaf.ldapsync.domain.LdapPorter;
+import com.willowleaf.ldapsync.domain.Organization;
+import com.willowleaf.ldapsync.domain.executor.IoExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import static com.willowleaf.ldapsync.domain.persistence.JdbcTable.DEPARTMENT;
+import static com.willowleaf.ldapsync.domain.persistence.JdbcTable.EMPLOYEE;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * <pre>
+ * 使用JDBC批量写入部门和员工数据，代替JPA逐行的SELECT + INSERT/UPDATE。
+ *
+ * MySQL使用多行INSERT ... ON DUPLICATE KEY UPDATE，H2使用多行MERGE，每条语句写入的行数由storage.jdbc.batch-size配置。
+ * 批量持久化组织架构时按主键将数据分为storage.jdbc.partitions个分区并行写入，同一行数据总是在同一个分区中，
+ * 避免并发的语句相互等待行锁。员工数据有部门的外键，因此部门写入完成后再写入员工。
+ * 只有部分字段变化的数据（{@link Employee#getChangedFields()}）使用只更新这些列的UPDATE语句，
+ * 变化的列相同的数据作为一批执行。
+ *
+ * 全量重建（{@link LdapPorter.Mode#REBUILD}）时数据写入影子表，完成后原子地替换正式表。
+ * 替换前需要复制其它数据源的数据，复制和替换期间持有{@link TableLock}的写锁，阻塞本节点所有数据源的写入和删除，
+ * 避免在复制之后写入正式表的数据随旧表一起删除。这个锁只在本进程内有效，
+ * 部署多个节点时其它节点（同步，变更监听，REST接口）在复制之后写入的数据仍然会丢失，
+ * 因此只有确认只有本节点写入这两张表并开启storage.jdbc.single-writer时才允许全量重建。
+ * </pre>
+ *
+ * @see JdbcStorageProperties
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(JdbcStorageProperties.class)
+public class JdbcStorage implements Organization.Storage {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcStorageProperties properties;
+    private final GenerationSweeper generationSweeper;
+
+    /**
+     * 缓存的SQL，key为表名和行数。
+     */
+    private final Map<String, String> statements = new ConcurrentHashMap<>();
+    private volatile SqlDialect dialect;
+
+    /**
+     * 正在全量重建的数据源的影子表，key为数据源ID。
+     */
+    private final Map<Integer, ShadowTables> rebuilds = new ConcurrentHashMap<>();
+
+    /**
+     * 所有数据源共用同一张表，同一时间只允许一个数据源全量重建。
+     */
+    private final Semaphore rebuildPermit = new Semaphore(1);
+
+    /**
+     * 写入和删除数据时持有读锁，替换正式表以及开始、结束写入影子表时持有写锁。
+     */
+    private final TableLock tableLock;
+
+    public JdbcStorage(JdbcTemplate jdbcTemplate, JdbcStorageProperties properties,
+                       GenerationSweeper generationSweeper, TableLock tableLock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = properties;
+        this.generationSweeper = generationSweeper;
+        this.tableLock = tableLock;
+    }
+
+    /**
+     * 全量重建时创建影子表，之后该数据源的数据都写入影子表，只支持MySQL。
+     * 没有开启storage.jdbc.single-writer时拒绝全量重建。
+     */
+    @Override
+    public void begin(@Nonnull DataSource dataSource, @Nonnull LdapPorter.Mode mode) {
+        if (mode != LdapPorter.Mode.REBUILD) {
+            return;
+        }
+        if (getDialect() != SqlDialect.MYSQL) {
+            log.warn("数据库不支持影子表，数据源[{}]使用全量同步代替全量重建", dataSource.getName());
+            return;
+        }
+        if (!properties.isSingleWriter()) {
+            throw new IllegalStateException(String.format("没有开启storage.jdbc.single-writer，"
+                    + "数据源[%s]无法全量重建，请使用全量同步", dataSource.getName()));
+        }
+        if (!rebuildPermit.tryAcquire()) {
+            throw new IllegalStateException(String.format("其它数据源正在全量重建，数据源[%s]无法开始重建",
+                    dataSource.getName()));
+        }
+
+        ShadowTables shadowTables = new ShadowTables(jdbcTemplate, dataSource.getId(),
+                Arrays.asList(DEPARTMENT, EMPLOYEE), properties.isLoadDataLocalInfile());
+        try {
+            shadowTables.create();
+            tableLock.exclusive(() -> rebuilds.put(dataSource.getId(), shadowTables));
+        } catch (RuntimeException e) {
+            shadowTables.discard();
+            rebuildPermit.release();
+            throw e;
+        }
+    }
+
+    /**
+     * <pre>
+     * 全量重建成功时使用影子表替换正式表，失败时删除影子表。
+     *
+     * 替换期间该数据源的数据仍然写入影子表，只有复制其它数据源的数据和替换正式表时阻塞所有写入，
+     * 导入临时文件和重建索引时不阻塞。
+     * </pre>
+     */
+    @Override
+    public void end(@Nonnull DataSource dataSource, boolean succeeded) {
+        ShadowTables shadowTables = rebuilds.get(dataSource.getId());
+        if (shadowTables == null) {
+            return;
+        }
+
+        try {
+            if (succeeded) {
+                tableLock.exclusive(shadowTables::closeFiles);
+                shadowTables.build();
+                tableLock.exclusive(() -> {
+                    shadowTables.swap();
+                    rebuilds.remove(dataSource.getId());
+                });
+                shadowTables.dropOld();
+            } else {
+                tableLock.exclusive(() -> rebuilds.remove(dataSource.getId()));
+                shadowTables.discard();
+            }
+        } catch (RuntimeException e) {
+            if (rebuilds.containsKey(dataSource.getId())) {
+                tableLock.exclusive(() -> rebuilds.remove(dataSource.getId()));
+                shadowTables.discard();
+            }
+            throw e;
+        } finally {
+            rebuildPermit.release();
+        }
+    }
+
+    @Override
+    public void save(@Nonnull final Department department) {
+        upsert(DEPARTMENT, singletonList(department));
+        upsert(EMPLOYEE, department.getEmployees());
+    }
+
+    @Override
+    public void save(@Nonnull final List<Department> departments, @Nonnull IoExecutor executor) {
+        write(DEPARTMENT, departments, executor);
+        write(EMPLOYEE, departments.stream()
+                .flatMap(department -> department.getEmployees().stream())
+                .collect(toList()), executor);
+    }
+
+    @Override
+    public void remove(@Nonnull final Department department, Exception e) {
+        tableLock.shared(() -> {
+            jdbcTemplate.batchUpdate("delete from employee where id = ?", department.getEmployees().stream()
+                    .map(employee -> new Object[]{employee.getId()})
+                    .collect(toList()));
+            jdbcTemplate.update("delete from department where id = ?", department.getId());
+
+            ShadowTables shadowTables = rebuilds.get(DEPARTMENT.getDataSourceId(department));
+            if (shadowTables != null) {
+                department.getEmployees().forEach(employee -> shadowTables.remove(EMPLOYEE, employee.getId()));
+                shadowTables.remove(DEPARTMENT, department.getId());
+            }
+        });
+    }
+
+    @Override
+    public void save(@Nonnull final Employee employee) {
+        upsert(EMPLOYEE, singletonList(employee));
+    }
+
+    @Override
+    public void save(@Nonnull final List<Employee> employees) {
+        upsert(EMPLOYEE, employees);
+    }
+
+    @Override
+    public void remove(@Nonnull final Employee employee) {
+        tableLock.shared(() -> {
+            jdbcTemplate.update("delete from employee where id = ?", employee.getId());
+
+            ShadowTables shadowTables = rebuilds.get(EMPLOYEE.getDataSourceId(employee));
+            if (shadowTables != null) {
+                shadowTables.remove(EMPLOYEE, employee.getId());
+            }
+        });
+    }
+
+    @Override
+    public void sweep(@Nonnull DataSource dataSource, long generation) {
+        tableLock.shared(() -> generationSweeper.sweep(dataSource, generation));
+    }
+
+    @Override
+    public void sweep(@Nonnull DataSource dataSource, long generation,
+                      @Nonnull List<Department> departments, @Nonnull List<Employee> employees) {
+        tableLock.shared(() -> generationSweeper.sweep(dataSource, generation, departments, employees));
+    }
+
+    /**
+     * 按主键将数据分区后并行写入。
+     */
+    private <T> void write(@Nonnull JdbcTable<T> table, @Nonnull List<T> rows, @Nonnull IoExecutor executor) {
+        int partitions = Math.max(1, properties.getPartitions());
+        List<List<T>> partitionedRows = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            partitionedRows.add(new ArrayList<>());
+        }
+        rows.forEach(row -> partitionedRows.get(Math.floorMod(Objects.hashCode(table.id(row)), partitions)).add(row));
+
+        executor.forEach(partitionedRows.stream()
+                .filter(partition -> !partition.isEmpty())
+                .collect(toList()), partition -> upsert(table, partition));
+    }
+
+    /**
+     * 在当前线程中按批次写入数据，数据源正在全量重建时写入影子表。
+     */
+    private <T> void upsert(@Nonnull JdbcTable<T> table, @Nonnull List<T> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        tableLock.shared(() -> upsertLocked(table, rows));
+    }
+
+    private <T> void upsertLocked(@Nonnull JdbcTable<T> table, @Nonnull List<T> rows) {
+        ShadowTables shadowTables = rebuilds.get(table.getDataSourceId(rows.get(0)));
+        if (shadowTables != null && shadowTables.isFileLoad()) {
+            shadowTables.append(table, rows);
+            return;
+        }
+
+        String name = shadowTables == null ? table.getName() : shadowTables.getName(table);
+        List<T> fullRows = shadowTables == null ? update(table, rows) : rows;
+        int batchSize = Math.max(1, properties.getBatchSize());
+        for (int from = 0; from < fullRows.size(); from += batchSize) {
+            List<T> batch = fullRows.subList(from, Math.min(fullRows.size(), from + batchSize));
+            jdbcTemplate.update(getStatement(name, table, batch.size()), table.values(batch));
+        }
+    }
+
+    /**
+     * 按变化的列分组更新只有部分字段变化的数据，没有更新到任何行的数据（已经被删除）改为写入所有列。
+     *
+     * @return 需要写入所有列的数据
+     */
+    @Nonnull
+    private <T> List<T> update(@Nonnull JdbcTable<T> table, @Nonnull List<T> rows) {
+        List<T> remaining = new ArrayList<>(rows.size());
+        Map<List<String>, List<T>> groups = new LinkedHashMap<>();
+        for (T row : rows) {
+            List<String> columns = table.getChangedColumns(row);
+            if (columns == null) {
+                remaining.add(row);
+            } else if (!columns.isEmpty()) {
+                groups.computeIfAbsent(columns, key -> new ArrayList<>()).add(row);
+            }
+        }
+
+        int batchSize = Math.max(1, properties.getBatchSize());
+        groups.forEach((columns, group) -> {
+            String sql = getDialect().update(table.getName(), columns);
+            List<Object[]> values = table.updateValues(group, columns);
+            for (int from = 0; from < values.size(); from += batchSize) {
+                int[] counts = jdbcTemplate.batchUpdate(sql,
+                        values.subList(from, Math.min(values.size(), from + batchSize)));
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 0) {
+                        remaining.add(group.get(from + i));
+                    }
+                }
+            }
+        });
+        return remaining;
+    }
+
+    private String getStatement(@Nonnull String name, @Nonnull JdbcTable<?> table, int rows) {
+        return statements.computeIfAbsent(name + ":" + rows,
+                key -> getDialect().upsert(name, table.getColumns(), rows));
+    }
+
+    private SqlDialect getDialect() {
+        if (dialect == null) {
+            dialect = SqlDialect.of(Objects.requireNonNull(jdbcTemplate.execute((ConnectionCallback<String>)
+                    connection -> connection.getMetaData().getDatabaseProductName())));
+        }
+        return dialect;
+    }
+}
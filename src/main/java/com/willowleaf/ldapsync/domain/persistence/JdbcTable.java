@@ -0,0 +1,233 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import lombok.Getter;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 数据对象与数据库表之间的列映射，与JPA的实体映射保持一致。
+ *
+ * @see JdbcStorage
+ */
+final class JdbcTable<T> {
+
+    static final JdbcTable<Department> DEPARTMENT = new JdbcTable<Department>("department",
+            department -> dataSourceId(department.getDataSource()), Department::getChangedFields)
+            .column("id", Department::getId)
+            .column("id_path", Department::getIdPath)
+            .column("number", Department::getNumber)
+            .column("number_path", Department::getNumberPath)
+            .column("name", Department::getName)
+            .column("name_path", Department::getNamePath)
+            .column("english_name", Department::getEnglishName)
+            .column("english_name_path", Department::getEnglishNamePath)
+            .column("email", Department::getEmail)
+            .column("organization_type", Department::getOrganizationType)
+            .column("parent_name", Department::getParentName)
+            .column("parent_number", Department::getParentNumber)
+            .column("person_in_charge", Department::getPersonInCharge)
+            .column("sequence", Department::getSequence)
+            .column("lft", Department::getLft)
+            .column("rgt", Department::getRgt)
+            .column("depth", Department::getDepth)
+            .column("generation", Department::getGeneration)
+            .column("content_hash", Department::getContentHash)
+            .column("data_source_id", department -> dataSourceId(department.getDataSource()));
+
+    static final JdbcTable<Employee> EMPLOYEE = new JdbcTable<Employee>("employee",
+            employee -> dataSourceId(employee.getDataSource()), Employee::getChangedFields)
+            .column("id", Employee::getId)
+            .column("uid", Employee::getUid)
+            .binaryColumn("password", Employee::getPassword)
+            .column("number", Employee::getNumber)
+            .column("name", Employee::getName)
+            .column("pinyin", Employee::getPinyin)
+            .column("address", Employee::getAddress)
+            .column("birthday", Employee::getBirthday)
+            .column("company_name", Employee::getCompanyName)
+            .column("company_number", Employee::getCompanyNumber)
+            .column("department_number", Employee::getDepartmentNumber)
+            .column("email", Employee::getEmail)
+            .column("english_name", Employee::getEnglishName)
+            .column("gender", Employee::getGender)
+            .column("mobile", Employee::getMobile)
+            .column("mobile_short", Employee::getMobileShort)
+            .column("nation", Employee::getNation)
+            .column("part_time_department_id", Employee::getPartTimeDepartmentId)
+            .column("part_time_position", Employee::getPartTimePosition)
+            .column("position_number", Employee::getPositionNumber)
+            .column("position_name", Employee::getPositionName)
+            .column("status", Employee::getStatus)
+            .column("telephone_number", Employee::getTelephoneNumber)
+            .column("telephone_short", Employee::getTelephoneShort)
+            .column("level", Employee::getLevel)
+            .column("sequence", Employee::getSequence)
+            .column("generation", Employee::getGeneration)
+            .column("content_hash", Employee::getContentHash)
+            .column("department_id", employee -> employee.getDepartment() == null
+                    ? null : employee.getDepartment().getId())
+            .column("data_source_id", employee -> dataSourceId(employee.getDataSource()));
+
+    @Getter
+    private final String name;
+    private final Function<T, Integer> dataSourceId;
+    private final Function<T, Set<String>> changedFields;
+    private final List<String> columns = new ArrayList<>();
+    private final Set<String> binaryColumns = new HashSet<>();
+    private final List<Function<T, Object>> getters = new ArrayList<>();
+
+    /**
+     * 列对应的字段名称（列名的驼峰形式），key为字段名称，value为列的序号。
+     */
+    private final Map<String, Integer> properties = new HashMap<>();
+
+    private JdbcTable(@Nonnull String name, @Nonnull Function<T, Integer> dataSourceId,
+                      @Nonnull Function<T, Set<String>> changedFields) {
+        this.name = name;
+        this.dataSourceId = dataSourceId;
+        this.changedFields = changedFields;
+    }
+
+    private JdbcTable<T> column(@Nonnull String column, @Nonnull Function<T, Object> getter) {
+        properties.put(toProperty(column), columns.size());
+        columns.add(column);
+        getters.add(getter);
+        return this;
+    }
+
+    private JdbcTable<T> binaryColumn(@Nonnull String column, @Nonnull Function<T, Object> getter) {
+        binaryColumns.add(column);
+        return column(column, getter);
+    }
+
+    /**
+     * 返回所有列名，第一列为主键。
+     */
+    @Nonnull
+    List<String> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * 返回列是否为二进制类型。
+     */
+    boolean isBinary(@Nonnull String column) {
+        return binaryColumns.contains(column);
+    }
+
+    /**
+     * 返回数据所属数据源的ID。
+     */
+    Integer getDataSourceId(@Nonnull T row) {
+        return dataSourceId.apply(row);
+    }
+
+    /**
+     * 将多行数据按列的顺序展开为SQL参数。
+     *
+     * @param rows 数据对象
+     * @return SQL参数
+     */
+    @Nonnull
+    Object[] values(@Nonnull List<T> rows) {
+        Object[] values = new Object[rows.size() * getters.size()];
+        int i = 0;
+        for (T row : rows) {
+            for (Function<T, Object> getter : getters) {
+                values[i++] = getter.apply(row);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 返回主键值。
+     */
+    Object id(@Nonnull T row) {
+        return getters.get(0).apply(row);
+    }
+
+    /**
+     * 返回列对应的字段名称。
+     */
+    @Nonnull
+    String getProperty(int column) {
+        return toProperty(columns.get(column));
+    }
+
+    /**
+     * 返回数据第column列的值。
+     */
+    Object value(@Nonnull T row, int column) {
+        return getters.get(column).apply(row);
+    }
+
+    /**
+     * 返回数据发生变化的列（按列的顺序，不包括主键），需要写入所有列时返回null。
+     */
+    List<String> getChangedColumns(@Nonnull T row) {
+        Set<String> fields = changedFields.apply(row);
+        if (fields == null) {
+            return null;
+        }
+
+        List<String> changed = new ArrayList<>(fields.size());
+        for (int i = 1; i < columns.size(); i++) {
+            if (fields.contains(toProperty(columns.get(i)))) {
+                changed.add(columns.get(i));
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 将多行数据按UPDATE语句展开为SQL参数：指定列的值，最后是主键。
+     *
+     * @param rows    数据对象
+     * @param columns 更新的列
+     * @return 每行数据的SQL参数
+     */
+    @Nonnull
+    List<Object[]> updateValues(@Nonnull List<T> rows, @Nonnull List<String> columns) {
+        List<Object[]> values = new ArrayList<>(rows.size());
+        for (T row : rows) {
+            Object[] args = new Object[columns.size() + 1];
+            for (int i = 0; i < columns.size(); i++) {
+                args[i] = getters.get(properties.get(toProperty(columns.get(i)))).apply(row);
+            }
+            args[columns.size()] = id(row);
+            values.add(args);
+        }
+        return values;
+    }
+
+    @Nonnull
+    private static String toProperty(@Nonnull String column) {
+        StringBuilder property = new StringBuilder(column.length());
+        boolean upper = false;
+        for (char c : column.toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else {
+                property.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return property.toString();
+    }
+
+    private static Integer dataSourceId(DataSource dataSource) {
+        return dataSource == null ? null : dataSource.getId();
+    }
+}
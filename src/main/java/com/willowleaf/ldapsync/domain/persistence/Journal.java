@@ -0,0 +1,306 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * <pre>
+ * 只追加的本地日志，由多个段文件和一个检查点文件组成。
+ *
+ * 段文件名为segment-{序号}.log，每条记录的格式为：长度（4字节）+ CRC32（4字节）+ 内容。
+ * 段文件超过指定大小时创建序号加1的新段文件。检查点文件记录已经消费的位置（段序号和偏移量），
+ * 提交检查点时先写入临时文件再原子地替换，然后删除已经消费完的段文件。
+ *
+ * 打开日志时从最后一个段文件中找到最后一条完整的记录，截断之后不完整的内容（进程崩溃时写入了一半的记录）。
+ * </pre>
+ *
+ * @see JournalStorage
+ */
+@Slf4j
+class Journal implements Closeable {
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int HEADER = 8;
+
+    private final Path directory;
+    private final long segmentSize;
+
+    /**
+     * 正在写入的段文件。
+     */
+    private long writeSegment;
+    private FileChannel channel;
+    private long writePosition;
+
+    /**
+     * 已经提交的检查点。
+     */
+    private volatile Position checkpoint;
+
+    Journal(@Nonnull Path directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        checkpoint = readCheckpoint();
+        List<Long> segments = listSegments();
+        writeSegment = segments.isEmpty() ? checkpoint.segment : segments.get(segments.size() - 1);
+        channel = FileChannel.open(segment(writeSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ);
+        long valid = scan(channel);
+        if (valid < channel.size()) {
+            log.warn("截断日志段文件[{}]末尾不完整的记录，有效长度{}，文件长度{}",
+                    segment(writeSegment), valid, channel.size());
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        writePosition = valid;
+    }
+
+    /**
+     * 追加一条记录，不等待写入磁盘。
+     */
+    synchronized void append(@Nonnull byte[] payload) throws IOException {
+        if (writePosition > 0 && writePosition + HEADER + payload.length > segmentSize) {
+            roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        ((Buffer) buffer).flip();   // Java 9开始ByteBuffer重写了flip()，通过Buffer调用以兼容Java 8
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        writePosition += HEADER + payload.length;
+    }
+
+    /**
+     * 将已经追加的记录写入磁盘。
+     */
+    synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * 从检查点开始读取记录，直到读完所有记录或者内容大小达到maxBytes（至少读取一条记录）。
+     *
+     * @param maxBytes 内容的最大字节数
+     * @return 读取的记录，没有新记录时内容为空
+     */
+    @Nonnull
+    Batch read(int maxBytes) throws IOException {
+        long lastSegment;
+        long lastPosition;
+        synchronized (this) {
+            lastSegment = writeSegment;
+            lastPosition = writePosition;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Position position = checkpoint;
+        while (out.size() < maxBytes) {
+            if (position.segment > lastSegment
+                    || position.segment == lastSegment && position.offset >= lastPosition) {
+                break;
+            }
+
+            Path file = segment(position.segment);
+            if (!Files.exists(file)) {
+                position = new Position(position.segment + 1, 0);
+                continue;
+            }
+            try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+                long limit = position.segment == lastSegment ? lastPosition : reader.size();
+                long offset = position.offset;
+                while (offset + HEADER <= limit && out.size() < maxBytes) {
+                    byte[] payload = readRecord(reader, offset, limit);
+                    if (payload == null) {
+                        log.warn("日志段文件[{}]的偏移量{}处的记录已损坏，跳过该段文件剩余的内容", file, offset);
+                        offset = limit;
+                        break;
+                    }
+                    out.write(payload);
+                    offset += HEADER + payload.length;
+                }
+                position = offset + HEADER > limit && position.segment < lastSegment
+                        ? new Position(position.segment + 1, 0)
+                        : new Position(position.segment, offset);
+            }
+        }
+        return new Batch(out.toByteArray(), position);
+    }
+
+    /**
+     * 提交检查点，删除已经消费完的段文件。
+     */
+    void commit(@Nonnull Position position) throws IOException {
+        Path temp = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel writer = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writer.write(ByteBuffer.wrap((position.segment + " " + position.offset)
+                    .getBytes(StandardCharsets.US_ASCII)));
+            writer.force(true);
+        }
+        Files.move(temp, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        checkpoint = position;
+
+        for (Long segment : listSegments()) {
+            if (segment < position.segment) {
+                Files.deleteIfExists(segment(segment));
+            }
+        }
+    }
+
+    /**
+     * 返回是否所有的记录都已经消费。
+     */
+    synchronized boolean isDrained() {
+        Position position = checkpoint;
+        return position.segment > writeSegment
+                || position.segment == writeSegment && position.offset >= writePosition;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+
+    private void roll() throws IOException {
+        channel.force(false);
+        channel.close();
+        writeSegment++;
+        channel = FileChannel.open(segment(writeSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+        writePosition = 0;
+    }
+
+    /**
+     * 返回最后一条完整记录的结束位置。
+     */
+    private static long scan(@Nonnull FileChannel channel) throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        while (offset + HEADER <= size) {
+            byte[] payload = readRecord(channel, offset, size);
+            if (payload == null) {
+                break;
+            }
+            offset += HEADER + payload.length;
+        }
+        return offset;
+    }
+
+    /**
+     * 读取一条记录的内容，记录不完整或者校验失败时返回null。
+     */
+    private static byte[] readRecord(@Nonnull FileChannel channel, long offset, long limit) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        readFully(channel, header, offset);
+        int length = header.getInt(0);
+        if (length < 0 || offset + HEADER + length > limit) {
+            return null;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(channel, payload, offset + HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        return (int) crc.getValue() == header.getInt(4) ? payload.array() : null;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("日志文件意外结束");
+            }
+        }
+    }
+
+    @Nonnull
+    private Position readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT);
+        if (Files.exists(file)) {
+            String[] parts = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim().split(" ");
+            return new Position(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        }
+        List<Long> segments = listSegments();
+        return new Position(segments.isEmpty() ? 0 : segments.get(0), 0);
+    }
+
+    @Nonnull
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Nonnull
+    private Path segment(long segment) {
+        return directory.resolve(String.format("%s%019d%s", PREFIX, segment, SUFFIX));
+    }
+
+    /**
+     * 日志中的位置。
+     */
+    static class Position {
+
+        private final long segment;
+        private final long offset;
+
+        Position(long segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * 一次读取的记录。
+     */
+    static class Batch {
+
+        /**
+         * 所有记录的内容首尾相连。
+         */
+        final byte[] payload;
+
+        /**
+         * 最后一条记录之后的位置，发送成功后作为检查点提交。
+         */
+        final Position end;
+
+        Batch(@Nonnull byte[] payload, @Nonnull Position end) {
+            this.payload = payload;
+            this.end = end;
+        }
+
+        boolean isEmpty() {
+            return payload.length == 0;
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.config.ElasticsearchStorageProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import com.willowleaf.ldapsync.domain.LdapPorter;
+import com.willowleaf.ldapsync.domain.Organization;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Collections.singletonList;
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.common.xcontent.XContentType.JSON;
+
+/**
+ * <pre>
+ * 通过本地预写日志（{@link Journal}）持久化组织架构数据到Elasticsearch。
+ *
+ * 写入时将index/delete操作序列化为批量请求的NDJSON追加到日志，同步结束时将日志写入磁盘，
+ * 同步的耗时与Elasticsearch的可用性无关。后台线程按顺序读取日志，以大批量请求发送到Elasticsearch，
+ * 请求成功后提交检查点，进程重启后从检查点继续发送，数据至少发送一次（index和delete操作是幂等的）。
+ * 请求失败或者文档被拒绝（429，5xx）时等待后重试整个批量请求，其它原因失败的文档记录日志后跳过，
+ * 同时清除该部门（员工）在数据库中的内容哈希（{@link ContentHashes}）。文档发送时同步已经结束，
+ * 不清除的话下次全量同步会因为内容哈希没有变化而跳过该数据，Elasticsearch中的文档一直与数据库不一致。
+ *
+ * 全量重建需要写入新一代索引后切换别名，因此等待日志发送完毕后直接写入{@link ElasticsearchStorage}。
+ * </pre>
+ *
+ * @see ElasticsearchStorageProperties.Journal
+ */
+@Slf4j
+@Component
+public class JournalStorage implements Organization.Storage {
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+    private static final byte[] NEW_LINE = {'\n'};
+    private static final byte[] DOC = "{\"doc\":".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 批量响应中的索引名称：{dept|emp}_{数据源ID}，全量重建之后为别名指向的{dept|emp}_{数据源ID}_{代数}。
+     */
+    private static final Pattern INDEX = Pattern.compile("(dept|emp)_(\\d+)(_\\d+)?");
+
+    private final ElasticsearchStorage elasticsearchStorage;
+    private final RestHighLevelClient client;
+    private final ElasticsearchStorageProperties properties;
+    private final ContentHashes contentHashes;
+
+    /**
+     * 正在全量重建的数据源ID，这些数据源的数据直接写入Elasticsearch。
+     */
+    private final Set<Integer> rebuilding = ConcurrentHashMap.newKeySet();
+
+    private Journal journal;
+    private Thread replayer;
+    private volatile boolean closed;
+
+    public JournalStorage(ElasticsearchStorage elasticsearchStorage,
+                          RestHighLevelClient client,
+                          ElasticsearchStorageProperties properties,
+                          ContentHashes contentHashes) {
+        this.elasticsearchStorage = elasticsearchStorage;
+        this.client = client;
+        this.properties = properties;
+        this.contentHashes = contentHashes;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        ElasticsearchStorageProperties.Journal journalProperties = properties.getJournal();
+        if (!journalProperties.isEnabled()) {
+            return;
+        }
+
+        journal = new Journal(Paths.get(journalProperties.getDirectory()),
+                journalProperties.getSegmentSize().toBytes());
+        replayer = new Thread(this::replay, "es-journal-replayer");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException, InterruptedException {
+        if (journal == null) {
+            return;
+        }
+
+        closed = true;
+        replayer.interrupt();
+        replayer.join(properties.getJournal().getRetryDelay().toMillis());
+        journal.close();
+    }
+
+    @Override
+    public void begin(@Nonnull DataSource dataSource, @Nonnull LdapPorter.Mode mode) {
+        if (mode == LdapPorter.Mode.REBUILD) {
+            if (!awaitDrained()) {
+                throw new IllegalStateException("等待本地日志发送到Elasticsearch超时");
+            }
+            rebuilding.add(dataSource.getId());
+            elasticsearchStorage.begin(dataSource, mode);
+        }
+    }
+
+    /**
+     * 全量重建时结束Elasticsearch的批量写入，否则将日志写入磁盘。
+     */
+    @SneakyThrows
+    @Override
+    public void end(@Nonnull DataSource dataSource, boolean succeeded) {
+        if (rebuilding.remove(dataSource.getId())) {
+            elasticsearchStorage.end(dataSource, succeeded);
+        } else {
+            journal.force();
+        }
+    }
+
+    @SneakyThrows
+    @Override
+    public void save(@Nonnull Department department) {
+        if (isRebuilding(department.getDataSource())) {
+            elasticsearchStorage.save(department);
+            return;
+        }
+
+        journal.append(index(elasticsearchStorage.getDeptIndex(department.getDataSource()),
+                department.getNumber(), department));
+        for (Employee employee : department.getEmployees()) {
+            journal.append(index(elasticsearchStorage.getEmpIndex(employee.getDataSource()),
+                    employee.getUid(), employee));
+        }
+    }
+
+    @SneakyThrows
+    @Override
+    public void remove(@Nonnull Department department, Exception e) {
+        if (isRebuilding(department.getDataSource())) {
+            elasticsearchStorage.remove(department, e);
+            return;
+        }
+
+        journal.append(delete(elasticsearchStorage.getDeptIndex(department.getDataSource()),
+                department.getNumber()));
+        for (Employee employee : department.getEmployees()) {
+            journal.append(delete(elasticsearchStorage.getEmpIndex(employee.getDataSource()), employee.getUid()));
+        }
+    }
+
+    @Override
+    public void save(@Nonnull Employee employee) {
+        save(singletonList(employee));
+    }
+
+    @SneakyThrows
+    @Override
+    public void save(@Nonnull List<Employee> employees) {
+        if (employees.isEmpty()) {
+            return;
+        }
+        if (isRebuilding(employees.get(0).getDataSource())) {
+            elasticsearchStorage.save(employees);
+            return;
+        }
+
+        for (Employee employee : employees) {
+            journal.append(index(elasticsearchStorage.getEmpIndex(employee.getDataSource()),
+                    employee.getUid(), employee));
+        }
+    }
+
+    @SneakyThrows
+    @Override
+    public void remove(@Nonnull Employee employee) {
+        if (isRebuilding(employee.getDataSource())) {
+            elasticsearchStorage.remove(employee);
+            return;
+        }
+
+        journal.append(delete(elasticsearchStorage.getEmpIndex(employee.getDataSource()), employee.getUid()));
+    }
+
+    /**
+     * 日志发送完毕后删除Elasticsearch中的过期文档，否则日志中尚未发送的文档会被暂时删除。
+     * 等待超时时跳过本次删除，下次全量同步时再删除。
+     */
+    @Override
+    public void sweep(@Nonnull DataSource dataSource, long generation) {
+        if (awaitDrained()) {
+            elasticsearchStorage.sweep(dataSource, generation);
+        } else {
+            log.warn("等待本地日志发送到Elasticsearch超时，跳过删除数据源[{}]的过期文档", dataSource.getName());
+        }
+    }
+
+    @Override
+    public void sweep(@Nonnull DataSource dataSource, long generation,
+                      @Nonnull List<Department> departments, @Nonnull List<Employee> employees) {
+        if (awaitDrained()) {
+            elasticsearchStorage.sweep(dataSource, generation, departments, employees);
+        } else {
+            log.warn("等待本地日志发送到Elasticsearch超时，跳过删除数据源[{}]的过期文档", dataSource.getName());
+        }
+    }
+
+    private boolean isRebuilding(DataSource dataSource) {
+        return dataSource != null && rebuilding.contains(dataSource.getId());
+    }
+
+    /**
+     * 等待日志中的数据全部发送到Elasticsearch。
+     *
+     * @return 是否在超时之前发送完毕
+     */
+    @SneakyThrows
+    private boolean awaitDrained() {
+        long deadline = System.currentTimeMillis() + properties.getJournal().getDrainTimeout().toMillis();
+        while (!journal.isDrained()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(properties.getJournal().getReplayInterval().toMillis());
+        }
+        return true;
+    }
+
+    /**
+     * 后台线程：读取日志，发送批量请求，成功后提交检查点。
+     */
+    private void replay() {
+        ElasticsearchStorageProperties.Journal journalProperties = properties.getJournal();
+        int bulkSize = (int) Math.min(Integer.MAX_VALUE, journalProperties.getBulkSize().toBytes());
+        while (!closed) {
+            try {
+                Journal.Batch batch = journal.read(bulkSize);
+                if (batch.isEmpty()) {
+                    Thread.sleep(journalProperties.getReplayInterval().toMillis());
+                    continue;
+                }
+
+                if (send(batch.payload)) {
+                    journal.commit(batch.end);
+                } else {
+                    Thread.sleep(journalProperties.getRetryDelay().toMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (closed) {
+                    return;
+                }
+                log.warn("发送本地日志到Elasticsearch失败，{}后重试", journalProperties.getRetryDelay(), e);
+                try {
+                    Thread.sleep(journalProperties.getRetryDelay().toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 发送批量请求。
+     *
+     * @return 是否可以提交检查点，有文档需要重试时返回false
+     */
+    private boolean send(@Nonnull byte[] ndjson) throws IOException {
+        Request request = new Request("POST", "/_bulk");
+        if (properties.getBulk().isCompression()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(ndjson.length / 4 + 64);
+            try (OutputStream out = new GZIPOutputStream(bytes, 64 * 1024)) {
+                out.write(ndjson);
+            }
+            ByteArrayEntity entity = new ByteArrayEntity(bytes.toByteArray(), NDJSON);
+            entity.setContentEncoding("gzip");
+            request.setEntity(entity);
+        } else {
+            request.setEntity(new ByteArrayEntity(ndjson, NDJSON));
+        }
+
+        Response response = client.getLowLevelClient().performRequest(request);
+        BulkResponse bulkResponse;
+        try (InputStream content = response.getEntity().getContent();
+             XContentParser parser = JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                     DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
+            bulkResponse = BulkResponse.fromXContent(parser);
+        }
+        if (!bulkResponse.hasFailures()) {
+            return true;
+        }
+
+        boolean retry = false;
+        for (BulkItemResponse item : bulkResponse.getItems()) {
+            if (!item.isFailed()) {
+                continue;
+            }
+            RestStatus status = item.status();
+            if (status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500) {
+                retry = true;
+            } else {
+                log.error("本地日志中的文档写入Elasticsearch失败: {}/{}, {}",
+                        item.getIndex(), item.getId(), item.getFailureMessage());
+                retry |= !invalidate(item);
+            }
+        }
+        return !retry;
+    }
+
+    /**
+     * 清除写入失败的文档对应的内容哈希，删除操作失败时不需要清除。
+     *
+     * @return 是否清除成功，失败时重试整个批量请求
+     */
+    private boolean invalidate(@Nonnull BulkItemResponse item) {
+        Matcher matcher = INDEX.matcher(item.getIndex());
+        if (item.getOpType() == DocWriteRequest.OpType.DELETE || !matcher.matches()) {
+            return true;
+        }
+
+        int dataSourceId = Integer.parseInt(matcher.group(2));
+        try {
+            if ("dept".equals(matcher.group(1))) {
+                contentHashes.invalidateDepartment(dataSourceId, item.getId());
+            } else {
+                contentHashes.invalidateEmployee(dataSourceId, item.getId());
+            }
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("清除文档{}/{}的内容哈希失败", item.getIndex(), item.getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 序列化写入文档的操作，只有部分字段变化时使用update操作只更新这些字段。
+     */
+    @Nonnull
+    private static byte[] index(@Nonnull String index, @Nonnull String id, @Nonnull Object model)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        Set<String> fields = ElasticsearchStorage.getChangedFields(model);
+        if (fields == null) {
+            action(out, "index", index, id);
+            DocumentSerializer.toDocument(model).writeTo(out);
+        } else {
+            action(out, "update", index, id);
+            out.write(DOC);
+            DocumentSerializer.toPartialDocument(model, fields).writeTo(out);
+            out.write('}');
+        }
+        out.write(NEW_LINE);
+        return out.toByteArray();
+    }
+
+    @Nonnull
+    private static byte[] delete(@Nonnull String index, @Nonnull String id) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        action(out, "delete", index, id);
+        return out.toByteArray();
+    }
+
+    private static void action(OutputStream out, String action, String index, String id) throws IOException {
+        try (XContentBuilder builder = jsonBuilder()) {
+            builder.startObject().startObject(action)
+                    .field("_index", index)
+                    .field("_id", id)
+                    .endObject().endObject();
+            BytesReference.bytes(builder).writeTo(out);
+        }
+        out.write(NEW_LINE);
+    }
+}
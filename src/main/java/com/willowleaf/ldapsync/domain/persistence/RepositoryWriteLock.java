@@ -0,0 +1,45 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * <pre>
+ * 部门和员工Repository的写入和删除持有{@link TableLock}的读锁。
+ *
+ * 包括JPA持久化（{@link DatabaseStorage}）和Spring Data REST接口的写入，
+ * 避免全量重建复制其它数据源的数据之后写入正式表的数据随旧表一起删除。
+ * </pre>
+ */
+@Aspect
+@Component
+public class RepositoryWriteLock {
+
+    private final TableLock tableLock;
+
+    public RepositoryWriteLock(TableLock tableLock) {
+        this.tableLock = tableLock;
+    }
+
+    @Pointcut("(execution(* save*(..)) || execution(* delete*(..)))"
+            + " && (target(com.willowleaf.ldapsync.data.DepartmentRepository)"
+            + " || target(com.willowleaf.ldapsync.data.EmployeeRepository))")
+    public void repositoryWrite() {
+    }
+
+    @Around("repositoryWrite()")
+    public Object writeAround(ProceedingJoinPoint joinPoint) throws Throwable {
+        Lock lock = tableLock.sharedLock();
+        lock.lock();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * <pre>
+ * 全量重建数据源时使用的MySQL影子表。
+ *
+ * 1. 使用CREATE TABLE ... LIKE创建与正式表结构相同的影子表，删除影子表的二级索引。
+ * 2. 数据源的数据写入影子表：开启LOAD DATA LOCAL INFILE时先写入临时文件，重建结束时一次性导入，否则使用多行INSERT写入。
+ * 3. 导入临时文件，重新创建二级索引和外键，外键名称在原名称与带_shadow后缀的名称之间交替，避免与正式表的外键重名。
+ * 4. 复制正式表中其它数据源的数据，使用RENAME TABLE原子地替换所有正式表，然后删除旧表。
+ *    调用方需要在这一步阻塞所有数据源对正式表的写入，否则复制之后写入正式表的数据会随旧表一起删除。
+ *    {@link TableLock}只能阻塞本节点的写入，其它节点的写入由storage.jdbc.single-writer保证不会发生。
+ *
+ * 所有的表共用一次RENAME TABLE，employee的外键在重命名后指向新的department表。
+ * 重建期间删除的数据同样从影子表中删除，写入临时文件期间删除的数据在导入临时文件后删除。
+ * </pre>
+ *
+ * @see JdbcStorage
+ */
+@Slf4j
+class ShadowTables {
+
+    private static final String SHADOW = "_shadow";
+    private static final String OLD = "_old";
+    private static final String NULL = "\\N";
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Integer dataSourceId;
+    private final List<JdbcTable<?>> tables;
+
+    /**
+     * 是否先写入临时文件再使用LOAD DATA LOCAL INFILE导入。
+     */
+    private final boolean fileLoad;
+    private final Map<JdbcTable<?>, Path> files = new HashMap<>();
+    private final Map<JdbcTable<?>, Writer> writers = new HashMap<>();
+
+    /**
+     * 临时文件是否已经关闭，关闭后数据直接写入影子表。
+     */
+    private volatile boolean filesClosed;
+
+    /**
+     * 写入临时文件期间删除的数据的主键，导入临时文件后删除。
+     */
+    private final Map<JdbcTable<?>, Set<Object>> removedIds = new ConcurrentHashMap<>();
+
+    /**
+     * 影子表被删除的二级索引定义，key为表名。
+     */
+    private final Map<String, List<String>> indexes = new HashMap<>();
+
+    ShadowTables(@Nonnull JdbcTemplate jdbcTemplate, @Nonnull Integer dataSourceId,
+                 @Nonnull List<JdbcTable<?>> tables, boolean fileLoad) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSourceId = dataSourceId;
+        this.tables = tables;
+        this.fileLoad = fileLoad;
+    }
+
+    /**
+     * 返回数据是否写入临时文件。
+     */
+    boolean isFileLoad() {
+        return fileLoad && !filesClosed;
+    }
+
+    /**
+     * 返回表对应的影子表名称。
+     */
+    @Nonnull
+    String getName(@Nonnull JdbcTable<?> table) {
+        return table.getName() + SHADOW;
+    }
+
+    /**
+     * 创建影子表并删除影子表的二级索引。
+     */
+    @SneakyThrows
+    void create() {
+        // 删除上次重建残留的表，被引用的表最后删除
+        for (JdbcTable<?> table : reversed()) {
+            jdbcTemplate.execute("drop table if exists " + getName(table));
+            jdbcTemplate.execute("drop table if exists " + table.getName() + OLD);
+        }
+
+        for (JdbcTable<?> table : tables) {
+            String shadow = getName(table);
+            jdbcTemplate.execute("create table " + shadow + " like " + table.getName());
+
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList("select index_name, non_unique, column_name " +
+                    "from information_schema.statistics where table_schema = database() and table_name = ? " +
+                    "and index_name <> 'PRIMARY' order by index_name, seq_in_index", shadow);
+            Map<String, List<Map<String, Object>>> columns = new LinkedHashMap<>();
+            rows.forEach(row -> columns.computeIfAbsent((String) row.get("index_name"), name -> new ArrayList<>())
+                    .add(row));
+            indexes.put(shadow, columns.entrySet().stream()
+                    .map(index -> (isUnique(index.getValue()) ? "add unique index " : "add index ") + index.getKey()
+                            + " (" + index.getValue().stream()
+                            .map(row -> (String) row.get("column_name"))
+                            .collect(joining(", ")) + ")")
+                    .collect(toList()));
+            for (String index : columns.keySet()) {
+                jdbcTemplate.execute("alter table " + shadow + " drop index " + index);
+            }
+
+            if (fileLoad) {
+                Path file = Files.createTempFile(shadow + "_" + dataSourceId + "_", ".tsv");
+                files.put(table, file);
+                writers.put(table, Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * 将数据追加到临时文件中，格式为LOAD DATA的默认格式。
+     */
+    @SneakyThrows
+    <T> void append(@Nonnull JdbcTable<T> table, @Nonnull List<T> rows) {
+        Object[] values = table.values(rows);
+        int columns = table.getColumns().size();
+        StringBuilder builder = new StringBuilder(values.length * 16);
+        for (int i = 0; i < values.length; i++) {
+            builder.append(format(values[i])).append(i % columns == columns - 1 ? '\n' : '\t');
+        }
+
+        Writer writer = writers.get(table);
+        synchronized (writer) {
+            writer.write(builder.toString());
+        }
+    }
+
+    /**
+     * 从影子表中删除数据，写入临时文件期间只记录主键。
+     */
+    void remove(@Nonnull JdbcTable<?> table, @Nonnull Object id) {
+        if (isFileLoad()) {
+            removedIds.computeIfAbsent(table, key -> ConcurrentHashMap.newKeySet()).add(id);
+        } else {
+            jdbcTemplate.update("delete from " + getName(table) + " where id = ?", id);
+        }
+    }
+
+    /**
+     * 关闭临时文件，之后的数据直接写入影子表。调用方需要阻塞写入，避免关闭时仍有数据追加到临时文件。
+     */
+    @SneakyThrows
+    void closeFiles() {
+        closeWriters();
+        filesClosed = true;
+    }
+
+    /**
+     * 导入临时文件，删除写入临时文件期间删除的数据，然后重建索引和外键。
+     */
+    void build() {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                if (fileLoad) {
+                    for (JdbcTable<?> table : tables) {
+                        statement.execute(loadData(table));
+                    }
+                }
+                for (JdbcTable<?> table : reversed()) {
+                    Set<Object> ids = removedIds.getOrDefault(table, Collections.emptySet());
+                    if (!ids.isEmpty()) {
+                        jdbcTemplate.batchUpdate("delete from " + getName(table) + " where id = ?",
+                                ids.stream().map(id -> new Object[]{id}).collect(toList()));
+                    }
+                }
+
+                // 数据来自于完整的组织架构，添加外键时不再逐行校验
+                statement.execute("set foreign_key_checks = 0");
+                try {
+                    for (JdbcTable<?> table : tables) {
+                        List<String> definitions = new ArrayList<>(indexes.get(getName(table)));
+                        definitions.addAll(getForeignKeys(table));
+                        if (!definitions.isEmpty()) {
+                            statement.execute("alter table " + getName(table) + " " + String.join(", ", definitions));
+                        }
+                    }
+                } finally {
+                    statement.execute("set foreign_key_checks = 1");
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 复制其它数据源的数据后替换正式表，调用方需要阻塞所有数据源对正式表的写入。
+     */
+    void swap() {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                // 其它数据源的数据来自于满足外键约束的正式表
+                statement.execute("set foreign_key_checks = 0");
+                try {
+                    for (JdbcTable<?> table : tables) {
+                        statement.execute("insert into " + getName(table) + " select * from " + table.getName()
+                                + " where data_source_id is null or data_source_id <> " + dataSourceId);
+                    }
+                } finally {
+                    statement.execute("set foreign_key_checks = 1");
+                }
+
+                statement.execute("rename table " + tables.stream()
+                        .map(table -> table.getName() + " to " + table.getName() + OLD + ", "
+                                + getName(table) + " to " + table.getName())
+                        .collect(joining(", ")));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 替换完成后删除旧表和临时文件。
+     */
+    void dropOld() {
+        for (JdbcTable<?> table : reversed()) {
+            jdbcTemplate.execute("drop table " + table.getName() + OLD);
+        }
+        deleteFiles();
+    }
+
+    /**
+     * 放弃重建，删除影子表和临时文件。
+     */
+    void discard() {
+        try {
+            closeWriters();
+            for (JdbcTable<?> table : reversed()) {
+                jdbcTemplate.execute("drop table if exists " + getName(table));
+            }
+        } catch (Exception e) {
+            log.error("删除数据源[{}]的影子表失败", dataSourceId, e);
+        } finally {
+            deleteFiles();
+        }
+    }
+
+    @Nonnull
+    private String loadData(@Nonnull JdbcTable<?> table) {
+        List<String> columns = table.getColumns();
+        return "load data local infile '" + files.get(table).toAbsolutePath().toString().replace("\\", "\\\\")
+                + "' into table " + getName(table) + " character set utf8mb4 ("
+                + columns.stream()
+                .map(column -> table.isBinary(column) ? "@" + column : column)
+                .collect(joining(", ")) + ")"
+                + columns.stream()
+                .filter(table::isBinary)
+                .map(column -> column + " = unhex(@" + column + ")")
+                .collect(joining(", ", columns.stream().anyMatch(table::isBinary) ? " set " : "", ""));
+    }
+
+    /**
+     * 返回正式表的外键定义，引用重建的表时改为引用影子表。
+     */
+    @Nonnull
+    private List<String> getForeignKeys(@Nonnull JdbcTable<?> table) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList("select constraint_name, column_name, " +
+                "referenced_table_name, referenced_column_name from information_schema.key_column_usage " +
+                "where table_schema = database() and table_name = ? and referenced_table_name is not null " +
+                "order by constraint_name, ordinal_position", table.getName());
+        Set<String> rebuilt = new HashSet<>();
+        tables.forEach(t -> rebuilt.add(t.getName()));
+
+        Map<String, List<Map<String, Object>>> foreignKeys = new LinkedHashMap<>();
+        rows.forEach(row -> foreignKeys.computeIfAbsent((String) row.get("constraint_name"),
+                name -> new ArrayList<>()).add(row));
+        return foreignKeys.entrySet().stream()
+                .map(foreignKey -> {
+                    List<Map<String, Object>> columns = foreignKey.getValue();
+                    String referencedTable = (String) columns.get(0).get("referenced_table_name");
+                    return "add constraint " + toggleName(foreignKey.getKey())
+                            + " foreign key (" + join(columns, "column_name") + ") references "
+                            + (rebuilt.contains(referencedTable) ? referencedTable + SHADOW : referencedTable)
+                            + " (" + join(columns, "referenced_column_name") + ")";
+                })
+                .collect(toList());
+    }
+
+    private List<JdbcTable<?>> reversed() {
+        List<JdbcTable<?>> reversed = new ArrayList<>(tables);
+        Collections.reverse(reversed);
+        return reversed;
+    }
+
+    private static String toggleName(String name) {
+        return name.endsWith(SHADOW) ? name.substring(0, name.length() - SHADOW.length()) : name + SHADOW;
+    }
+
+    private static String join(List<Map<String, Object>> rows, String column) {
+        return rows.stream().map(row -> (String) row.get(column)).collect(joining(", "));
+    }
+
+    private static boolean isUnique(List<Map<String, Object>> columns) {
+        Object nonUnique = columns.get(0).get("non_unique");
+        return nonUnique != null && Integer.parseInt(nonUnique.toString()) == 0;
+    }
+
+    @Nonnull
+    private static String format(Object value) {
+        if (value == null) {
+            return NULL;
+        }
+        if (value instanceof byte[]) {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : (byte[]) value) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        if (value instanceof LocalDateTime) {
+            return DATE_TIME.format((LocalDateTime) value);
+        }
+        return value.toString()
+                .replace("\\", "\\\\")
+                .replace("\t", "\\t")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r");
+    }
+
+    private void closeWriters() throws IOException {
+        for (Writer writer : writers.values()) {
+            writer.close();
+        }
+    }
+
+    private void deleteFiles() {
+        files.values().forEach(file -> {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("删除临时文件[{}]失败", file, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,604 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.annotation.Ignore;
+import com.willowleaf.ldapsync.annotation.Metadata;
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * <pre>
+ * 组织架构的二进制快照，用于比较两次同步之间的变化以及重启时恢复组织架构。
+ *
+ * 文件格式（版本1）：
+ *   文件头（32字节）：魔数LSNP，版本（2字节），标志（2字节），数据源ID（4字节），保留（4字节），
+ *                    代数（8字节），内容的长度（8字节，压缩之前）
+ *   内容（标志包含DEFLATE时整体使用deflate压缩）：
+ *     字符串表：字符串个数，每个字符串为长度 + UTF-8字节，部门和员工中相同的字符串只保存一次
+ *     部门段和员工段：字段个数，每个字段名称的字符串序号；记录个数，所有记录的字节数，记录
+ *     记录：长度 + 唯一标识（部门编号，员工uid）的字符串序号 + 内容哈希（8字节）+ 每个字段的类型标记和值
+ * 整数使用变长编码，有符号整数先使用zigzag编码。每段的记录按唯一标识排序，
+ * 两个快照可以按顺序归并比较（{@link SnapshotDiff}），不需要读取数据库。
+ *
+ * 读取时使用内存映射文件，压缩的快照解压到堆内存。记录在遍历时只解析唯一标识和内容哈希，
+ * 需要时再解析为数据对象，文件中有而当前类中没有的字段被跳过。
+ * </pre>
+ *
+ * @see SnapshotStore
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0x4c534e50;   // LSNP
+    private static final short VERSION = 1;
+    private static final short DEFLATE = 1;
+    private static final int HEADER = 32;
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int DATE_TIME = 4;
+    private static final int BYTES = 5;
+
+    private static final Map<Class<?>, Layout> LAYOUTS = new ConcurrentHashMap<>();
+
+    @Getter
+    private final int dataSourceId;
+    @Getter
+    private final long generation;
+
+    private final ByteBuffer body;
+    private final String[] strings;
+    private final Section departments;
+    private final Section employees;
+
+    private Snapshot(int dataSourceId, long generation, @Nonnull ByteBuffer body) {
+        this.dataSourceId = dataSourceId;
+        this.generation = generation;
+        this.body = body;
+
+        ByteBuffer in = body.duplicate();
+        strings = new String[readVarInt(in)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[readVarInt(in)];
+            in.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        departments = new Section(in);
+        employees = new Section(in);
+    }
+
+    /**
+     * 打开快照文件。
+     */
+    @Nonnull
+    public static Snapshot open(@Nonnull Path file) throws IOException {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapped.limit() < HEADER || mapped.getInt(0) != MAGIC) {
+            throw new IOException("不是快照文件: " + file);
+        }
+        if (mapped.getShort(4) != VERSION) {
+            throw new IOException("不支持的快照版本" + mapped.getShort(4) + ": " + file);
+        }
+
+        boolean deflate = (mapped.getShort(6) & DEFLATE) != 0;
+        int dataSourceId = mapped.getInt(8);
+        long generation = mapped.getLong(16);
+        long length = mapped.getLong(24);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("快照内容超过2GB: " + file);
+        }
+
+        ByteBuffer content = position(mapped, HEADER).slice();
+        if (!deflate) {
+            return new Snapshot(dataSourceId, generation, content);
+        }
+
+        // Java 8的Inflater只支持字节数组
+        byte[] input = new byte[content.remaining()];
+        content.get(input);
+        byte[] body = new byte[(int) length];
+        int inflated = 0;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            while (inflated < body.length && !inflater.finished()) {
+                int n = inflater.inflate(body, inflated, body.length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("快照内容不完整: " + file);
+                }
+                inflated += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("快照内容已损坏: " + file, e);
+        } finally {
+            inflater.end();
+        }
+        if (inflated < body.length) {
+            throw new IOException("快照内容不完整: " + file);
+        }
+        return new Snapshot(dataSourceId, generation, ByteBuffer.wrap(body));
+    }
+
+    /**
+     * <pre>
+     * 通过Buffer设置位置。Java 9开始ByteBuffer重写了position(int)并返回ByteBuffer，
+     * 在Java 9以上编译时直接调用ByteBuffer的方法，生成的字节码在Java 8上会抛出NoSuchMethodError。
+     * </pre>
+     */
+    @Nonnull
+    private static ByteBuffer position(@Nonnull ByteBuffer buffer, int position) {
+        ((Buffer) buffer).position(position);
+        return buffer;
+    }
+
+    /**
+     * 返回按部门编号排序的部门记录。
+     */
+    @Nonnull
+    public Iterator<Record> departments() {
+        return departments.iterator();
+    }
+
+    /**
+     * 返回按uid排序的员工记录。
+     */
+    @Nonnull
+    public Iterator<Record> employees() {
+        return employees.iterator();
+    }
+
+    public int getDepartmentCount() {
+        return departments.count;
+    }
+
+    public int getEmployeeCount() {
+        return employees.count;
+    }
+
+    /**
+     * 读取所有部门（包括内容哈希），员工按部门编号加入所属部门的员工列表，部门不存在的员工被忽略。
+     */
+    @Nonnull
+    public List<Department> readDepartments() {
+        Map<String, Department> departmentMap = new LinkedHashMap<>(departments.count * 2);
+        departments().forEachRemaining(record -> {
+            Department department = record.toDepartment();
+            department.setContentHash(record.getContentHash());
+            departmentMap.put(department.getNumber(), department);
+        });
+        employees().forEachRemaining(record -> {
+            Employee employee = record.toEmployee();
+            employee.setContentHash(record.getContentHash());
+            Department department = departmentMap.get(employee.getDepartmentNumber());
+            if (department != null) {
+                employee.setDepartment(department);
+                department.getEmployees().add(employee);
+            }
+        });
+        return new ArrayList<>(departmentMap.values());
+    }
+
+    /**
+     * 快照中的一条记录。
+     */
+    public final class Record {
+
+        @Getter
+        private final String key;
+        @Getter
+        private final long contentHash;
+        private final Section section;
+        private final int offset;
+
+        private Record(@Nonnull String key, long contentHash, @Nonnull Section section, int offset) {
+            this.key = key;
+            this.contentHash = contentHash;
+            this.section = section;
+            this.offset = offset;
+        }
+
+        @Nonnull
+        public Department toDepartment() {
+            return decode(Department.class);
+        }
+
+        @Nonnull
+        public Employee toEmployee() {
+            return decode(Employee.class);
+        }
+
+        @Nonnull
+        @SneakyThrows
+        private <T> T decode(@Nonnull Class<T> clazz) {
+            Layout layout = LAYOUTS.computeIfAbsent(clazz, Layout::new);
+            T object = clazz.getDeclaredConstructor().newInstance();
+            ByteBuffer in = position(body.duplicate(), offset);
+            for (String field : section.fields) {
+                Object value = readValue(in);
+                Integer index = layout.indices.get(field);
+                if (index != null) {
+                    layout.setters[index].invoke(object, convert(value, layout.types[index]));
+                }
+            }
+            return object;
+        }
+    }
+
+    /**
+     * 部门或员工段。
+     */
+    private class Section {
+
+        private final String[] fields;
+        private final int count;
+        private final int offset;
+
+        private Section(@Nonnull ByteBuffer in) {
+            fields = new String[readVarInt(in)];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = strings[readVarInt(in)];
+            }
+            count = readVarInt(in);
+            int length = readVarInt(in);
+            offset = in.position();
+            position(in, offset + length);
+        }
+
+        @Nonnull
+        private Iterator<Record> iterator() {
+            ByteBuffer in = position(body.duplicate(), offset);
+            return new Iterator<Record>() {
+
+                private int remaining = count;
+
+                @Override
+                public boolean hasNext() {
+                    return remaining > 0;
+                }
+
+                @Override
+                public Record next() {
+                    if (remaining-- <= 0) {
+                        throw new NoSuchElementException();
+                    }
+                    int length = readVarInt(in);
+                    int end = in.position() + length;
+                    String key = strings[readVarInt(in)];
+                    long contentHash = in.getLong();
+                    Record record = new Record(key, contentHash, Section.this, in.position());
+                    position(in, end);
+                    return record;
+                }
+            };
+        }
+    }
+
+    /**
+     * <pre>
+     * 收集一次同步的部门和员工并写入快照文件。
+     * 数据在加入时立即编码，字符串放入字符串表，写入时按唯一标识排序，同一唯一标识只保留最后加入的数据。
+     * 编码后的记录在写入之前都保存在堆内存中，占用的内存与数据源的部门和员工个数成正比。
+     * </pre>
+     */
+    public static final class Writer {
+
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final List<Entry> departments = new ArrayList<>();
+        private final List<Entry> employees = new ArrayList<>();
+        private final Layout departmentLayout = LAYOUTS.computeIfAbsent(Department.class, Layout::new);
+        private final Layout employeeLayout = LAYOUTS.computeIfAbsent(Employee.class, Layout::new);
+
+        public Writer() {
+            for (String name : departmentLayout.names) {
+                intern(name);
+            }
+            for (String name : employeeLayout.names) {
+                intern(name);
+            }
+        }
+
+        public synchronized void add(@Nonnull Department department) {
+            long hash = department.getContentHash() == null
+                    ? ContentHasher.hash(department) : department.getContentHash();
+            departments.add(encode(departmentLayout, department.getNumber(), hash, department));
+        }
+
+        public synchronized void add(@Nonnull Employee employee) {
+            long hash = employee.getContentHash() == null ? ContentHasher.hash(employee) : employee.getContentHash();
+            employees.add(encode(employeeLayout, employee.getUid(), hash, employee));
+        }
+
+        /**
+         * 写入快照文件，先写入临时文件再原子地替换。
+         */
+        public synchronized void write(@Nonnull Path file, int dataSourceId, long generation, boolean compression)
+                throws IOException {
+            Output body = new Output(1024 * 1024);
+            body.writeVarInt(strings.size());
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                body.writeVarInt(bytes.length);
+                body.write(bytes);
+            }
+            writeSection(body, departmentLayout, departments);
+            writeSection(body, employeeLayout, employees);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER)
+                    .putInt(MAGIC)
+                    .putShort(VERSION)
+                    .putShort(compression ? DEFLATE : (short) 0)
+                    .putInt(dataSourceId)
+                    .putInt(0)
+                    .putLong(generation)
+                    .putLong(body.size());
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(header.array());
+                if (compression) {
+                    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                    try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, 64 * 1024)) {
+                        body.writeTo(deflaterOut);
+                    } finally {
+                        deflater.end();
+                    }
+                } else {
+                    body.writeTo(out);
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private void writeSection(@Nonnull Output body, @Nonnull Layout layout, @Nonnull List<Entry> entries) {
+            body.writeVarInt(layout.names.length);
+            for (String name : layout.names) {
+                body.writeVarInt(strings.get(name));
+            }
+
+            entries.sort(Comparator.comparing(entry -> entry.key));   // 稳定排序，相同唯一标识的数据保持加入的顺序
+            List<Entry> unique = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                if (i + 1 == entries.size() || !entries.get(i).key.equals(entries.get(i + 1).key)) {
+                    unique.add(entries.get(i));
+                }
+            }
+
+            Output records = new Output(unique.size() * 64 + 16);
+            for (Entry entry : unique) {
+                records.writeVarInt(entry.bytes.length);
+                records.write(entry.bytes);
+            }
+            body.writeVarInt(unique.size());
+            body.writeVarInt(records.size());
+            records.writeTo(body);
+        }
+
+        @Nonnull
+        @SneakyThrows
+        private Entry encode(@Nonnull Layout layout, String key, long hash, @Nonnull Object object) {
+            String nonNullKey = key == null ? "" : key;
+            Output out = new Output(256);
+            out.writeVarInt(intern(nonNullKey));
+            out.writeLong(hash);
+            for (MethodHandle getter : layout.getters) {
+                Object value = getter.invoke(object);
+                if (value == null) {
+                    out.write(NULL);
+                } else if (value instanceof String) {
+                    out.write(STRING);
+                    out.writeVarInt(intern((String) value));
+                } else if (value instanceof Integer) {
+                    out.write(INT);
+                    out.writeVarLong(zigzag((Integer) value));
+                } else if (value instanceof Long) {
+                    out.write(LONG);
+                    out.writeVarLong(zigzag((Long) value));
+                } else if (value instanceof LocalDateTime) {
+                    LocalDateTime dateTime = (LocalDateTime) value;
+                    out.write(DATE_TIME);
+                    out.writeVarLong(zigzag(dateTime.toEpochSecond(ZoneOffset.UTC)));
+                    out.writeVarInt(dateTime.getNano());
+                } else if (value instanceof byte[]) {
+                    out.write(BYTES);
+                    out.writeVarInt(((byte[]) value).length);
+                    out.write((byte[]) value);
+                } else {
+                    out.write(STRING);
+                    out.writeVarInt(intern(value.toString()));
+                }
+            }
+            return new Entry(nonNullKey, out.toByteArray());
+        }
+
+        private int intern(@Nonnull String string) {
+            return strings.computeIfAbsent(string, key -> strings.size());
+        }
+    }
+
+    /**
+     * 编码之后的一条记录。
+     */
+    private static class Entry {
+
+        private final String key;
+        private final byte[] bytes;
+
+        private Entry(@Nonnull String key, @Nonnull byte[] bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * 数据对象参与快照的字段：没有{@link Ignore}和{@link Metadata}注解的非静态字段。
+     */
+    private static class Layout {
+
+        private final String[] names;
+        private final Class<?>[] types;
+        private final MethodHandle[] getters;
+        private final MethodHandle[] setters;
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        @SneakyThrows
+        private Layout(@Nonnull Class<?> clazz) {
+            List<Field> fields = new ArrayList<>();
+            for (Field field : clazz.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())
+                        && field.getDeclaredAnnotation(Ignore.class) == null
+                        && field.getDeclaredAnnotation(Metadata.class) == null) {
+                    fields.add(field);
+                }
+            }
+
+            names = new String[fields.size()];
+            types = new Class<?>[fields.size()];
+            getters = new MethodHandle[fields.size()];
+            setters = new MethodHandle[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                field.setAccessible(true);
+                names[i] = field.getName();
+                types[i] = field.getType();
+                getters[i] = MethodHandles.lookup().unreflectGetter(field);
+                setters[i] = MethodHandles.lookup().unreflectSetter(field);
+                indices.put(names[i], i);
+            }
+        }
+    }
+
+    private Object readValue(@Nonnull ByteBuffer in) {
+        int tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return strings[readVarInt(in)];
+            case INT:
+                return (int) unzigzag(readVarLong(in));
+            case LONG:
+                return unzigzag(readVarLong(in));
+            case DATE_TIME:
+                return LocalDateTime.ofEpochSecond(unzigzag(readVarLong(in)), readVarInt(in), ZoneOffset.UTC);
+            case BYTES:
+                byte[] bytes = new byte[readVarInt(in)];
+                in.get(bytes);
+                return bytes;
+            default:
+                throw new IllegalStateException("快照中未知的类型标记: " + tag);
+        }
+    }
+
+    /**
+     * 将快照中的值转换为字段的类型，类型不兼容时返回null。
+     */
+    private static Object convert(Object value, @Nonnull Class<?> type) {
+        if (value == null || type.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof Number && (type == Integer.class || type == Long.class)) {
+            return type == Integer.class ? (Object) ((Number) value).intValue() : (Object) ((Number) value).longValue();
+        }
+        return type == String.class ? value.toString() : null;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int readVarInt(@Nonnull ByteBuffer in) {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(@Nonnull ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * 支持变长整数的字节输出。
+     */
+    private static class Output extends ByteArrayOutputStream {
+
+        private Output(int size) {
+            super(size);
+        }
+
+        private void writeVarInt(int value) {
+            writeVarLong(value & 0xffffffffL);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (value >>> shift));
+            }
+        }
+
+        @Override
+        public void write(@Nonnull byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+
+        private void writeTo(@Nonnull Output out) {
+            out.write(buf, 0, count);
+        }
+    }
+}
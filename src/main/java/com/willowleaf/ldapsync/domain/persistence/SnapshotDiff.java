@@ -0,0 +1,69 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+
+/**
+ * <pre>
+ * 按唯一标识的顺序归并比较两个快照中的记录，只需要顺序读取一次，不需要读取数据库。
+ * 唯一标识相同而内容哈希不同的记录为变化的记录。
+ * </pre>
+ *
+ * @see Snapshot#departments()
+ * @see Snapshot#employees()
+ */
+public final class SnapshotDiff {
+
+    private SnapshotDiff() {
+    }
+
+    /**
+     * 比较两组按唯一标识排序的记录。
+     *
+     * @param before   旧快照的记录
+     * @param after    新快照的记录
+     * @param listener 接收变化
+     */
+    public static void diff(@Nonnull Iterator<Snapshot.Record> before, @Nonnull Iterator<Snapshot.Record> after,
+                            @Nonnull Listener listener) {
+        Snapshot.Record left = before.hasNext() ? before.next() : null;
+        Snapshot.Record right = after.hasNext() ? after.next() : null;
+        while (left != null || right != null) {
+            int order = left == null ? 1 : right == null ? -1 : left.getKey().compareTo(right.getKey());
+            if (order < 0) {
+                listener.removed(left);
+                left = before.hasNext() ? before.next() : null;
+            } else if (order > 0) {
+                listener.added(right);
+                right = after.hasNext() ? after.next() : null;
+            } else {
+                if (left.getContentHash() != right.getContentHash()) {
+                    listener.changed(left, right);
+                }
+                left = before.hasNext() ? before.next() : null;
+                right = after.hasNext() ? after.next() : null;
+            }
+        }
+    }
+
+    /**
+     * 接收两个快照之间的变化。
+     */
+    public interface Listener {
+
+        /**
+         * 新快照中新增的记录。
+         */
+        void added(@Nonnull Snapshot.Record after);
+
+        /**
+         * 新快照中已经删除的记录。
+         */
+        void removed(@Nonnull Snapshot.Record before);
+
+        /**
+         * 内容发生变化的记录。
+         */
+        void changed(@Nonnull Snapshot.Record before, @Nonnull Snapshot.Record after);
+    }
+}
@@ -0,0 +1,133 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.config.SnapshotProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.LdapPorter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <pre>
+ * 管理每个数据源的组织架构快照（{@link Snapshot}）。
+ *
+ * 全量同步和全量重建成功后写入一个新的快照，文件名为snapshot-{代数}.lsnp，
+ * 每个数据源只保留最新的storage.snapshot.generations个快照。增量同步没有完整的数据，不写入快照。
+ * </pre>
+ *
+ * @see SnapshotProperties
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(SnapshotProperties.class)
+public class SnapshotStore {
+
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".lsnp";
+
+    private final SnapshotProperties properties;
+
+    public SnapshotStore(SnapshotProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 开始收集一次同步的数据。
+     *
+     * @return 快照的写入器，不需要写入快照时返回null
+     */
+    @Nullable
+    Snapshot.Writer begin(@Nonnull LdapPorter.Mode mode) {
+        return properties.isEnabled() && mode != LdapPorter.Mode.DELTA ? new Snapshot.Writer() : null;
+    }
+
+    /**
+     * 写入快照并删除超出保留个数的旧快照。
+     */
+    void write(@Nonnull DataSource dataSource, long generation, @Nonnull Snapshot.Writer writer) throws IOException {
+        Files.createDirectories(getDirectory(dataSource.getId()));
+        writer.write(getFile(dataSource, generation), dataSource.getId(), generation, properties.isCompression());
+
+        List<Long> generations = getGenerations(dataSource);
+        for (Long old : generations.subList(Math.min(generations.size(), Math.max(1, properties.getGenerations())),
+                generations.size())) {
+            Files.deleteIfExists(getFile(dataSource, old));
+        }
+        log.info("数据源[{}]写入了代数为{}的快照", dataSource.getName(), generation);
+    }
+
+    /**
+     * 返回数据源所有快照的代数，从新到旧排列。
+     */
+    @Nonnull
+    public List<Long> getGenerations(@Nonnull DataSource dataSource) throws IOException {
+        return getGenerations(dataSource.getId());
+    }
+
+    @Nonnull
+    private List<Long> getGenerations(int dataSourceId) throws IOException {
+        Path directory = getDirectory(dataSourceId);
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())))
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * 打开指定代数的快照。
+     */
+    @Nonnull
+    public Snapshot open(@Nonnull DataSource dataSource, long generation) throws IOException {
+        return Snapshot.open(getFile(dataSource, generation));
+    }
+
+    /**
+     * 打开最新的快照，没有快照时返回null。
+     */
+    @Nullable
+    public Snapshot openLatest(@Nonnull DataSource dataSource) throws IOException {
+        return openLatest(dataSource.getId());
+    }
+
+    /**
+     * 打开数据源最新的快照，没有快照时返回null。
+     */
+    @Nullable
+    public Snapshot openLatest(int dataSourceId) throws IOException {
+        List<Long> generations = getGenerations(dataSourceId);
+        return generations.isEmpty() ? null : Snapshot.open(getFile(dataSourceId, generations.get(0)));
+    }
+
+    @Nonnull
+    private Path getDirectory(int dataSourceId) {
+        return Paths.get(properties.getDirectory(), String.valueOf(dataSourceId));
+    }
+
+    @Nonnull
+    private Path getFile(@Nonnull DataSource dataSource, long generation) {
+        return getFile(dataSource.getId(), generation);
+    }
+
+    @Nonnull
+    private Path getFile(int dataSourceId, long generation) {
+        return getDirectory(dataSourceId).resolve(String.format("%s%019d%s", PREFIX, generation, SUFFIX));
+    }
+}
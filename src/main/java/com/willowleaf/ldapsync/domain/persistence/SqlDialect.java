@@ -0,0 +1,95 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * 批量写入使用的SQL方言。
+ *
+ * @see JdbcStorage
+ */
+enum SqlDialect {
+    /**
+     * INSERT ... VALUES (...), (...) ON DUPLICATE KEY UPDATE ...
+     */
+    MYSQL {
+        @Nonnull
+        @Override
+        String upsert(@Nonnull String table, @Nonnull List<String> columns, int rows) {
+            return "insert into " + table + " (" + String.join(", ", columns) + ") values "
+                    + placeholders(columns.size(), rows)
+                    + " on duplicate key update "
+                    + columns.stream()
+                    .filter(column -> !ID.equals(column))
+                    .map(column -> column + " = values(" + column + ")")
+                    .collect(joining(", "));
+        }
+    },
+    /**
+     * MERGE INTO ... KEY (id) VALUES (...), (...)
+     */
+    H2 {
+        @Nonnull
+        @Override
+        String upsert(@Nonnull String table, @Nonnull List<String> columns, int rows) {
+            return "merge into " + table + " (" + String.join(", ", columns) + ") key (" + ID + ") values "
+                    + placeholders(columns.size(), rows);
+        }
+    };
+
+    /**
+     * 主键列名。
+     */
+    static final String ID = "id";
+
+    /**
+     * 返回多行写入的SQL，主键存在时更新，不存在时插入。
+     *
+     * @param table   表名
+     * @param columns 列名，必须包含主键列
+     * @param rows    行数
+     * @return SQL
+     */
+    @Nonnull
+    abstract String upsert(@Nonnull String table, @Nonnull List<String> columns, int rows);
+
+    /**
+     * 返回按主键更新指定列的SQL，参数为各列的值，最后是主键。
+     *
+     * @param table   表名
+     * @param columns 更新的列名，不包含主键列
+     * @return SQL
+     */
+    @Nonnull
+    String update(@Nonnull String table, @Nonnull List<String> columns) {
+        return "update " + table + " set " + columns.stream().map(column -> column + " = ?").collect(joining(", "))
+                + " where " + ID + " = ?";
+    }
+
+    /**
+     * 根据数据库产品名称返回SQL方言。
+     *
+     * @param databaseProductName {@link java.sql.DatabaseMetaData#getDatabaseProductName()}
+     * @return SQL方言
+     */
+    @Nonnull
+    static SqlDialect of(@Nonnull String databaseProductName) {
+        switch (databaseProductName) {
+            case "MySQL":
+            case "MariaDB":
+                return MYSQL;
+            case "H2":
+                return H2;
+            default:
+                throw new IllegalStateException("不支持批量写入的数据库: " + databaseProductName);
+        }
+    }
+
+    private static String placeholders(int columns, int rows) {
+        String row = "(" + String.join(", ", Collections.nCopies(columns, "?")) + ")";
+        return String.join(", ", Collections.nCopies(rows, row));
+    }
+}
@@ -0,0 +1,159 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.config.CompositeStorageProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.LdapPorter;
+import com.willowleaf.ldapsync.domain.Organization;
+import com.willowleaf.ldapsync.domain.executor.IoExecutor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * <pre>
+ * {@link CompositeStorage}写入的一个存储。
+ *
+ * 每个存储有独立的有界线程池，写入失败时按指数退避重试，重试次数用完后记入该数据源本次同步的失败列表（死信），
+ * 不影响其它存储和同步中的其它数据。不在同步过程中的写入（例如LDAP变更监听）重试失败后抛出异常。
+ * </pre>
+ */
+@Slf4j
+class StorageSink implements Closeable {
+
+    /**
+     * 日志中最多输出的失败数据条数。
+     */
+    private static final int MAX_LOGGED_FAILURES = 100;
+
+    @Getter
+    private final String name;
+    private final Organization.Storage storage;
+    private final CompositeStorageProperties.Sink properties;
+    private final IoExecutor executor;
+
+    /**
+     * 正在同步的数据源的失败数据，key为数据源ID。
+     */
+    private final Map<Integer, DeadLetters> deadLetters = new ConcurrentHashMap<>();
+
+    StorageSink(@Nonnull String name, @Nonnull Organization.Storage storage,
+                @Nonnull CompositeStorageProperties.Sink properties) {
+        this.name = name;
+        this.storage = storage;
+        this.properties = properties;
+        this.executor = new IoExecutor("storage-" + name, properties.getConcurrency(), properties.getQueueCapacity());
+    }
+
+    void begin(@Nonnull DataSource dataSource, @Nonnull LdapPorter.Mode mode) {
+        storage.begin(dataSource, mode);
+        deadLetters.put(dataSource.getId(), new DeadLetters());
+    }
+
+    /**
+     * 结束同步，返回本次同步写入失败的数据。
+     */
+    @Nonnull
+    DeadLetters end(@Nonnull DataSource dataSource, boolean succeeded) {
+        DeadLetters letters = deadLetters.remove(dataSource.getId());
+        storage.end(dataSource, succeeded);
+        return letters == null ? new DeadLetters() : letters;
+    }
+
+    /**
+     * 提交写入任务，线程池和等待队列都已满时等待。
+     *
+     * @param dataSource  数据所属的数据源
+     * @param description 数据的描述，用于日志和失败列表
+     * @param write       写入操作
+     * @return 写入结果，同步过程中写入失败时正常完成
+     */
+    @Nonnull
+    Future<?> submit(DataSource dataSource, @Nonnull String description,
+                     @Nonnull Consumer<Organization.Storage> write) {
+        return executor.submit(() -> {
+            try {
+                writeWithRetry(write);
+            } catch (RuntimeException e) {
+                DeadLetters letters = dataSource == null ? null : deadLetters.get(dataSource.getId());
+                if (letters == null) {
+                    throw e;
+                }
+                letters.add(description, e);
+                if (letters.getCount() <= MAX_LOGGED_FAILURES) {
+                    log.error("数据源[{}]写入[{}]失败: {}", dataSource.getName(), name, description, e);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    private void writeWithRetry(@Nonnull Consumer<Organization.Storage> write) {
+        long delay = properties.getBackoffDelay().toMillis();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                write.accept(storage);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= properties.getRetries()) {
+                    throw e;
+                }
+                log.warn("写入[{}]失败，{}毫秒后第{}次重试: {}", name, delay, attempt + 1, e.toString());
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("写入[" + name + "]等待重试时被中断", e);
+            }
+            delay = Math.min(delay * 2, properties.getMaxBackoffDelay().toMillis());
+        }
+    }
+
+    /**
+     * 一次同步中写入失败的数据，最多保留{@link CompositeStorageProperties.Sink#getMaxDeadLetters()}条。
+     */
+    class DeadLetters {
+
+        private final Queue<String> letters = new ConcurrentLinkedQueue<>();
+        private final AtomicLong count = new AtomicLong();
+
+        private void add(@Nonnull String description, @Nonnull Exception e) {
+            if (count.incrementAndGet() <= properties.getMaxDeadLetters()) {
+                letters.add(description + ": " + e);
+            }
+        }
+
+        /**
+         * 返回写入失败的数据条数。
+         */
+        long getCount() {
+            return count.get();
+        }
+
+        /**
+         * 返回保留的失败数据。
+         */
+        @Nonnull
+        List<String> getLetters() {
+            return Collections.unmodifiableList(new ArrayList<>(letters));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <pre>
+ * 部门表和员工表的读写锁，只在本进程内有效。
+ *
+ * 本节点所有写入和删除这两张表的操作（{@link JdbcStorage}，{@link ContentHashes}，
+ * 以及通过{@link RepositoryWriteLock}拦截的Repository）持有读锁，
+ * 全量重建复制其它数据源的数据并替换正式表时持有写锁（{@link ShadowTables}）。
+ * 其它节点的写入不受这个锁的约束，见storage.jdbc.single-writer。
+ * </pre>
+ */
+@Component
+public class TableLock {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 持有读锁执行写入或删除，读锁可以重入。
+     */
+    void shared(@Nonnull Runnable action) {
+        locked(lock.readLock(), action);
+    }
+
+    /**
+     * 持有写锁执行，期间阻塞本节点所有的写入和删除。
+     */
+    void exclusive(@Nonnull Runnable action) {
+        locked(lock.writeLock(), action);
+    }
+
+    /**
+     * 返回写入和删除时持有的读锁，用于无法包装为{@link Runnable}的调用。
+     */
+    @Nonnull
+    Lock sharedLock() {
+        return lock.readLock();
+    }
+
+    private static void locked(@Nonnull Lock lock, @Nonnull Runnable action) {
+        lock.lock();
+        try {
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
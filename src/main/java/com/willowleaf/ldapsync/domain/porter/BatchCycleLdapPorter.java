@@ -0,0 +1,87 @@
+package com.willowleaf.ldapsync.domain.porter;
+
+import com.willowleaf.ldapsync.domain.*;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toMap;
+import static org.springframework.ldap.support.LdapEncoder.filterEncode;
+
+/**
+ * <pre>
+ * 批量循环调用接口拉取LDAP数据。
+ *
+ * 每次查询使用 (|(name=a)(name=b)...) 拉取多个部门的员工信息，再在内存中按部门编号分组，
+ * 查询次数减少为部门数量除以{@link Dictionary#getBatchSize()}。
+ * 每个查询语句的长度不超过{@link DataSource#getMaxFilterLength()}。
+ * </pre>
+ */
+public class BatchCycleLdapPorter extends CycleLdapPorter {
+
+    public BatchCycleLdapPorter(@Nonnull DataSource dataSource, @Nonnull Organization.Storage storage) {
+        super(dataSource, storage);
+    }
+
+    @Override
+    protected void pullEmployees(@Nonnull List<Department> departments,
+                                 @Nonnull Dictionary dictionary, @Nonnull String sourceName) {
+        Map<String, Department> departmentMap = departments.stream()
+                .collect(toMap(Department::getNumber, department -> department));
+        List<String> filters = orFilters(getFilter(dictionary), sourceName,
+                new ArrayList<>(departmentMap.keySet()), dictionary.getBatchSize(), dataSource.getMaxFilterLength());
+
+        fetchExecutor.map(filters, filter -> dataSource.search(dictionary.getBase(), filter,
+                dictionary.getAttributeMaps(), Employee.class, getHighWaterMark(dictionary)))
+                .stream()
+                .flatMap(List::stream)
+                .filter(employee -> departmentMap.containsKey(employee.getDepartmentNumber()))
+                .collect(groupingBy(Employee::getDepartmentNumber))
+                .forEach((number, employees) -> {
+                    Department department = departmentMap.get(number);
+                    department.setEmployees(employees);
+                    employees.forEach(employee -> employee.setDepartment(department));
+                });
+    }
+
+    /**
+     * <pre>
+     * 将部门编号分批组合成查询语句：(&filter(|(name=a)(name=b)...))。
+     * 每批最多包含{@code batchSize}个部门编号，查询语句的长度不超过{@code maxLength}，
+     * 单个部门编号超过长度限制时独立成批。
+     * </pre>
+     *
+     * @param filter    字典的filter
+     * @param name      部门编号的LDAP属性名称
+     * @param values    部门编号
+     * @param batchSize 每批的最大部门数量
+     * @param maxLength 查询语句的最大长度
+     * @return 查询语句列表
+     */
+    @Nonnull
+    static List<String> orFilters(@Nonnull String filter, @Nonnull String name, @Nonnull List<String> values,
+                                  int batchSize, int maxLength) {
+        String prefix = "(&" + filter + "(|";
+        String suffix = "))";
+        List<String> filters = new ArrayList<>();
+        StringBuilder builder = new StringBuilder(prefix);
+        int count = 0;
+        for (String value : values) {
+            String term = "(" + name + "=" + filterEncode(value) + ")";
+            if (count > 0 && (count >= batchSize || builder.length() + term.length() + suffix.length() > maxLength)) {
+                filters.add(builder.append(suffix).toString());
+                builder = new StringBuilder(prefix);
+                count = 0;
+            }
+            builder.append(term);
+            count++;
+        }
+        if (count > 0) {
+            filters.add(builder.append(suffix).toString());
+        }
+        return filters;
+    }
+}
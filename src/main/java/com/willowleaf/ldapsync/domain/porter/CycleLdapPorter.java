@@ -5,9 +5,10 @@ import lombok.SneakyThrows;
 
 import javax.annotation.Nonnull;
 import java.util.List;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.Future;
 
 import static com.willowleaf.ldapsync.domain.Dictionary.Type.*;
+import static org.springframework.ldap.support.LdapEncoder.filterEncode;
 
 /**
  * <pre>
@@ -25,9 +26,8 @@ public class CycleLdapPorter extends LdapPorter {
     @SneakyThrows
     public Organization pull() {
         // async 1. 异步获取所有的岗位信息
-        FutureTask<List<Position>> positionTask = new FutureTask<>(() ->
+        Future<List<Position>> positionTask = fetchExecutor.submit(() ->
                 pullElements(dataSource.getDictionary(POSITION), Position.class));
-        new Thread(positionTask).start();
 
         // 1. 获取部门信息
         List<Department> departments = pullElements(dataSource.getDictionary(DEPARTMENT), Department.class);
@@ -40,17 +40,28 @@ public class CycleLdapPorter extends LdapPorter {
                 .findFirst()
                 .orElseThrow(() -> new RuntimeException("员工信息（departmentNumber）没有配置LDAP映射信息."))
                 .getSourceName();
-        departments.parallelStream()
-                .forEach(department -> {
-                    List<Employee> employees = pullEmployeeElements(employeeDictionary,
-                            sourceName, department.getNumber());
-                    department.setEmployees(employees);
-                    employees.forEach(employee -> employee.setDepartment(department));
-                });
+        pullEmployees(departments, employeeDictionary, sourceName);
 
         // 3. 获取员工的岗位信息
         List<Position> positions = positionTask.get();
-        return new Organization(dataSource, departments, positions, storage);
+        return new Organization(dataSource, departments, positions, storage, storageExecutor);
+    }
+
+    /**
+     * 拉取所有部门的员工信息，每个部门查询一次。
+     *
+     * @param departments 所有部门
+     * @param dictionary  员工字典
+     * @param sourceName  部门编号的LDAP属性名称
+     */
+    protected void pullEmployees(@Nonnull List<Department> departments,
+                                 @Nonnull Dictionary dictionary, @Nonnull String sourceName) {
+        fetchExecutor.forEach(departments, department -> {
+            List<Employee> employees = pullEmployeeElements(dictionary,
+                    sourceName, department.getNumber());
+            department.setEmployees(employees);
+            employees.forEach(employee -> employee.setDepartment(department));
+        });
     }
 
     /**
@@ -59,19 +70,15 @@ public class CycleLdapPorter extends LdapPorter {
      * @see Employee
      */
     protected List<Employee> pullEmployeeElements(@Nonnull Dictionary dictionary, String name, String value) {
-        Class<Employee> employeeClass = Employee.class;
-        return getElements(
-                dataSource.search(dictionary.getBase(), andFilter(dictionary.getFilter(), name, value),
-                                dictionary.getAttributeMaps(), employeeClass)
-                        .stream(),
-                employeeClass);
+        return dataSource.search(dictionary.getBase(), andFilter(getFilter(dictionary), name, value),
+                dictionary.getAttributeMaps(), Employee.class, getHighWaterMark(dictionary));
     }
 
     /**
-     * 返回一个完整的LDAP查询语句，使用 & 连接已有的filter和name=value。
+     * 返回一个完整的LDAP查询语句，使用 & 连接已有的filter和name=value，value会被转义。
      */
     @Nonnull
-    private String andFilter(@Nonnull String filter, @Nonnull String name, @Nonnull String value) {
-        return "(&" + filter + "(" + name + "=" + value + "))";
+    protected String andFilter(@Nonnull String filter, @Nonnull String name, @Nonnull String value) {
+        return "(&" + filter + "(" + name + "=" + filterEncode(value) + "))";
     }
 }
@@ -0,0 +1,53 @@
+package com.willowleaf.ldapsync.domain.porter;
+
+import com.willowleaf.ldapsync.domain.*;
+import lombok.SneakyThrows;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static com.willowleaf.ldapsync.domain.Dictionary.Type.*;
+
+/**
+ * <pre>
+ * 使用RFC 2696 Simple Paged Results分页拉取LDAP数据。
+ *
+ * 避免一次查询超过LDAP服务器的数据量限制，每页的数据量由{@link Dictionary#getPageSize()}配置。
+ * 分页只解决服务器的查询限制，不减少内存占用：每页数据都加入同一个列表，所有数据拉取完成后才构造组织架构，
+ * 内存占用仍然与组织架构的规模成正比。需要限制内存时使用流式同步（{@link StreamingLdapPorter}）。
+ * </pre>
+ */
+public class PagedLdapPorter extends LdapPorter {
+
+    public PagedLdapPorter(@Nonnull DataSource dataSource, @Nonnull Organization.Storage storage) {
+        super(dataSource, storage);
+    }
+
+    @SneakyThrows
+    public Organization pull() {
+        // async 1. 异步获取部门信息
+        Future<List<Department>> getDepartmentsTask = fetchExecutor.submit(() ->
+                pullPagedElements(dataSource.getDictionary(DEPARTMENT), Department.class));
+
+        // async 1. 异步获取员工信息
+        Future<List<Employee>> getEmployeesTask = fetchExecutor.submit(() ->
+                pullPagedElements(dataSource.getDictionary(EMPLOYEE), Employee.class));
+
+        // async 1. 获取所有的岗位信息
+        List<Position> positions = pullPagedElements(dataSource.getDictionary(POSITION), Position.class);
+
+        // 2. 构造组织信息
+        return new Organization(dataSource, getDepartmentsTask.get(), getEmployeesTask.get(), positions, storage, storageExecutor);
+    }
+
+    /**
+     * 分页拉取所有数据并合并为一个列表。
+     */
+    protected <T> List<T> pullPagedElements(@Nonnull Dictionary dictionary, Class<T> clazz) {
+        List<T> elements = new ArrayList<>();
+        pullElements(dictionary, clazz, elements::addAll);
+        return elements;
+    }
+}
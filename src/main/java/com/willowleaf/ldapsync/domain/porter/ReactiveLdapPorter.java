@@ -0,0 +1,104 @@
+package com.willowleaf.ldapsync.domain.porter;
+
+import com.willowleaf.ldapsync.domain.*;
+import org.springframework.ldap.core.AttributesMapper;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.Nonnull;
+import javax.naming.NamingException;
+import java.util.Collections;
+
+import static com.willowleaf.ldapsync.domain.Dictionary.Type.*;
+
+/**
+ * <pre>
+ * 使用Project Reactor拉取并持久化LDAP数据。
+ *
+ * LDAP数据按页拉取，条目在并行调度器上转换为数据对象，员工数据按{@link Dictionary#getWriteBatchSize()}分批持久化。
+ * 整个管道都遵循背压，持久化缓慢时（例如Elasticsearch集群繁忙）将暂停向LDAP服务器请求下一页数据，
+ * 内存中最多只保留若干页的员工数据。
+ *
+ * 部门和岗位数据量较小且构建部门树需要完整的部门信息，因此先全部拉取并持久化，然后再流式处理员工数据。
+ * </pre>
+ */
+public class ReactiveLdapPorter extends LdapPorter {
+
+    public ReactiveLdapPorter(@Nonnull DataSource dataSource, @Nonnull Organization.Storage storage) {
+        super(dataSource, storage);
+    }
+
+    @Override
+    public Organization pull() {
+        return Mono.zip(departments().collectList(), employees().collectList(), positions().collectList())
+                .map(tuple -> new Organization(dataSource, tuple.getT1(), tuple.getT2(), tuple.getT3(),
+                        storage, storageExecutor))
+                .block();
+    }
+
+    @Override
+    protected void transfer() {
+        Scheduler storageScheduler = Schedulers.fromExecutor(storageExecutor);
+        Dictionary dictionary = dataSource.getDictionary(EMPLOYEE);
+
+        // 1. 拉取部门和岗位信息，构造不包含员工的组织信息并持久化部门
+        Mono<Organization> organization = Mono.zip(departments().collectList(), positions().collectList())
+                .map(tuple -> new Organization(dataSource, tuple.getT1(), Collections.<Employee>emptyList(),
+                        tuple.getT2(), storage, storageExecutor))
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(Organization::save);
+
+        // 2. 流式拉取员工信息，分批持久化，同时进行的批次数不超过持久化线程池的并发数
+        organization.flatMapMany(org -> employees().filter(org::join))
+                .buffer(dictionary.getWriteBatchSize())
+                .flatMap(employees -> Mono.fromRunnable(() -> storage.save(employees))
+                        .subscribeOn(storageScheduler), storageExecutor.getConcurrency(), 1)
+                .then()
+                .block();
+    }
+
+    /**
+     * 返回所有的部门信息。
+     */
+    public Flux<Department> departments() {
+        return elements(dataSource.getDictionary(DEPARTMENT), Department.class);
+    }
+
+    /**
+     * 返回所有的员工信息，增量同步时只返回高水位标记之后发生变化的员工。
+     */
+    public Flux<Employee> employees() {
+        return elements(dataSource.getDictionary(EMPLOYEE), Employee.class);
+    }
+
+    /**
+     * 返回所有的岗位信息。
+     */
+    public Flux<Position> positions() {
+        return elements(dataSource.getDictionary(POSITION), Position.class);
+    }
+
+    /**
+     * 分页拉取数据，LDAP查询在拉取线程池上执行，属性转换在并行调度器上执行。
+     */
+    private <T> Flux<T> elements(@Nonnull Dictionary dictionary, @Nonnull Class<T> clazz) {
+        AttributesMapper<T> mapper = dataSource.getAttributesMapper(dictionary.getAttributeMaps(), clazz);
+        return dataSource.searchPages(dictionary.getBase(), getFilter(dictionary), dictionary.getAttributeMaps(),
+                getHighWaterMark(dictionary), dictionary.getPageSize())
+                .subscribeOn(Schedulers.fromExecutor(fetchExecutor, true))
+                .flatMapIterable(page -> page, 1)
+                .parallel()
+                .runOn(Schedulers.parallel(), dictionary.getPageSize())
+                .map(attributes -> {
+                    try {
+                        return mapper.mapFromAttributes(attributes);
+                    } catch (NamingException e) {
+                        throw Exceptions.propagate(e);
+                    }
+                })
+                .sequential();
+    }
+}
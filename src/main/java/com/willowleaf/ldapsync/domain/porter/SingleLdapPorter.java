@@ -5,7 +5,7 @@ import lombok.SneakyThrows;
 
 import javax.annotation.Nonnull;
 import java.util.List;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.Future;
 
 import static com.willowleaf.ldapsync.domain.Dictionary.Type.*;
 
@@ -21,20 +21,18 @@ public class SingleLdapPorter extends LdapPorter {
     @SneakyThrows
     public Organization pull() {
         // async 1. 异步获取部门信息
-        FutureTask<List<Department>> getDepartmentsTask = new FutureTask<>(() ->
+        Future<List<Department>> getDepartmentsTask = fetchExecutor.submit(() ->
                 pullElements(dataSource.getDictionary(DEPARTMENT), Department.class));
-        new Thread(getDepartmentsTask).start();
 
         // async 1. 异步获取员工信息
-        FutureTask<List<Employee>> getEmployeesTask = new FutureTask<>(() ->
+        Future<List<Employee>> getEmployeesTask = fetchExecutor.submit(() ->
                 pullElements(dataSource.getDictionary(EMPLOYEE), Employee.class));
-        new Thread(getEmployeesTask).start();
 
         // async 1. 获取所有的岗位信息
         List<Position> positions = pullElements(dataSource.getDictionary(POSITION), Position.class);
 
         // 2. 构造组织信息
-        return new Organization(dataSource, getDepartmentsTask.get(), getEmployeesTask.get(), positions, storage);
+        return new Organization(dataSource, getDepartmentsTask.get(), getEmployeesTask.get(), positions, storage, storageExecutor);
     }
 
 }
@@ -0,0 +1,65 @@
+package com.willowleaf.ldapsync.domain.porter;
+
+import com.willowleaf.ldapsync.domain.*;
+import lombok.SneakyThrows;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.willowleaf.ldapsync.domain.Dictionary.Type.*;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * <pre>
+ * 流式同步LDAP数据，同步过程中不构造完整的组织架构。
+ *
+ * 1. 拉取数据量较小的部门和岗位信息，构造部门树并持久化部门。
+ * 2. 分页拉取员工信息，每页员工根据部门编号关联部门后立即持久化。
+ *
+ * 持久化当前页的同时拉取下一页，内存中最多保留两页员工数据，与目录的大小无关。
+ * </pre>
+ */
+public class StreamingLdapPorter extends PagedLdapPorter {
+
+    public StreamingLdapPorter(@Nonnull DataSource dataSource, @Nonnull Organization.Storage storage) {
+        super(dataSource, storage);
+    }
+
+    @SneakyThrows
+    @Override
+    protected void transfer() {
+        // async 1. 异步获取所有的岗位信息
+        Future<List<Position>> positionTask = fetchExecutor.submit(() ->
+                pullPagedElements(dataSource.getDictionary(POSITION), Position.class));
+
+        // 1. 获取部门信息，构造不包含员工的组织信息并持久化部门
+        List<Department> departments = pullPagedElements(dataSource.getDictionary(DEPARTMENT), Department.class);
+        Organization organization = new Organization(dataSource, departments, Collections.emptyList(),
+                positionTask.get(), storage, storageExecutor);
+        organization.save();
+
+        // 2. 分页获取员工信息，等待上一页持久化完成后再提交当前页
+        AtomicReference<Future<?>> previous = new AtomicReference<>();
+        pullElements(dataSource.getDictionary(EMPLOYEE), Employee.class, page -> {
+            List<Employee> employees = page.stream()
+                    .filter(organization::join)
+                    .collect(toList());
+            await(previous.get());
+            previous.set(storageExecutor.submit(() -> {
+                storage.save(employees);
+                return null;
+            }));
+        });
+        await(previous.get());
+    }
+
+    @SneakyThrows
+    private static void await(Future<?> future) {
+        if (future != null) {
+            future.get();
+        }
+    }
+}
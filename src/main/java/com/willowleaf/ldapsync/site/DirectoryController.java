@@ -0,0 +1,237 @@
+package com.willowleaf.ldapsync.site;
+
+import com.willowleaf.ldapsync.domain.directory.DirectoryCache;
+import com.willowleaf.ldapsync.domain.directory.OrganizationDirectory;
+import com.willowleaf.ldapsync.domain.directory.OrganizationDirectory.DepartmentNode;
+import com.willowleaf.ldapsync.domain.directory.OrganizationDirectory.EmployeeNode;
+import com.willowleaf.ldapsync.domain.directory.RedisDirectory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <pre>
+ * 从内存中的组织架构目录（{@link DirectoryCache}）查询部门和员工，不访问数据库。
+ *
+ * 返回的JSON与Elasticsearch中的文档相同。单个部门（员工）的ETag为内容哈希，
+ * 列表的ETag为目录的代数，客户端携带If-None-Match请求时，没有变化则返回304。
+ *
+ * 本节点没有数据源的目录（同步在其它节点上进行）且开启了Redis时，
+ * 部门、员工和部门成员从Redis中的目录查询（{@link RedisDirectory}），ETag都为Redis中当前目录的代数。
+ * </pre>
+ */
+@RestController
+@RequestMapping(value = "/directory/{dataSourceId:\\d+}", produces = MediaType.APPLICATION_JSON_VALUE)
+public class DirectoryController {
+
+    private final DirectoryCache directoryCache;
+    private final RedisDirectory redisDirectory;
+
+    public DirectoryController(DirectoryCache directoryCache, RedisDirectory redisDirectory) {
+        this.directoryCache = directoryCache;
+        this.redisDirectory = redisDirectory;
+    }
+
+    /**
+     * 查询员工。
+     *
+     * @param dataSourceId 数据源ID
+     * @param uid          员工uid
+     */
+    @GetMapping("/employees/{uid}")
+    public byte[] getEmployee(@PathVariable Integer dataSourceId, @PathVariable String uid, WebRequest request) {
+        OrganizationDirectory directory = directoryCache.get(dataSourceId);
+        if (directory == null && redisDirectory.isEnabled()) {
+            long generation = sharedGeneration(dataSourceId);
+            return request.checkNotModified(etag(generation)) ? null : found(
+                    redisDirectory.getEmployee(dataSourceId, generation, uid), "员工[" + uid + "]不存在");
+        }
+
+        EmployeeNode employee = employee(directory(dataSourceId), uid);
+        return request.checkNotModified(etag(employee.getContentHash())) ? null : employee.getDocument();
+    }
+
+    /**
+     * 查询员工所在的部门。
+     *
+     * @param dataSourceId 数据源ID
+     * @param uid          员工uid
+     */
+    @GetMapping("/employees/{uid}/department")
+    public byte[] getEmployeeDepartment(@PathVariable Integer dataSourceId, @PathVariable String uid,
+                                        WebRequest request) {
+        OrganizationDirectory directory = directory(dataSourceId);
+        DepartmentNode department = department(directory, employee(directory, uid).getDepartmentNumber());
+        return request.checkNotModified(etag(department.getContentHash())) ? null : department.getDocument();
+    }
+
+    /**
+     * 查询部门。
+     *
+     * @param dataSourceId 数据源ID
+     * @param number       部门编号
+     */
+    @GetMapping("/departments/{number}")
+    public byte[] getDepartment(@PathVariable Integer dataSourceId, @PathVariable String number,
+                                WebRequest request) {
+        OrganizationDirectory directory = directoryCache.get(dataSourceId);
+        if (directory == null && redisDirectory.isEnabled()) {
+            long generation = sharedGeneration(dataSourceId);
+            return request.checkNotModified(etag(generation)) ? null : found(
+                    redisDirectory.getDepartment(dataSourceId, generation, number), "部门[" + number + "]不存在");
+        }
+
+        DepartmentNode department = department(directory(dataSourceId), number);
+        return request.checkNotModified(etag(department.getContentHash())) ? null : department.getDocument();
+    }
+
+    /**
+     * 查询部门的直接下级部门。
+     *
+     * @param dataSourceId 数据源ID
+     * @param number       部门编号
+     */
+    @GetMapping("/departments/{number}/children")
+    public byte[] getChildren(@PathVariable Integer dataSourceId, @PathVariable String number,
+                              WebRequest request) {
+        OrganizationDirectory directory = directory(dataSourceId);
+        List<DepartmentNode> children = department(directory, number).getChildren();
+        if (request.checkNotModified(etag(directory.getGeneration()))) {
+            return null;
+        }
+
+        List<byte[]> documents = new ArrayList<>(children.size());
+        children.forEach(child -> documents.add(child.getDocument()));
+        return toArray(documents);
+    }
+
+    /**
+     * 查询部门的直接成员。
+     *
+     * @param dataSourceId 数据源ID
+     * @param number       部门编号
+     */
+    @GetMapping("/departments/{number}/employees")
+    public byte[] getEmployees(@PathVariable Integer dataSourceId, @PathVariable String number,
+                               WebRequest request) {
+        if (directoryCache.get(dataSourceId) == null && redisDirectory.isEnabled()) {
+            long generation = sharedGeneration(dataSourceId);
+            found(redisDirectory.getDepartment(dataSourceId, generation, number), "部门[" + number + "]不存在");
+            return request.checkNotModified(etag(generation))
+                    ? null : toArray(redisDirectory.getMembers(dataSourceId, generation, number));
+        }
+
+        OrganizationDirectory directory = directory(dataSourceId);
+        List<EmployeeNode> employees = department(directory, number).getEmployees();
+        if (request.checkNotModified(etag(directory.getGeneration()))) {
+            return null;
+        }
+
+        List<byte[]> documents = new ArrayList<>(employees.size());
+        employees.forEach(employee -> documents.add(employee.getDocument()));
+        return toArray(documents);
+    }
+
+    /**
+     * 按先序查询部门及其所有下级部门。
+     *
+     * @param dataSourceId 数据源ID
+     * @param number       部门编号
+     */
+    @GetMapping("/departments/{number}/subtree")
+    public byte[] getSubtree(@PathVariable Integer dataSourceId, @PathVariable String number,
+                             WebRequest request) {
+        OrganizationDirectory directory = directory(dataSourceId);
+        DepartmentNode root = department(directory, number);
+        if (request.checkNotModified(etag(directory.getGeneration()))) {
+            return null;
+        }
+
+        List<byte[]> documents = new ArrayList<>();
+        for (Iterator<DepartmentNode> iterator = directory.subtree(root); iterator.hasNext(); ) {
+            documents.add(iterator.next().getDocument());
+        }
+        return toArray(documents);
+    }
+
+    @Nonnull
+    private OrganizationDirectory directory(int dataSourceId) {
+        OrganizationDirectory directory = directoryCache.get(dataSourceId);
+        if (directory == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "数据源[" + dataSourceId + "]没有目录");
+        }
+        return directory;
+    }
+
+    private long sharedGeneration(int dataSourceId) {
+        Long generation = redisDirectory.getGeneration(dataSourceId);
+        if (generation == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "数据源[" + dataSourceId + "]没有目录");
+        }
+        return generation;
+    }
+
+    @Nonnull
+    private static byte[] found(byte[] document, @Nonnull String reason) {
+        if (document == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, reason);
+        }
+        return document;
+    }
+
+    @Nonnull
+    private static DepartmentNode department(@Nonnull OrganizationDirectory directory, String number) {
+        DepartmentNode department = number == null ? null : directory.getDepartment(number);
+        if (department == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "部门[" + number + "]不存在");
+        }
+        return department;
+    }
+
+    @Nonnull
+    private static EmployeeNode employee(@Nonnull OrganizationDirectory directory, @Nonnull String uid) {
+        EmployeeNode employee = directory.getEmployee(uid);
+        if (employee == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "员工[" + uid + "]不存在");
+        }
+        return employee;
+    }
+
+    /**
+     * 内容哈希和代数都是long，使用16进制字符串作为ETag。
+     */
+    @Nonnull
+    private static String etag(long value) {
+        return '"' + Long.toHexString(value) + '"';
+    }
+
+    /**
+     * 将已经序列化的文档拼接为JSON数组。
+     */
+    @Nonnull
+    private static byte[] toArray(@Nonnull List<byte[]> documents) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(documents.stream()
+                .mapToInt(document -> document.length + 1).sum() + 2);
+        output.write('[');
+        for (int i = 0; i < documents.size(); i++) {
+            if (i > 0) {
+                output.write(',');
+            }
+            byte[] document = documents.get(i);
+            output.write(document, 0, document.length);
+        }
+        output.write(']');
+        return output.toByteArray();
+    }
+}
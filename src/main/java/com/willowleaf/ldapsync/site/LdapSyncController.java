@@ -1,5 +1,6 @@
 package com.willowleaf.ldapsync.site;
 
+import com.willowleaf.ldapsync.domain.LdapPorter;
 import lombok.SneakyThrows;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.locks.InterProcessLock;
@@ -7,6 +8,7 @@ import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.concurrent.TimeUnit;
@@ -32,14 +34,16 @@ public class LdapSyncController {
      * 将LDAP的组织架构数据同步至用户中心。
      *
      * @param dataSourceId 数据源ID
+     * @param mode         同步模式，默认全量同步
      */
     @SneakyThrows
     @GetMapping("/sync/{dataSourceId:\\d+}")
-    public Integer syncData(@PathVariable Integer dataSourceId) {
+    public Integer syncData(@PathVariable Integer dataSourceId,
+                            @RequestParam(defaultValue = "FULL") LdapPorter.Mode mode) {
         InterProcessLock lock = new InterProcessMutex(client, "/lock/ldap/sync/" + dataSourceId);
         if (lock.acquire(0, TimeUnit.SECONDS)) {
             try {
-                ldapSyncService.syncData(dataSourceId);
+                ldapSyncService.syncData(dataSourceId, mode);
                 return FINISHED;
             } finally {
                 lock.release();
@@ -48,4 +52,37 @@ public class LdapSyncController {
 
         return PROCESSING;
     }
+
+    /**
+     * 开始监听LDAP的变更，变更将实时同步至用户中心。
+     * 集群部署时只需要在一个节点上开启监听。
+     *
+     * @param dataSourceId 数据源ID
+     */
+    @GetMapping("/listen/{dataSourceId:\\d+}")
+    public Integer listen(@PathVariable Integer dataSourceId) {
+        ldapSyncService.listen(dataSourceId);
+        return PROCESSING;
+    }
+
+    /**
+     * 停止监听LDAP的变更。
+     *
+     * @param dataSourceId 数据源ID
+     */
+    @GetMapping("/listen/{dataSourceId:\\d+}/stop")
+    public Integer stopListening(@PathVariable Integer dataSourceId) {
+        ldapSyncService.stopListening(dataSourceId);
+        return FINISHED;
+    }
+
+    /**
+     * 返回LDAP变更监听的状态。
+     *
+     * @param dataSourceId 数据源ID
+     */
+    @GetMapping("/listen/{dataSourceId:\\d+}/status")
+    public Integer listeningStatus(@PathVariable Integer dataSourceId) {
+        return ldapSyncService.isListening(dataSourceId) ? PROCESSING : FINISHED;
+    }
 }
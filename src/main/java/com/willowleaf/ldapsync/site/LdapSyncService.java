@@ -1,26 +1,60 @@
 package com.willowleaf.ldapsync.site;
 
+import com.willowleaf.ldapsync.data.HighWaterMarkRepository;
+import com.willowleaf.ldapsync.domain.HighWaterMark;
 import com.willowleaf.ldapsync.domain.LdapPorter;
-import com.willowleaf.ldapsync.domain.Organization;
+import com.willowleaf.ldapsync.domain.factory.LdapListenerFactory;
 import com.willowleaf.ldapsync.domain.factory.LdapPorterFactory;
 import org.springframework.stereotype.Service;
 
+import static java.util.stream.Collectors.toList;
+
 @Service
 public class LdapSyncService {
 
     private final LdapPorterFactory ldapPorterFactory;
+    private final LdapListenerFactory ldapListenerFactory;
+    private final HighWaterMarkRepository highWaterMarkRepository;
 
-    public LdapSyncService(LdapPorterFactory ldapPorterFactory) {
+    public LdapSyncService(LdapPorterFactory ldapPorterFactory,
+                           LdapListenerFactory ldapListenerFactory,
+                           HighWaterMarkRepository highWaterMarkRepository) {
         this.ldapPorterFactory = ldapPorterFactory;
+        this.ldapListenerFactory = ldapListenerFactory;
+        this.highWaterMarkRepository = highWaterMarkRepository;
     }
 
     public void syncData(Integer dataSourceId) {
-        LdapPorter porter = ldapPorterFactory.getLdapPorter(dataSourceId);
+        syncData(dataSourceId, LdapPorter.Mode.FULL);
+    }
+
+    public void syncData(Integer dataSourceId, LdapPorter.Mode mode) {
+        LdapPorter porter = ldapPorterFactory.getLdapPorter(dataSourceId, mode);
 
-        // 1. 拉取数据并将其转换为标准的组织信息
-        Organization organization = porter.pull();
+        // 1. 拉取数据并持久化，拉取和持久化的方式由数据源的拉取策略决定
+        porter.sync();
+
+        // 2. 持久化成功后推进高水位标记
+        highWaterMarkRepository.saveAll(porter.getHighWaterMarks().stream()
+                .filter(HighWaterMark::advance)
+                .collect(toList()));
+    }
+
+    /**
+     * 开始监听数据源的变更，变更将实时同步至用户中心。
+     */
+    public void listen(Integer dataSourceId) {
+        ldapListenerFactory.start(dataSourceId);
+    }
+
+    /**
+     * 停止监听数据源的变更。
+     */
+    public void stopListening(Integer dataSourceId) {
+        ldapListenerFactory.stop(dataSourceId);
+    }
 
-        // 2. 持久化数据
-        organization.save();
+    public boolean isListening(Integer dataSourceId) {
+        return ldapListenerFactory.isListening(dataSourceId);
     }
 }
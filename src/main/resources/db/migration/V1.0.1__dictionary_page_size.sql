@@ -0,0 +1,2 @@
+alter table dictionary
+  add page_size int null;
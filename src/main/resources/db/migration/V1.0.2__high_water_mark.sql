@@ -0,0 +1,15 @@
+alter table data_source
+  add directory_type int null;
+
+create table high_water_mark
+(
+  id             int auto_increment
+    primary key,
+  data_source_id int          null,
+  type           int          null,
+  mark           varchar(64)  null,
+  constraint UK_high_water_mark
+    unique (data_source_id, type),
+  constraint FK_high_water_mark_data_source
+    foreign key (data_source_id) references data_source (id)
+);
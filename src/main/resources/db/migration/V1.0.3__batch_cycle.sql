@@ -0,0 +1,5 @@
+alter table dictionary
+  add batch_size int null;
+
+alter table data_source
+  add max_filter_length int null;
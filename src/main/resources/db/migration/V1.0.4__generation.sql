@@ -0,0 +1,11 @@
+alter table department
+  add generation bigint null;
+
+alter table employee
+  add generation bigint null;
+
+create index IDX_department_generation
+  on department (data_source_id, generation);
+
+create index IDX_employee_generation
+  on employee (data_source_id, generation);
@@ -0,0 +1,5 @@
+alter table department
+  add content_hash bigint null;
+
+alter table employee
+  add content_hash bigint null;
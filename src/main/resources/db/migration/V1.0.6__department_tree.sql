@@ -0,0 +1,35 @@
+alter table department
+  add lft int null;
+
+alter table department
+  add rgt int null;
+
+alter table department
+  add depth int null;
+
+alter table department
+  modify id_path varchar(2000) null;
+
+alter table department
+  modify number_path varchar(2000) null;
+
+create index IDX_department_nested_set
+  on department (data_source_id, lft, rgt);
+
+create index IDX_department_number
+  on department (data_source_id, number);
+
+create index IDX_employee_uid
+  on employee (data_source_id, uid);
+
+create table department_closure
+(
+  data_source_id int         not null,
+  ancestor_id    varchar(36) not null,
+  descendant_id  varchar(36) not null,
+  distance       int         not null,
+  primary key (data_source_id, ancestor_id, descendant_id)
+);
+
+create index IDX_department_closure_descendant
+  on department_closure (data_source_id, descendant_id, distance);
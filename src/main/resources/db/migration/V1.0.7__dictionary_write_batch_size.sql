@@ -0,0 +1,7 @@
+alter table dictionary
+  add write_batch_size int null;
+
+-- 响应式拉取（pull_strategy = 4）之前使用batch_size作为批量写入大小
+update dictionary
+set write_batch_size = batch_size
+where data_source_id in (select id from data_source where pull_strategy = 4);
@@ -0,0 +1,113 @@
+package com.willowleaf.ldapsync.domain;
+
+import org.junit.jupiter.api.Test;
+
+import javax.naming.directory.BasicAttributes;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HighWaterMarkTests {
+
+    @Test
+    public void openLdapFilterIncludesMark() {
+        HighWaterMark highWaterMark = newMark(DataSource.DirectoryType.OPEN_LDAP, "20201231120000Z");
+
+        // modifyTimestamp精度为秒，同一秒内的变更需要再次拉取
+        assertEquals("(&(objectClass=person)(modifyTimestamp>=20201231120000Z))",
+                highWaterMark.getFilter("(objectClass=person)"));
+    }
+
+    @Test
+    public void activeDirectoryFilterStartsAfterMark() {
+        HighWaterMark highWaterMark = newMark(DataSource.DirectoryType.ACTIVE_DIRECTORY, "1000");
+
+        assertEquals("(&(objectClass=user)(uSNChanged>=1001))", highWaterMark.getFilter("(objectClass=user)"));
+    }
+
+    @Test
+    public void noMarkKeepsFilter() {
+        HighWaterMark highWaterMark = newMark(DataSource.DirectoryType.ACTIVE_DIRECTORY, null);
+
+        assertEquals("(objectClass=user)", highWaterMark.getFilter("(objectClass=user)"));
+    }
+
+    @Test
+    public void observeGreatestMark() {
+        HighWaterMark activeDirectory = newMark(DataSource.DirectoryType.ACTIVE_DIRECTORY, null);
+        activeDirectory.observe(new BasicAttributes("uSNChanged", "999", true));
+        activeDirectory.observe(new BasicAttributes("uSNChanged", "1000", true));
+        activeDirectory.observe(new BasicAttributes("uSNChanged", "998", true));
+        activeDirectory.observe(new BasicAttributes(true));
+        assertEquals("1000", activeDirectory.getObserved());
+
+        HighWaterMark openLdap = newMark(DataSource.DirectoryType.OPEN_LDAP, null);
+        openLdap.observe(new BasicAttributes("modifyTimestamp", "20201231120000Z", true));
+        openLdap.observe(new BasicAttributes("modifyTimestamp", "20200101000000Z", true));
+        assertEquals("20201231120000Z", openLdap.getObserved());
+    }
+
+    @Test
+    public void advanceOnlyForward() {
+        HighWaterMark highWaterMark = newMark(DataSource.DirectoryType.ACTIVE_DIRECTORY, "1000");
+
+        // 拉取数据时只记录观察到的标记，推进之前查询条件不变
+        highWaterMark.observe(new BasicAttributes("uSNChanged", "1500", true));
+        assertEquals("1000", highWaterMark.getMark());
+        assertEquals("(&(o=x)(uSNChanged>=1001))", highWaterMark.getFilter("(o=x)"));
+
+        assertTrue(highWaterMark.advance());
+        assertEquals("1500", highWaterMark.getMark());
+        assertFalse(highWaterMark.advance());
+
+        HighWaterMark stale = newMark(DataSource.DirectoryType.ACTIVE_DIRECTORY, "1000");
+        stale.observe(new BasicAttributes("uSNChanged", "900", true));
+        assertFalse(stale.advance());
+        assertEquals("1000", stale.getMark());
+
+        assertFalse(newMark(DataSource.DirectoryType.ACTIVE_DIRECTORY, "1000").advance());
+    }
+
+    @Test
+    public void deltaFilterOnlyForEmployees() {
+        DataSource dataSource = new DataSource();
+        dataSource.setDirectoryType(DataSource.DirectoryType.ACTIVE_DIRECTORY);
+        HighWaterMark highWaterMark = new HighWaterMark(dataSource, Dictionary.Type.EMPLOYEE);
+        highWaterMark.setMark("1000");
+
+        LdapPorter porter = new LdapPorter(dataSource, null) {
+            @Override
+            public Organization pull() {
+                return null;
+            }
+        };
+        Dictionary employees = dictionary(Dictionary.Type.EMPLOYEE);
+        Dictionary departments = dictionary(Dictionary.Type.DEPARTMENT);
+
+        porter.setMode(LdapPorter.Mode.FULL, Collections.singletonList(highWaterMark));
+        assertEquals("(o=x)", porter.getFilter(employees));
+
+        porter.setMode(LdapPorter.Mode.DELTA, Collections.singletonList(highWaterMark));
+        assertEquals("(&(o=x)(uSNChanged>=1001))", porter.getFilter(employees));
+        assertEquals("(o=x)", porter.getFilter(departments));
+        assertNull(porter.getHighWaterMark(departments));
+    }
+
+    private static HighWaterMark newMark(DataSource.DirectoryType directoryType, String mark) {
+        DataSource dataSource = new DataSource();
+        dataSource.setDirectoryType(directoryType);
+        HighWaterMark highWaterMark = new HighWaterMark(dataSource, Dictionary.Type.EMPLOYEE);
+        highWaterMark.setMark(mark);
+        return highWaterMark;
+    }
+
+    private static Dictionary dictionary(Dictionary.Type type) {
+        Dictionary dictionary = new Dictionary();
+        dictionary.setType(type);
+        dictionary.setFilter("(o=x)");
+        return dictionary;
+    }
+}
@@ -0,0 +1,105 @@
+package com.willowleaf.ldapsync.domain;
+
+import com.willowleaf.ldapsync.domain.executor.IoExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OrganizationTests {
+
+    private final IoExecutor executor = new IoExecutor("test", 1, 1);
+
+    @AfterEach
+    public void close() {
+        executor.close();
+    }
+
+    @Test
+    public void buildRelations() {
+        Department root = department("1", null);
+        Department child = department("2", "1");
+        Department sibling = department("3", "1");
+        root.setEnglishName("R");
+        child.setEnglishName("C");
+        Position position = new Position();
+        position.setNumber("p1");
+        position.setName("工程师");
+        Employee employee = employee("u1", "2", "p1");
+        Employee homeless = employee("u2", "9", null);
+
+        new Organization(new DataSource(), Arrays.asList(root, child, sibling),
+                Arrays.asList(employee, homeless), Collections.singletonList(position), null, executor);
+
+        assertSame(root, child.getParent());
+        assertEquals(2, root.getChildren().size());
+        assertTrue(root.getChildren().containsAll(Arrays.asList(child, sibling)));
+        assertEquals("1_2", child.getNumberPath());
+        assertEquals("1_2", child.getNamePath());
+        assertEquals("R_C", child.getEnglishNamePath());
+        assertNull(sibling.getEnglishNamePath());
+
+        assertSame(child, employee.getDepartment());
+        assertEquals(Collections.singletonList(employee), child.getEmployees());
+        assertEquals("工程师", employee.getPositionName());
+        assertEquals(Collections.singletonList(employee), position.getEmployees());
+
+        assertNull(homeless.getDepartment());
+        assertTrue(root.getEmployees().isEmpty());
+    }
+
+    @Test
+    public void keepAttachedEmployees() {
+        Department department = department("1", null);
+        Employee employee = employee("u1", "1", null);
+        employee.setDepartment(department);
+        department.setEmployees(Collections.singletonList(employee));
+
+        new Organization(new DataSource(), Collections.singletonList(department),
+                Collections.emptyList(), null, executor);
+
+        assertEquals(Collections.singletonList(employee), department.getEmployees());
+    }
+
+    @Test
+    public void numberNestedSet() {
+        Department root = department("1", null);
+        Department second = department("2", "1");
+        second.setSequence(2);
+        Department first = department("3", "1");
+        first.setSequence(1);
+        Department leaf = department("4", "3");
+        Department cyclic = department("5", "6");
+        Department other = department("6", "5");
+
+        new Organization(new DataSource(), Arrays.asList(root, second, first, leaf, cyclic, other),
+                Collections.emptyList(), null, executor);
+
+        assertEquals(Arrays.asList(1, 8, 0), Arrays.asList(root.getLft(), root.getRgt(), root.getDepth()));
+        assertEquals(Arrays.asList(2, 5, 1), Arrays.asList(first.getLft(), first.getRgt(), first.getDepth()));
+        assertEquals(Arrays.asList(3, 4, 2), Arrays.asList(leaf.getLft(), leaf.getRgt(), leaf.getDepth()));
+        assertEquals(Arrays.asList(6, 7, 1), Arrays.asList(second.getLft(), second.getRgt(), second.getDepth()));
+        // 不在部门树中的部门不设置
+        assertNull(cyclic.getLft());
+        assertNull(other.getRgt());
+    }
+
+    private static Department department(String number, String parentNumber) {
+        Department department = new Department();
+        department.setNumber(number);
+        department.setName(number);
+        department.setParentNumber(parentNumber);
+        return department;
+    }
+
+    private static Employee employee(String uid, String departmentNumber, String positionNumber) {
+        Employee employee = new Employee();
+        employee.setUid(uid);
+        employee.setDepartmentNumber(departmentNumber);
+        employee.setPositionNumber(positionNumber);
+        return employee;
+    }
+}
@@ -0,0 +1,98 @@
+package com.willowleaf.ldapsync.domain.directory;
+
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import com.willowleaf.ldapsync.domain.directory.OrganizationDirectory.DepartmentNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class OrganizationDirectoryTests {
+
+    @Test
+    public void buildTree() {
+        OrganizationDirectory.Builder builder = new OrganizationDirectory.Builder(1L);
+        builder.add(department("1", null, 1));
+        builder.add(department("12", "1", 2));
+        builder.add(department("11", "1", 1));
+        builder.add(department("111", "11", 1));
+        builder.add(employee("zhangsan", "11"));
+        OrganizationDirectory directory = builder.build();
+
+        assertEquals(1, directory.getRoots().size());
+        assertEquals(Arrays.asList("11", "12"), numbers(directory.getDepartment("1").getChildren()));
+        assertEquals("11", directory.getEmployee("zhangsan").getDepartmentNumber());
+        assertEquals(1, directory.getDepartment("11").getEmployees().size());
+
+        List<DepartmentNode> subtree = new ArrayList<>();
+        directory.subtree(directory.getDepartment("1")).forEachRemaining(subtree::add);
+        assertEquals(Arrays.asList("1", "11", "111", "12"), numbers(subtree));
+    }
+
+    @Test
+    public void subtreeWithCycle() {
+        OrganizationDirectory.Builder builder = new OrganizationDirectory.Builder(1L);
+        builder.add(department("1", null, 1));
+        builder.add(department("2", "3", 1));
+        builder.add(department("3", "2", 1));
+        OrganizationDirectory directory = builder.build();
+
+        List<DepartmentNode> subtree = new ArrayList<>();
+        directory.subtree(directory.getDepartment("2")).forEachRemaining(subtree::add);
+        assertEquals(Arrays.asList("2", "3"), numbers(subtree));
+    }
+
+    @Test
+    public void mergeDelta() {
+        OrganizationDirectory.Builder full = new OrganizationDirectory.Builder(1L);
+        full.add(department("1", null, 1));
+        full.add(employee("zhangsan", "1"));
+        full.add(employee("lisi", "1"));
+        OrganizationDirectory previous = full.build();
+
+        OrganizationDirectory.Builder delta = new OrganizationDirectory.Builder(2L);
+        delta.add(department("1", null, 1));
+        delta.add(department("2", "1", 1));
+        delta.add(employee("lisi", "2"));
+        OrganizationDirectory directory = delta.build(previous);
+
+        assertEquals(2L, directory.getGeneration());
+        assertEquals(2, directory.getEmployeeCount());
+        assertEquals("2", directory.getEmployee("lisi").getDepartmentNumber());
+        assertEquals(1, directory.getDepartment("1").getEmployees().size());
+        assertEquals(1, directory.getDepartment("2").getEmployees().size());
+        // 旧目录不受影响
+        assertEquals(2, previous.getDepartment("1").getEmployees().size());
+        assertNull(previous.getDepartment("2"));
+        assertNotNull(previous.getEmployee("zhangsan").getDocument());
+    }
+
+    private static List<String> numbers(List<DepartmentNode> departments) {
+        List<String> numbers = new ArrayList<>();
+        departments.forEach(department -> numbers.add(department.getNumber()));
+        return numbers;
+    }
+
+    private static Department department(String number, String parentNumber, int sequence) {
+        Department department = new Department();
+        department.setNumber(number);
+        department.setParentNumber(parentNumber);
+        department.setSequence(sequence);
+        department.setName("部门" + number);
+        return department;
+    }
+
+    private static Employee employee(String uid, String departmentNumber) {
+        Employee employee = new Employee();
+        employee.setUid(uid);
+        employee.setName(uid);
+        employee.setDepartmentNumber(departmentNumber);
+        return employee;
+    }
+}
@@ -0,0 +1,178 @@
+package com.willowleaf.ldapsync.domain.directory;
+
+import com.willowleaf.ldapsync.config.DirectoryProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RedisDirectoryTests {
+
+    private final FakeRedis redis = new FakeRedis();
+
+    @Test
+    public void publishAndFlip() {
+        RedisDirectory redisDirectory = redisDirectory();
+        DataSource dataSource = dataSource();
+        redisDirectory.publish(dataSource, directory(1L, "zhangsan", "lisi"));
+        assertEquals(1L, redisDirectory.getGeneration(1));
+
+        redisDirectory.publish(dataSource, directory(2L, "zhangsan"));
+        assertEquals(2L, redisDirectory.getGeneration(1));
+        assertTrue(new String(redisDirectory.getEmployee(1, 2L, "zhangsan"), UTF_8).contains("zhangsan"));
+        assertNull(redisDirectory.getEmployee(1, 2L, "lisi"));
+        assertEquals(1, redisDirectory.getMembers(1, 2L, "2").size());
+        assertTrue(new String(redisDirectory.getDepartment(1, 2L, "1"), UTF_8).contains("部门1"));
+
+        // 旧代数的所有键设置了过期时间，新代数的键没有，没有成员的部门没有成员的键
+        assertEquals(new HashSet<>(Arrays.asList("test:1:1:departments", "test:1:1:employees",
+                "test:1:1:members:2")), redis.expiring);
+        assertEquals(2, redisDirectory.getMembers(1, 1L, "2").size());
+    }
+
+    @Test
+    public void keepNewerGeneration() {
+        RedisDirectory redisDirectory = redisDirectory();
+        redisDirectory.publish(dataSource(), directory(2L, "zhangsan"));
+        redisDirectory.publish(dataSource(), directory(1L, "lisi"));
+
+        assertEquals(2L, redisDirectory.getGeneration(1));
+        assertTrue(redis.expiring.contains("test:1:1:employees"));
+        assertTrue(redis.expiring.stream().noneMatch(key -> key.startsWith("test:1:2:")));
+    }
+
+    private RedisDirectory redisDirectory() {
+        DirectoryProperties properties = new DirectoryProperties();
+        properties.getRedis().setKeyPrefix("test");
+        properties.getRedis().setBatchSize(1);
+        return new RedisDirectory(properties, redis.factory());
+    }
+
+    private static OrganizationDirectory directory(long generation, String... uids) {
+        OrganizationDirectory.Builder builder = new OrganizationDirectory.Builder(generation);
+        builder.add(department("1", null));
+        builder.add(department("2", "1"));
+        for (String uid : uids) {
+            Employee employee = new Employee();
+            employee.setUid(uid);
+            employee.setDepartmentNumber("2");
+            builder.add(employee);
+        }
+        return builder.build();
+    }
+
+    private static Department department(String number, String parentNumber) {
+        Department department = new Department();
+        department.setNumber(number);
+        department.setParentNumber(parentNumber);
+        department.setName("部门" + number);
+        return department;
+    }
+
+    private static DataSource dataSource() {
+        DataSource dataSource = new DataSource();
+        dataSource.setId(1);
+        dataSource.setName("test");
+        return dataSource;
+    }
+
+    /**
+     * 内存中的Redis，只实现RedisDirectory使用的命令，Lua脚本按照切换代数的逻辑执行。
+     */
+    private static class FakeRedis {
+
+        private final Map<String, byte[]> strings = new HashMap<>();
+        private final Map<String, Map<String, byte[]>> hashes = new HashMap<>();
+        private final Map<String, Set<String>> sets = new HashMap<>();
+        private final Set<String> expiring = new LinkedHashSet<>();
+
+        private RedisConnectionFactory factory() {
+            RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{RedisConnection.class}, (proxy, method, args) -> execute(method.getName(), args));
+            return (RedisConnectionFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{RedisConnectionFactory.class}, (proxy, method, args) -> connection);
+        }
+
+        private Object execute(String command, Object[] args) {
+            switch (command) {
+                case "get":
+                    return strings.get(string(args[0]));
+                case "hMSet":
+                    @SuppressWarnings("unchecked")
+                    Map<byte[], byte[]> fields = (Map<byte[], byte[]>) args[1];
+                    fields.forEach((field, value) -> hash(args[0]).put(string(field), value));
+                    return null;
+                case "hGet":
+                    return hash(args[0]).get(string(args[1]));
+                case "hMGet":
+                    List<byte[]> values = new ArrayList<>();
+                    for (byte[] field : (byte[][]) args[1]) {
+                        values.add(hash(args[0]).get(string(field)));
+                    }
+                    return values;
+                case "hKeys":
+                    Set<byte[]> keys = new LinkedHashSet<>();
+                    hash(args[0]).keySet().forEach(key -> keys.add(key.getBytes(UTF_8)));
+                    return keys;
+                case "sAdd":
+                    for (byte[] member : (byte[][]) args[1]) {
+                        sets.computeIfAbsent(string(args[0]), key -> new LinkedHashSet<>()).add(string(member));
+                    }
+                    return null;
+                case "sMembers":
+                    Set<byte[]> members = new LinkedHashSet<>();
+                    sets.getOrDefault(string(args[0]), Collections.emptySet()).forEach(member -> members.add(member.getBytes(UTF_8)));
+                    return members;
+                case "pExpire":
+                    String key = string(args[0]);
+                    if (hashes.containsKey(key) || sets.containsKey(key)) {
+                        expiring.add(key);
+                    }
+                    return null;
+                case "eval":
+                    byte[][] keysAndArgs = (byte[][]) args[3];
+                    byte[] current = strings.get(string(keysAndArgs[0]));
+                    long generation = Long.parseLong(string(keysAndArgs[1]));
+                    if (current != null && Long.parseLong(string(current)) >= generation) {
+                        return -1L;
+                    }
+                    strings.put(string(keysAndArgs[0]), keysAndArgs[1]);
+                    return current == null ? 0L : Long.parseLong(string(current));
+                case "openPipeline":
+                case "close":
+                    return null;
+                case "closePipeline":
+                    return new ArrayList<>();
+                default:
+                    throw new UnsupportedOperationException(command);
+            }
+        }
+
+        private Map<String, byte[]> hash(Object key) {
+            return hashes.computeIfAbsent(string(key), k -> new TreeMap<>());
+        }
+
+        private static String string(Object bytes) {
+            return new String((byte[]) bytes, UTF_8);
+        }
+    }
+}
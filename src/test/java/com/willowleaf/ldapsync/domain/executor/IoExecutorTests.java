@@ -0,0 +1,42 @@
+package com.willowleaf.ldapsync.domain.executor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IoExecutorTests {
+
+    private final IoExecutor executor = new IoExecutor("test", 1, 1);
+
+    @AfterEach
+    public void close() {
+        executor.close();
+    }
+
+    @Test
+    public void releasePermitOfCancelledTask() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 10; i++) {
+            CountDownLatch started = new CountDownLatch(1);
+            Future<?> running = executor.submit(() -> {
+                started.countDown();
+                release.await();
+                return null;
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<?> queued = executor.submit(() -> null);
+
+            // 在队列中被取消的任务不会执行，许可和队列容量都必须归还，否则第二轮提交会一直等待
+            queued.cancel(true);
+            running.cancel(true);
+            assertEquals(0, executor.getQueueSize());
+        }
+        assertEquals("ok", executor.submit(() -> "ok").get(5, TimeUnit.SECONDS));
+    }
+}
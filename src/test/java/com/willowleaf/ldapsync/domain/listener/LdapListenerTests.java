@@ -0,0 +1,408 @@
+package com.willowleaf.ldapsync.domain.listener;
+
+import com.unboundid.ldap.listener.*;
+import com.unboundid.ldap.protocol.*;
+import com.unboundid.ldap.sdk.*;
+import com.unboundid.ldap.sdk.controls.EntryChangeNotificationControl;
+import com.unboundid.ldap.sdk.controls.PersistentSearchChangeType;
+import com.unboundid.ldap.sdk.controls.PersistentSearchRequestControl;
+import com.willowleaf.ldapsync.data.DepartmentRepository;
+import com.willowleaf.ldapsync.data.EmployeeRepository;
+import com.willowleaf.ldapsync.domain.*;
+import com.willowleaf.ldapsync.domain.Dictionary;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * <pre>
+ * 使用UnboundID的内存目录（{@link InMemoryRequestHandler}）测试变更监听。
+ *
+ * 内存目录不支持Persistent Search，测试在内存目录外包装一层请求处理器：
+ * 带有Persistent Search控件的查询不返回结果，测试修改目录后向这些查询推送带有变更通知控件的条目。
+ * </pre>
+ */
+public class LdapListenerTests {
+
+    private static final String BASE = "dc=example,dc=com";
+    private static final String DEPARTMENTS = "ou=departments," + BASE;
+    private static final String PEOPLE = "ou=people," + BASE;
+    private static final String POSITIONS = "ou=positions," + BASE;
+
+    private InMemoryRequestHandler directory;
+    private LDAPListener server;
+    private final List<PersistentSearch> searches = new CopyOnWriteArrayList<>();
+
+    private final DepartmentRepository departmentRepository = mock(DepartmentRepository.class);
+    private final EmployeeRepository employeeRepository = mock(EmployeeRepository.class);
+    private final RecordingStorage storage = new RecordingStorage();
+    private LdapListener listener;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE);
+        config.addAdditionalBindCredentials("cn=admin", "secret");
+        config.setSchema(null);
+        directory = new InMemoryRequestHandler(config);
+        directory.addEntries(Arrays.asList(
+                new Entry(BASE, new Attribute("objectClass", "domain")),
+                new Entry(DEPARTMENTS, new Attribute("objectClass", "organizationalUnit")),
+                new Entry(PEOPLE, new Attribute("objectClass", "organizationalUnit")),
+                new Entry("ou=others," + PEOPLE, new Attribute("objectClass", "organizationalUnit")),
+                new Entry(POSITIONS, new Attribute("objectClass", "organizationalUnit")),
+                new Entry("cn=P1," + POSITIONS, new Attribute("objectClass", "organizationalRole"),
+                        new Attribute("description", "工程师"))));
+
+        LDAPListenerConfig listenerConfig = new LDAPListenerConfig(0, new PersistentSearchHandler(directory, null));
+        listenerConfig.setListenAddress(InetAddress.getLoopbackAddress());
+        server = new LDAPListener(listenerConfig);
+        server.startListening();
+
+        DataSource dataSource = new DataSource();
+        dataSource.setId(1);
+        dataSource.setName("test");
+        dataSource.setUrl("ldap://127.0.0.1:" + server.getListenPort());
+        dataSource.setUsername("cn=admin");
+        dataSource.setPassword("secret");
+        dataSource.setDictionaries(Arrays.asList(
+                dictionary(Dictionary.Type.DEPARTMENT, DEPARTMENTS, "(objectClass=organizationalUnit)",
+                        "ou", "number", "description", "name", "parentNumber", "parentNumber"),
+                dictionary(Dictionary.Type.EMPLOYEE, PEOPLE, "(objectClass=inetOrgPerson)",
+                        "uid", "uid", "cn", "name", "departmentNumber", "departmentNumber",
+                        "title", "positionNumber"),
+                dictionary(Dictionary.Type.POSITION, POSITIONS, "(objectClass=organizationalRole)",
+                        "cn", "number", "description", "name")));
+
+        Department root = department(dataSource, "1", "D1", "总部", null);
+        when(departmentRepository.findFirstByDataSourceIdAndNumber(1, "D1")).thenReturn(Optional.of(root));
+        Employee stored = new Employee();
+        stored.setId("100");
+        stored.setUid("zhangsan");
+        stored.setDataSource(dataSource);
+        when(employeeRepository.findFirstByDataSourceIdAndUid(1, "zhangsan")).thenReturn(Optional.of(stored));
+
+        listener = new LdapListener(dataSource, storage, departmentRepository, employeeRepository);
+        listener.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (searches.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, searches.size(), "部门和员工的变更监听没有开始");
+        assertTrue(listener.isConnected());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        listener.close();
+        server.shutDown(true);
+    }
+
+    @Test
+    public void addAndModifyDepartment() throws Exception {
+        add(new Entry("ou=D2," + DEPARTMENTS, new Attribute("objectClass", "organizationalUnit"),
+                new Attribute("description", "研发部"), new Attribute("parentNumber", "D1")));
+        Department added = storage.next("save", Department.class);
+        assertEquals("D2", added.getNumber());
+        assertEquals("研发部", added.getName());
+        assertEquals("D1_D2", added.getNumberPath());
+        assertEquals("总部_研发部", added.getNamePath());
+
+        modify("ou=D2," + DEPARTMENTS, new Modification(ModificationType.REPLACE, "description", "平台部"));
+        Department modified = storage.next("save", Department.class);
+        assertEquals("D2", modified.getNumber());
+        assertEquals("总部_平台部", modified.getNamePath());
+    }
+
+    @Test
+    public void keepNestedSetOfStoredDepartment() throws Exception {
+        Department root = departmentRepository.findFirstByDataSourceIdAndNumber(1, "D1")
+                .orElseThrow(AssertionError::new);
+        root.setLft(1);
+        root.setRgt(8);
+        root.setDepth(0);
+
+        add(new Entry("ou=D1," + DEPARTMENTS, new Attribute("objectClass", "organizationalUnit"),
+                new Attribute("description", "集团")));
+        Department modified = storage.next("save", Department.class);
+        assertEquals("集团", modified.getName());
+        assertEquals(Integer.valueOf(1), modified.getLft());
+        assertEquals(Integer.valueOf(8), modified.getRgt());
+        assertEquals(Integer.valueOf(0), modified.getDepth());
+
+        // 新增的部门在下一次同步之前没有嵌套集合的值
+        add(new Entry("ou=D2," + DEPARTMENTS, new Attribute("objectClass", "organizationalUnit"),
+                new Attribute("description", "研发部"), new Attribute("parentNumber", "D1")));
+        Department added = storage.next("save", Department.class);
+        assertNull(added.getLft());
+        assertNull(added.getDepth());
+    }
+
+    @Test
+    public void deleteDepartment() throws Exception {
+        delete("ou=D1," + DEPARTMENTS, new Entry("ou=D1," + DEPARTMENTS,
+                new Attribute("objectClass", "organizationalUnit")));
+
+        // 删除事件只有DN，部门编号来自RDN，删除使用持久化的部门ID
+        Department removed = storage.next("remove", Department.class);
+        assertEquals("1", removed.getId());
+        assertEquals("D1", removed.getNumber());
+    }
+
+    @Test
+    public void addModifyAndDeleteEmployee() throws Exception {
+        add(employee("zhangsan", "张三", "D1"));
+        Employee added = storage.next("save", Employee.class);
+        assertEquals("zhangsan", added.getUid());
+        assertEquals("张三", added.getName());
+        assertEquals("1", added.getDepartment().getId());
+        assertEquals("工程师", added.getPositionName());
+
+        modify("uid=zhangsan," + PEOPLE, new Modification(ModificationType.REPLACE, "cn", "张三丰"));
+        assertEquals("张三丰", storage.next("save", Employee.class).getName());
+
+        delete("uid=zhangsan," + PEOPLE, new Entry("uid=zhangsan," + PEOPLE));
+        assertEquals("100", storage.next("remove", Employee.class).getId());
+    }
+
+    @Test
+    public void renameRemovesOldKey() throws Exception {
+        add(employee("zhangsan", "张三", "D1"));
+        storage.next("save", Employee.class);
+
+        rename("uid=zhangsan," + PEOPLE, "uid=zhangsan2", null);
+        assertEquals("100", storage.next("remove", Employee.class).getId());
+        assertEquals("zhangsan2", storage.next("save", Employee.class).getUid());
+    }
+
+    @Test
+    public void moveKeepsKey() throws Exception {
+        add(employee("zhangsan", "张三", "D1"));
+        storage.next("save", Employee.class);
+
+        rename("uid=zhangsan," + PEOPLE, "uid=zhangsan", "ou=others," + PEOPLE);
+        assertEquals("zhangsan", storage.next("save", Employee.class).getUid());
+        assertTrue(storage.isEmpty());
+    }
+
+    @Test
+    public void ignoreEmployeeWithoutDepartment() throws Exception {
+        add(employee("lisi", "李四", "D404"));
+        add(employee("wangwu", "王五", "D1"));
+
+        // 同一个查询的事件按顺序处理，第一个记录的事件是王五
+        assertEquals("wangwu", storage.next("save", Employee.class).getUid());
+        assertTrue(storage.isEmpty());
+    }
+
+    private void add(Entry entry) throws LDAPException {
+        directory.addEntry(entry, false);
+        publish(PersistentSearchChangeType.ADD, directory.getEntry(entry.getDN()), null);
+    }
+
+    private void modify(String dn, Modification... modifications) throws LDAPException {
+        directory.modifyEntry(dn, Arrays.asList(modifications));
+        publish(PersistentSearchChangeType.MODIFY, directory.getEntry(dn), null);
+    }
+
+    private void delete(String dn, Entry notified) throws LDAPException {
+        directory.deleteSubtree(dn);
+        publish(PersistentSearchChangeType.DELETE, notified, null);
+    }
+
+    private void rename(String dn, String newRDN, String newSuperiorDN) throws LDAPException {
+        Entry entry = directory.getEntry(dn);
+        DN newDN = new DN(new RDN(newRDN), newSuperiorDN == null ? entry.getParsedDN().getParent()
+                : new DN(newSuperiorDN));
+        LDAPResult result = directory.modifyDN(new ModifyDNRequest(dn, newRDN, true, newSuperiorDN));
+        assertEquals(ResultCode.SUCCESS, result.getResultCode());
+        publish(PersistentSearchChangeType.MODIFY_DN, directory.getEntry(newDN), dn);
+    }
+
+    /**
+     * 向base包含该条目的Persistent Search推送变更通知。
+     */
+    private void publish(PersistentSearchChangeType changeType, Entry entry, String previousDN)
+            throws LDAPException {
+        for (PersistentSearch search : searches) {
+            if (entry.getParsedDN().isDescendantOf(search.base, true)) {
+                search.connection.sendSearchResultEntry(search.messageId, entry,
+                        new EntryChangeNotificationControl(changeType, previousDN, -1L));
+            }
+        }
+    }
+
+    private static Entry employee(String uid, String name, String departmentNumber) {
+        return new Entry("uid=" + uid + "," + PEOPLE, new Attribute("objectClass", "inetOrgPerson"),
+                new Attribute("cn", name), new Attribute("departmentNumber", departmentNumber),
+                new Attribute("title", "P1"));
+    }
+
+    private static Department department(DataSource dataSource, String id, String number, String name,
+                                         Department parent) {
+        Department department = new Department();
+        department.setId(id);
+        department.setNumber(number);
+        department.setName(name);
+        department.setDataSource(dataSource);
+        department.buildPaths(parent);
+        return department;
+    }
+
+    private static Dictionary dictionary(Dictionary.Type type, String base, String filter, String... maps) {
+        List<AttributeMap> attributeMaps = new ArrayList<>();
+        for (int i = 0; i < maps.length; i += 2) {
+            AttributeMap attributeMap = new AttributeMap();
+            attributeMap.setSourceName(maps[i]);
+            attributeMap.setTargetName(maps[i + 1]);
+            attributeMaps.add(attributeMap);
+        }
+
+        Dictionary dictionary = new Dictionary();
+        dictionary.setType(type);
+        dictionary.setBase(base);
+        dictionary.setFilter(filter);
+        dictionary.setAttributeMaps(attributeMaps);
+        return dictionary;
+    }
+
+    private static final class PersistentSearch {
+
+        private final LDAPListenerClientConnection connection;
+        private final int messageId;
+        private final DN base;
+
+        private PersistentSearch(LDAPListenerClientConnection connection, int messageId, DN base) {
+            this.connection = connection;
+            this.messageId = messageId;
+            this.base = base;
+        }
+    }
+
+    /**
+     * 在内存目录外处理Persistent Search：记录查询且不返回结果，其它请求交给内存目录处理。
+     */
+    private final class PersistentSearchHandler extends LDAPListenerRequestHandler {
+
+        private final InMemoryRequestHandler delegate;
+        private final LDAPListenerClientConnection connection;
+
+        private PersistentSearchHandler(InMemoryRequestHandler delegate, LDAPListenerClientConnection connection) {
+            this.delegate = delegate;
+            this.connection = connection;
+        }
+
+        @Override
+        public LDAPListenerRequestHandler newInstance(LDAPListenerClientConnection connection) throws LDAPException {
+            return new PersistentSearchHandler(delegate.newInstance(connection), connection);
+        }
+
+        @Override
+        public LDAPMessage processSearchRequest(int messageID, SearchRequestProtocolOp request,
+                                                List<Control> controls) {
+            if (controls.stream().anyMatch(control ->
+                    PersistentSearchRequestControl.PERSISTENT_SEARCH_REQUEST_OID.equals(control.getOID()))) {
+                try {
+                    searches.add(new PersistentSearch(connection, messageID, new DN(request.getBaseDN())));
+                } catch (LDAPException e) {
+                    throw new IllegalArgumentException(e);
+                }
+                return null;
+            }
+            return delegate.processSearchRequest(messageID, request, controls);
+        }
+
+        @Override
+        public LDAPMessage processAddRequest(int messageID, AddRequestProtocolOp request, List<Control> controls) {
+            return delegate.processAddRequest(messageID, request, controls);
+        }
+
+        @Override
+        public LDAPMessage processBindRequest(int messageID, BindRequestProtocolOp request, List<Control> controls) {
+            return delegate.processBindRequest(messageID, request, controls);
+        }
+
+        @Override
+        public LDAPMessage processCompareRequest(int messageID, CompareRequestProtocolOp request,
+                                                 List<Control> controls) {
+            return delegate.processCompareRequest(messageID, request, controls);
+        }
+
+        @Override
+        public LDAPMessage processDeleteRequest(int messageID, DeleteRequestProtocolOp request,
+                                                List<Control> controls) {
+            return delegate.processDeleteRequest(messageID, request, controls);
+        }
+
+        @Override
+        public LDAPMessage processExtendedRequest(int messageID, ExtendedRequestProtocolOp request,
+                                                  List<Control> controls) {
+            return delegate.processExtendedRequest(messageID, request, controls);
+        }
+
+        @Override
+        public LDAPMessage processModifyRequest(int messageID, ModifyRequestProtocolOp request,
+                                                List<Control> controls) {
+            return delegate.processModifyRequest(messageID, request, controls);
+        }
+
+        @Override
+        public LDAPMessage processModifyDNRequest(int messageID, ModifyDNRequestProtocolOp request,
+                                                  List<Control> controls) {
+            return delegate.processModifyDNRequest(messageID, request, controls);
+        }
+    }
+
+    /**
+     * 按顺序记录写入存储的变更。
+     */
+    private static final class RecordingStorage implements Organization.Storage {
+
+        private final BlockingQueue<Object[]> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void save(@Nonnull Department department) {
+            events.add(new Object[]{"save", department});
+        }
+
+        @Override
+        public void remove(@Nonnull Department department, Exception e) {
+            events.add(new Object[]{"remove", department});
+        }
+
+        @Override
+        public void save(@Nonnull Employee employee) {
+            events.add(new Object[]{"save", employee});
+        }
+
+        @Override
+        public void remove(@Nonnull Employee employee) {
+            events.add(new Object[]{"remove", employee});
+        }
+
+        private <T> T next(String action, Class<T> type) throws InterruptedException {
+            Object[] event = events.poll(10, TimeUnit.SECONDS);
+            assertNotNull(event, "没有收到" + action + "事件");
+            assertEquals(action, event[0]);
+            return type.cast(event[1]);
+        }
+
+        /**
+         * 稍等片刻后确认没有更多的变更。
+         */
+        private boolean isEmpty() throws InterruptedException {
+            return events.poll(200, TimeUnit.MILLISECONDS) == null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.willowleaf.ldapsync.domain.mapping;
+
+import com.willowleaf.ldapsync.domain.AttributeMap;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Employee;
+import org.junit.jupiter.api.Test;
+
+import javax.naming.directory.BasicAttributes;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledAttributesMapperTests {
+
+    @Test
+    public void mapAttributes() throws Exception {
+        DataSource dataSource = new DataSource();
+        CompiledAttributesMapper<Employee> mapper = CompiledAttributesMapper.compile(Employee.class,
+                Arrays.asList(attributeMap("uid", "uid"), attributeMap("seq", "sequence"),
+                        attributeMap("birth", "birthday"), attributeMap("userPassword", "password"),
+                        attributeMap("mobile", "mobile")),
+                dataSource,
+                Collections.singletonMap("birth", new DateTimeFormatter[]{
+                        DateTimeFormatter.ofPattern("yyyy-MM-dd"),
+                        DateTimeFormatter.ofPattern("yyyyMMddHHmmss'Z'")}));
+
+        BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put("uid", "dengbin");
+        attributes.put("seq", " 12 ");
+        attributes.put("birth", "19910916000000Z");
+        attributes.put("userPassword", new byte[]{1, 2});
+        Employee employee = mapper.mapFromAttributes(attributes);
+
+        assertEquals("dengbin", employee.getUid());
+        assertEquals(12, employee.getSequence());
+        assertEquals(LocalDateTime.of(1991, 9, 16, 0, 0), employee.getBirthday());
+        assertArrayEquals(new byte[]{1, 2}, employee.getPassword());
+        assertNull(employee.getMobile());
+        assertSame(dataSource, employee.getDataSource());
+    }
+
+    @Test
+    public void rejectUnknownProperty() {
+        assertThrows(IllegalArgumentException.class, () -> CompiledAttributesMapper.compile(Employee.class,
+                Collections.singletonList(attributeMap("uid", "nickname")), new DataSource(),
+                Collections.emptyMap()));
+    }
+
+    private static AttributeMap attributeMap(String sourceName, String targetName) {
+        AttributeMap attributeMap = new AttributeMap();
+        attributeMap.setSourceName(sourceName);
+        attributeMap.setTargetName(targetName);
+        return attributeMap;
+    }
+}
@@ -0,0 +1,56 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class ContentHasherTests {
+
+    @Test
+    public void hashPersistentFields() {
+        Employee employee = employee();
+        long hash = ContentHasher.hash(employee);
+        assertEquals(hash, ContentHasher.hash(employee()));
+
+        // 元数据和忽略的字段不参与计算
+        employee.setGeneration(2L);
+        employee.setContentHash(hash);
+        employee.setDepartment(new Department());
+        assertEquals(hash, ContentHasher.hash(employee));
+
+        employee.setMobile("13800000001");
+        assertNotEquals(hash, ContentHasher.hash(employee));
+    }
+
+    @Test
+    public void distinguishAdjacentFields() {
+        Employee left = employee();
+        left.setName("ab");
+        left.setEnglishName("c");
+        Employee right = employee();
+        right.setName("a");
+        right.setEnglishName("bc");
+        assertNotEquals(ContentHasher.hash(left), ContentHasher.hash(right));
+
+        Employee empty = employee();
+        empty.setNation("");
+        assertNotEquals(ContentHasher.hash(employee()), ContentHasher.hash(empty));
+    }
+
+    private static Employee employee() {
+        Employee employee = new Employee();
+        employee.setId("1");
+        employee.setUid("zhangsan");
+        employee.setName("张三");
+        employee.setBirthday(LocalDateTime.of(1990, 1, 1, 0, 0));
+        employee.setPassword(new byte[]{1, 2, 3});
+        employee.setMobile("13800000000");
+        employee.setGeneration(1L);
+        return employee;
+    }
+}
@@ -0,0 +1,62 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.annotation.Ignore;
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DocumentSerializerTests {
+
+    @Test
+    public void serializeEmployee() throws Exception {
+        Employee employee = new Employee();
+        employee.setUid("u1");
+        employee.setName("张三 \"\\\n\u0001😀");
+        employee.setBirthday(LocalDateTime.of(2020, 1, 2, 3, 4, 5, 123456789));
+        employee.setPassword(new byte[]{1, 2, 3, -1});
+        employee.setSequence(7);
+        employee.setDepartment(new Department());
+
+        assertEquals(reference(employee), serialize(employee));
+    }
+
+    @Test
+    public void serializeDepartment() throws Exception {
+        Department department = new Department();
+        department.setNumber("1");
+        department.setName("顺德工厂");
+        department.getEmployees().add(new Employee());
+
+        assertEquals(reference(department), serialize(department));
+    }
+
+    private static Map<String, Object> serialize(Object object) {
+        return XContentHelper.convertToMap(DocumentSerializer.toDocument(object), true, XContentType.JSON).v2();
+    }
+
+    /**
+     * 使用XContentBuilder序列化的文档。
+     */
+    private static Map<String, Object> reference(Object object) throws IOException, IllegalAccessException {
+        XContentBuilder builder = jsonBuilder().startObject();
+        for (Field field : object.getClass().getDeclaredFields()) {
+            if (field.getDeclaredAnnotation(Ignore.class) == null) {
+                field.setAccessible(true);
+                builder.field(field.getName(), field.get(object));
+            }
+        }
+        return XContentHelper.convertToMap(BytesReference.bytes(builder.endObject()), true, XContentType.JSON).v2();
+    }
+}
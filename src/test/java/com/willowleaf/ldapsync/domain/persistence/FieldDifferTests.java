@@ -0,0 +1,59 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Department;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static com.willowleaf.ldapsync.domain.persistence.JdbcTable.DEPARTMENT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class FieldDifferTests {
+
+    @Test
+    public void markChangedFields() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:diff;DB_CLOSE_DELAY=-1"));
+        jdbcTemplate.execute("create table department (id varchar(36) primary key, id_path varchar(255), "
+                + "number varchar(255), number_path varchar(255), name varchar(255), name_path varchar(2000), "
+                + "english_name varchar(255), english_name_path varchar(2000), email varchar(255), "
+                + "organization_type varchar(255), parent_name varchar(255), parent_number varchar(255), "
+                + "person_in_charge varchar(255), sequence int, lft int, rgt int, depth int, generation bigint, "
+                + "content_hash bigint, data_source_id int)");
+        List<Department> stored = Arrays.asList(department("1", 1L), department("2", null));
+        jdbcTemplate.update(SqlDialect.H2.upsert(DEPARTMENT.getName(), DEPARTMENT.getColumns(), stored.size()),
+                DEPARTMENT.values(stored));
+
+        Department changed = department("1", 2L);
+        changed.setName("研发中心");
+        changed.setGeneration(2L);
+        Department invalidated = department("2", 2L);
+        Department created = department("3", 2L);
+        new FieldDiffer(jdbcTemplate).diffDepartments(Arrays.asList(changed, invalidated, created));
+
+        assertEquals(new HashSet<>(Arrays.asList("name", "generation", "contentHash")), changed.getChangedFields());
+        // 内容哈希已经被清除的数据和新增的数据写入所有字段
+        assertNull(invalidated.getChangedFields());
+        assertNull(created.getChangedFields());
+    }
+
+    private static Department department(String id, Long contentHash) {
+        DataSource dataSource = new DataSource();
+        dataSource.setId(1);
+        Department department = new Department();
+        department.setId(id);
+        department.setNumber("D" + id);
+        department.setName("部门" + id);
+        department.setSequence(Integer.valueOf(id));
+        department.setGeneration(1L);
+        department.setContentHash(contentHash);
+        department.setDataSource(dataSource);
+        department.buildPaths(null);
+        return department;
+    }
+}
@@ -0,0 +1,40 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.config.SweepProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GenerationSweeperTests {
+
+    @Test
+    public void sweepOlderGenerations() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:sweep;DB_CLOSE_DELAY=-1"));
+        jdbcTemplate.execute("create table department (id varchar(36) primary key, data_source_id int, "
+                + "generation bigint)");
+        jdbcTemplate.execute("create table employee (id varchar(36) primary key, data_source_id int, "
+                + "generation bigint, department_id varchar(36) references department (id))");
+        jdbcTemplate.update("insert into department values ('d1', 1, 2), ('d2', 1, 1), ('d3', 1, 1), ('d4', 2, 1)");
+        jdbcTemplate.update("insert into employee values ('e1', 1, 2, 'd1'), ('e2', 1, 1, 'd2'), ('e3', 1, null, 'd2'), "
+                + "('e4', 1, 1, 'd1'), ('e5', 1, 2, 'd3'), ('e6', 2, 1, 'd4')");
+
+        SweepProperties properties = new SweepProperties();
+        properties.setChunkSize(1);
+        properties.setChunkDelay(Duration.ZERO);
+        DataSource dataSource = new DataSource();
+        dataSource.setId(1);
+        new GenerationSweeper(jdbcTemplate, properties).sweep(dataSource, 2);
+
+        // d3仍然被本次同步写入的员工引用，其它数据源的数据不受影响
+        assertEquals(Arrays.asList("d1", "d3", "d4"),
+                jdbcTemplate.queryForList("select id from department order by id", String.class));
+        assertEquals(Arrays.asList("e1", "e5", "e6"),
+                jdbcTemplate.queryForList("select id from employee order by id", String.class));
+    }
+}
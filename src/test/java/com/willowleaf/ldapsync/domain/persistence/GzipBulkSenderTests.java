@@ -0,0 +1,39 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GzipBulkSenderTests {
+
+    @Test
+    public void compressNdjson() throws IOException {
+        BulkRequest request = new BulkRequest()
+                .add(new IndexRequest("emp_1").id("a").source("{\"name\":\"a\"}", XContentType.JSON))
+                .add(new UpdateRequest("dept_1", "b").doc("{\"name\":\"b\"}", XContentType.JSON).docAsUpsert(true))
+                .add(new DeleteRequest("emp_1", "c"));
+
+        byte[] compressed = GzipBulkSender.compress(request);
+        String ndjson;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            ndjson = StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+
+        assertEquals("{\"index\":{\"_index\":\"emp_1\",\"_id\":\"a\"}}\n"
+                + "{\"name\":\"a\"}\n"
+                + "{\"update\":{\"_index\":\"dept_1\",\"_id\":\"b\"}}\n"
+                + "{\"doc\":{\"name\":\"b\"},\"doc_as_upsert\":true}\n"
+                + "{\"delete\":{\"_index\":\"emp_1\",\"_id\":\"c\"}}\n", ndjson);
+    }
+}
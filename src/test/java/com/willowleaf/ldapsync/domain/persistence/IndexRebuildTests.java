@@ -0,0 +1,169 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.willowleaf.ldapsync.config.ElasticsearchStorageProperties;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 使用本地HTTP服务模拟Elasticsearch的索引和别名接口。
+ */
+public class IndexRebuildTests {
+
+    private HttpServer server;
+    private RestHighLevelClient client;
+
+    /**
+     * 收到的请求，格式为"{method} {path}"。
+     */
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, String> bodies = Collections.synchronizedMap(new HashMap<>());
+
+    /**
+     * 别名 -> 别名当前指向的索引，没有时别名是具体索引（旧版本创建的索引）。
+     */
+    private final Map<String, String> aliases = new HashMap<>();
+
+    /**
+     * 别名 -> 匹配{alias}_*的索引。
+     */
+    private final Map<String, List<String>> generations = new HashMap<>();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        client = new RestHighLevelClient(RestClient.builder(
+                new HttpHost(InetAddress.getLoopbackAddress(), server.getAddress().getPort(), "http")));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void createAndSwap() {
+        aliases.put("dept_1", "dept_1_100");
+        IndexRebuild rebuild = newRebuild("dept_1", "emp_1");
+        String dept = rebuild.getIndex("dept_1");
+        String emp = rebuild.getIndex("emp_1");
+        generations.put("dept_1", Arrays.asList("dept_1_100", dept));
+        generations.put("emp_1", Collections.singletonList(emp));
+
+        rebuild.create();
+        assertTrue(requests.contains("PUT /" + dept));
+        assertTrue(requests.contains("PUT /" + emp));
+        assertTrue(bodies.get("PUT /" + dept).contains("\"refresh_interval\":\"-1\""));
+
+        rebuild.swap();
+        assertTrue(requests.contains("POST /" + dept + "/_forcemerge"));
+        assertTrue(requests.contains("PUT /" + dept + "/_settings"));
+        assertTrue(bodies.get("PUT /" + dept + "/_settings").contains("\"refresh_interval\":\"5s\""));
+
+        // emp_1之前是具体索引，在切换别名的同一个请求中删除
+        String actions = bodies.get("POST /_aliases");
+        assertTrue(actions.contains("{\"remove\":{\"indices\":[\"dept_1_100\"],\"aliases\":[\"dept_1\"]}}"), actions);
+        assertTrue(actions.contains("{\"add\":{\"indices\":[\"" + dept + "\"],\"aliases\":[\"dept_1\"]}}"), actions);
+        assertTrue(actions.contains("{\"remove_index\":{\"indices\":[\"emp_1\"]}}"), actions);
+        assertTrue(actions.contains("{\"add\":{\"indices\":[\"" + emp + "\"],\"aliases\":[\"emp_1\"]}}"), actions);
+
+        // 别名切换后删除旧一代索引
+        assertEquals("DELETE /dept_1_100", requests.get(requests.size() - 1));
+        assertTrue(requests.indexOf("POST /_aliases") < requests.indexOf("DELETE /dept_1_100"));
+    }
+
+    @Test
+    public void discard() {
+        IndexRebuild rebuild = newRebuild("dept_1", "emp_1");
+        rebuild.create();
+        rebuild.discard();
+
+        assertEquals("DELETE /" + rebuild.getIndex("dept_1") + "," + rebuild.getIndex("emp_1"),
+                requests.get(requests.size() - 1));
+        assertTrue(requests.stream().noneMatch(request -> request.startsWith("POST /_aliases")));
+    }
+
+    private IndexRebuild newRebuild(String... aliases) {
+        return new IndexRebuild(client, new ElasticsearchStorageProperties.Rebuild(), Arrays.asList(aliases));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), "UTF-8");
+        String request = method + " " + path;
+        requests.add(request);
+        bodies.put(request, StreamUtils.copyToString(exchange.getRequestBody(), StandardCharsets.UTF_8));
+
+        String[] segments = path.substring(1).split("/");
+        if ("HEAD".equals(method)) {
+            // 只有旧版本创建的具体索引存在同名索引
+            boolean exists = segments.length == 1 && !segments[0].isEmpty() && !aliases.containsKey(segments[0]);
+            respond(exchange, exists ? 200 : 404, null);
+        } else if (path.startsWith("/_alias/")) {
+            String alias = segments[1];
+            String index = aliases.get(alias);
+            respond(exchange, index == null ? 404 : 200, index == null
+                    ? "{\"error\":\"alias [" + alias + "] missing\",\"status\":404}"
+                    : "{\"" + index + "\":{\"aliases\":{\"" + alias + "\":{}}}}");
+        } else if (segments.length >= 2 && "_settings".equals(segments[1]) && "GET".equals(method)) {
+            String index = aliases.getOrDefault(segments[0], segments[0]);
+            respond(exchange, 200, "{\"" + index + "\":{\"settings\":{\"index\":"
+                    + "{\"refresh_interval\":\"5s\",\"number_of_replicas\":\"2\"}}}}");
+        } else if (segments.length == 1 && segments[0].endsWith("_*") && "GET".equals(method)) {
+            StringBuilder body = new StringBuilder("{");
+            for (String index : generations.getOrDefault(segments[0].substring(0, segments[0].length() - 2),
+                    Collections.emptyList())) {
+                body.append(body.length() > 1 ? "," : "")
+                        .append("\"").append(index).append("\":{\"aliases\":{},\"mappings\":{},\"settings\":{}}");
+            }
+            respond(exchange, 200, body.append("}").toString());
+        } else if (segments.length >= 2 && ("_forcemerge".equals(segments[1]) || "_refresh".equals(segments[1]))) {
+            respond(exchange, 200, "{\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}");
+        } else if (segments.length == 1 && "PUT".equals(method)) {
+            respond(exchange, 200, "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\""
+                    + segments[0] + "\"}");
+        } else {
+            respond(exchange, 200, "{\"acknowledged\":true}");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void readAcrossSegments() throws IOException {
+        try (Journal journal = new Journal(directory, 32)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(bytes("record-" + i + "\n"));
+            }
+
+            Journal.Batch batch = journal.read(Integer.MAX_VALUE);
+            assertEquals("record-0\nrecord-1\nrecord-2\nrecord-3\nrecord-4\n", string(batch.payload));
+            assertFalse(journal.isDrained());
+
+            journal.commit(batch.end);
+            assertTrue(journal.isDrained());
+            assertTrue(journal.read(Integer.MAX_VALUE).isEmpty());
+            assertEquals(1, countSegments());
+        }
+    }
+
+    @Test
+    public void resumeFromCheckpoint() throws IOException {
+        try (Journal journal = new Journal(directory, 1024)) {
+            journal.append(bytes("a\n"));
+            journal.append(bytes("b\n"));
+            Journal.Batch batch = journal.read(1);
+            assertEquals("a\n", string(batch.payload));
+            journal.commit(batch.end);
+        }
+
+        try (Journal journal = new Journal(directory, 1024)) {
+            journal.append(bytes("c\n"));
+            assertEquals("b\nc\n", string(journal.read(Integer.MAX_VALUE).payload));
+        }
+    }
+
+    @Test
+    public void truncateIncompleteRecord() throws IOException {
+        try (Journal journal = new Journal(directory, 1024)) {
+            journal.append(bytes("a\n"));
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.getFileName().toString().endsWith(".log")).findFirst().get();
+        }
+        Files.write(segment, new byte[]{0, 0, 0, 9, 1, 2}, StandardOpenOption.APPEND);
+
+        try (Journal journal = new Journal(directory, 1024)) {
+            journal.append(bytes("b\n"));
+            assertEquals("a\nb\n", string(journal.read(Integer.MAX_VALUE).payload));
+        }
+    }
+
+    private long countSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,111 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class SnapshotTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void writeAndRead() throws Exception {
+        Department department = department("D1", "研发中心");
+        Employee employee = employee("zhangsan", "D1", "13800000000");
+        department.getEmployees().add(employee);
+
+        for (boolean compression : new boolean[]{true, false}) {
+            Snapshot.Writer writer = new Snapshot.Writer();
+            writer.add(department);
+            writer.add(employee);
+            Path file = directory.resolve("snapshot-" + compression + ".lsnp");
+            writer.write(file, 1, 100L, compression);
+
+            Snapshot snapshot = Snapshot.open(file);
+            assertEquals(1, snapshot.getDataSourceId());
+            assertEquals(100L, snapshot.getGeneration());
+            List<Department> departments = snapshot.readDepartments();
+            assertEquals(1, departments.size());
+            assertEquals("研发中心", departments.get(0).getName());
+            assertEquals(department.getSequence(), departments.get(0).getSequence());
+
+            Employee read = departments.get(0).getEmployees().get(0);
+            assertEquals("zhangsan", read.getUid());
+            assertEquals(employee.getBirthday(), read.getBirthday());
+            assertArrayEquals(employee.getPassword(), read.getPassword());
+            assertNull(read.getEmail());
+            assertEquals(ContentHasher.hash(employee), ContentHasher.hash(read));
+        }
+    }
+
+    @Test
+    public void diff() throws Exception {
+        Snapshot before = write("before.lsnp", Arrays.asList(
+                employee("a", "D1", "1"), employee("b", "D1", "2"), employee("c", "D1", "3")));
+        Snapshot after = write("after.lsnp", Arrays.asList(
+                employee("d", "D1", "4"), employee("c", "D1", "3"), employee("b", "D1", "22")));
+
+        List<String> changes = new ArrayList<>();
+        SnapshotDiff.diff(before.employees(), after.employees(), new SnapshotDiff.Listener() {
+            @Override
+            public void added(@Nonnull Snapshot.Record after) {
+                changes.add("+" + after.getKey());
+            }
+
+            @Override
+            public void removed(@Nonnull Snapshot.Record before) {
+                changes.add("-" + before.getKey());
+            }
+
+            @Override
+            public void changed(@Nonnull Snapshot.Record before, @Nonnull Snapshot.Record after) {
+                changes.add("*" + after.getKey() + ":" + after.toEmployee().getMobile());
+            }
+        });
+        assertEquals(Arrays.asList("-a", "*b:22", "+d"), changes);
+    }
+
+    private Snapshot write(String name, List<Employee> employees) throws Exception {
+        Snapshot.Writer writer = new Snapshot.Writer();
+        writer.add(department("D1", "研发中心"));
+        employees.forEach(writer::add);
+        writer.write(directory.resolve(name), 1, 1L, true);
+        return Snapshot.open(directory.resolve(name));
+    }
+
+    private static Department department(String number, String name) {
+        Department department = new Department();
+        department.setId(number);
+        department.setNumber(number);
+        department.setName(name);
+        department.setSequence(-1);
+        department.buildPaths(null);
+        return department;
+    }
+
+    private static Employee employee(String uid, String departmentNumber, String mobile) {
+        Employee employee = new Employee();
+        employee.setId(uid);
+        employee.setUid(uid);
+        employee.setName(uid);
+        employee.setDepartmentNumber(departmentNumber);
+        employee.setMobile(mobile);
+        employee.setBirthday(LocalDateTime.of(1990, 1, 2, 3, 4, 5, 6));
+        employee.setPassword(new byte[]{1, -2, 3});
+        employee.setSequence(Integer.MAX_VALUE);
+        return employee;
+    }
+}
@@ -0,0 +1,38 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SqlDialectTests {
+
+    @Test
+    public void mysqlUpsert() {
+        assertEquals("insert into t (id, name) values (?, ?), (?, ?) "
+                        + "on duplicate key update name = values(name)",
+                SqlDialect.MYSQL.upsert("t", Arrays.asList("id", "name"), 2));
+    }
+
+    @Test
+    public void update() {
+        assertEquals("update t set name = ?, sequence = ? where id = ?",
+                SqlDialect.H2.update("t", Arrays.asList("name", "sequence")));
+    }
+
+    @Test
+    public void h2Merge() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:dialect;DB_CLOSE_DELAY=-1"));
+        jdbcTemplate.execute("create table t (id varchar(36) primary key, name varchar(255))");
+        String sql = SqlDialect.H2.upsert("t", Arrays.asList("id", "name"), 2);
+
+        jdbcTemplate.update(sql, "1", "a", "2", "b");
+        jdbcTemplate.update(sql, "2", "c", "3", "d");
+
+        assertEquals(Arrays.asList("a", "c", "d"),
+                jdbcTemplate.queryForList("select name from t order by id", String.class));
+    }
+}
@@ -0,0 +1,108 @@
+package com.willowleaf.ldapsync.domain.persistence;
+
+import com.willowleaf.ldapsync.config.CompositeStorageProperties;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Department;
+import com.willowleaf.ldapsync.domain.Employee;
+import com.willowleaf.ldapsync.domain.LdapPorter;
+import com.willowleaf.ldapsync.domain.Organization;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageSinkTests {
+
+    private final AtomicInteger attempts = new AtomicInteger();
+    private StorageSink sink;
+
+    @AfterEach
+    public void close() {
+        sink.close();
+    }
+
+    @Test
+    public void retryUntilSucceeded() throws Exception {
+        sink = new StorageSink("test", new FailingStorage(2), properties(2));
+        DataSource dataSource = dataSource();
+        sink.begin(dataSource, LdapPorter.Mode.FULL);
+
+        sink.submit(dataSource, "员工", storage -> storage.save(new Employee())).get();
+
+        assertEquals(3, attempts.get());
+        assertEquals(0, sink.end(dataSource, true).getCount());
+    }
+
+    @Test
+    public void collectDeadLetters() throws Exception {
+        sink = new StorageSink("test", new FailingStorage(Integer.MAX_VALUE), properties(1));
+        DataSource dataSource = dataSource();
+        sink.begin(dataSource, LdapPorter.Mode.FULL);
+
+        sink.submit(dataSource, "员工u1", storage -> storage.save(new Employee())).get();
+
+        StorageSink.DeadLetters deadLetters = sink.end(dataSource, true);
+        assertEquals(2, attempts.get());
+        assertEquals(1, deadLetters.getCount());
+        assertTrue(deadLetters.getLetters().get(0).startsWith("员工u1"));
+    }
+
+    @Test
+    public void throwOutsideSync() {
+        sink = new StorageSink("test", new FailingStorage(Integer.MAX_VALUE), properties(0));
+
+        assertThrows(ExecutionException.class,
+                () -> sink.submit(dataSource(), "员工", storage -> storage.save(new Employee())).get());
+    }
+
+    private static CompositeStorageProperties.Sink properties(int retries) {
+        CompositeStorageProperties.Sink properties = new CompositeStorageProperties.Sink();
+        properties.setConcurrency(1);
+        properties.setRetries(retries);
+        properties.setBackoffDelay(Duration.ofMillis(1));
+        return properties;
+    }
+
+    private static DataSource dataSource() {
+        DataSource dataSource = new DataSource();
+        dataSource.setId(1);
+        dataSource.setName("test");
+        return dataSource;
+    }
+
+    /**
+     * 前若干次写入失败的存储。
+     */
+    private class FailingStorage implements Organization.Storage {
+
+        private final int failures;
+
+        private FailingStorage(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public void save(@Nonnull Employee employee) {
+            if (attempts.incrementAndGet() <= failures) {
+                throw new IllegalStateException("failure " + attempts.get());
+            }
+        }
+
+        @Override
+        public void save(@Nonnull Department department) {
+        }
+
+        @Override
+        public void remove(@Nonnull Department department, Exception e) {
+        }
+
+        @Override
+        public void remove(@Nonnull Employee employee) {
+        }
+    }
+}
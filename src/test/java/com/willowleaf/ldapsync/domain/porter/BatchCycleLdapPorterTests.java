@@ -0,0 +1,39 @@
+package com.willowleaf.ldapsync.domain.porter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchCycleLdapPorterTests {
+
+    @Test
+    public void splitByBatchSize() {
+        List<String> filters = BatchCycleLdapPorter.orFilters("(objectClass=person)", "dept",
+                Arrays.asList("1", "2", "3"), 2, 1024);
+
+        assertEquals(Arrays.asList(
+                "(&(objectClass=person)(|(dept=1)(dept=2)))",
+                "(&(objectClass=person)(|(dept=3)))"), filters);
+    }
+
+    @Test
+    public void splitByMaxLength() {
+        List<String> filters = BatchCycleLdapPorter.orFilters("(o=x)", "dept",
+                Arrays.asList("1001", "1002", "1003"), 100, 30);
+
+        assertEquals(3, filters.size());
+        filters.forEach(filter -> assertTrue(filter.length() <= 30, filter));
+    }
+
+    @Test
+    public void escapeValues() {
+        List<String> filters = BatchCycleLdapPorter.orFilters("(o=x)", "dept",
+                Arrays.asList("a*)(uid=*", "b\\c"), 100, 1024);
+
+        assertEquals("(&(o=x)(|(dept=a\\2a\\29\\28uid=\\2a)(dept=b\\5cc)))", filters.get(0));
+    }
+}
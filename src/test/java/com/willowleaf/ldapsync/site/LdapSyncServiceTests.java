@@ -0,0 +1,72 @@
+package com.willowleaf.ldapsync.site;
+
+import com.willowleaf.ldapsync.data.HighWaterMarkRepository;
+import com.willowleaf.ldapsync.domain.DataSource;
+import com.willowleaf.ldapsync.domain.Dictionary;
+import com.willowleaf.ldapsync.domain.HighWaterMark;
+import com.willowleaf.ldapsync.domain.LdapPorter;
+import com.willowleaf.ldapsync.domain.factory.LdapListenerFactory;
+import com.willowleaf.ldapsync.domain.factory.LdapPorterFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.naming.directory.BasicAttributes;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LdapSyncServiceTests {
+
+    private final LdapPorterFactory porterFactory = mock(LdapPorterFactory.class);
+    private final HighWaterMarkRepository repository = mock(HighWaterMarkRepository.class);
+    private final LdapPorter porter = mock(LdapPorter.class);
+    private final LdapSyncService service = new LdapSyncService(porterFactory, mock(LdapListenerFactory.class),
+            repository);
+
+    private HighWaterMark highWaterMark;
+
+    @BeforeEach
+    public void setUp() {
+        DataSource dataSource = new DataSource();
+        dataSource.setDirectoryType(DataSource.DirectoryType.ACTIVE_DIRECTORY);
+        highWaterMark = new HighWaterMark(dataSource, Dictionary.Type.EMPLOYEE);
+        highWaterMark.setMark("1000");
+        highWaterMark.observe(new BasicAttributes("uSNChanged", "1500", true));
+
+        when(porterFactory.getLdapPorter(1, LdapPorter.Mode.DELTA)).thenReturn(porter);
+        when(porter.getHighWaterMarks()).thenReturn(Collections.singletonList(highWaterMark));
+    }
+
+    @Test
+    public void advanceAfterSuccessfulSync() {
+        service.syncData(1, LdapPorter.Mode.DELTA);
+
+        assertEquals("1500", highWaterMark.getMark());
+        verify(repository).saveAll(Collections.singletonList(highWaterMark));
+    }
+
+    @Test
+    public void keepMarkWhenSyncFails() {
+        doThrow(new IllegalStateException("sync failed")).when(porter).sync();
+
+        assertThrows(IllegalStateException.class, () -> service.syncData(1, LdapPorter.Mode.DELTA));
+        assertEquals("1000", highWaterMark.getMark());
+        verify(repository, never()).saveAll(anyList());
+    }
+
+    @Test
+    public void skipUnchangedMark() {
+        highWaterMark.advance();
+
+        service.syncData(1, LdapPorter.Mode.DELTA);
+
+        verify(repository).saveAll(Collections.<HighWaterMark>emptyList());
+    }
+}